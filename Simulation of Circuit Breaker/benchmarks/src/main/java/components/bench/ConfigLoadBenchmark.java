@@ -0,0 +1,48 @@
+package components.bench;
+
+import components.Component;
+import components.testing.ConfigLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a configuration file: parse, resolve names and build every component. The loader turns reporting off
+ * itself, so there is no reporter parameter.
+ *
+ * @author Feng Jiang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigLoadBenchmark {
+
+    @Param({"8x4", "10x5", "1x10000"})
+    public String shape;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("overload", ".txt");
+        Files.write(file, Panel.config(shape).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<Component> load() throws IOException, ConfigLoader.ConfigException {
+        return new ConfigLoader(file).load();
+    }
+}
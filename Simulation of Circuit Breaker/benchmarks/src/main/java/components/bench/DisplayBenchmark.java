@@ -0,0 +1,68 @@
+package components.bench;
+
+import components.Appliance;
+import components.DisplayRenderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Displaying the whole panel, half of its appliances on. The text goes nowhere, so this measures building it: from
+ * nothing, with nothing changed since the last display, and with one appliance toggled since the last display.
+ *
+ * @author Feng Jiang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisplayBenchmark {
+
+    @Param({"8x4", "32x2", "1x1000"})
+    public String shape;
+
+    private Panel panel;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        console = Panel.reporter("off");
+        panel = new Panel(shape, 1, Integer.MAX_VALUE);
+        panel.root.engage();
+        panel.main.turnOn();
+        for (int i = 0; i < panel.appliances.size(); i += 2) {
+            Appliance appliance = panel.appliances.get(i);
+            appliance.turnOn();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Panel.restoreReporter(console);
+    }
+
+    @Benchmark
+    public void displayCold() {
+        DisplayRenderer.clear();
+        panel.root.display();
+    }
+
+    @Benchmark
+    public void displayUnchanged() {
+        panel.root.display();
+    }
+
+    @Benchmark
+    public void displayAfterToggle() {
+        Appliance appliance = panel.appliances.get(0);
+        if (appliance.isSwitchOn()) {
+            appliance.turnOff();
+        } else {
+            appliance.turnOn();
+        }
+        panel.root.display();
+    }
+}
@@ -0,0 +1,56 @@
+package components.bench;
+
+import components.Appliance;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engaging and disengaging a whole subtree: every appliance is on and each operation switches the main breaker off
+ * and back on. Bushy shapes measure wide subtrees, "1xN" shapes deep ones.
+ *
+ * @author Feng Jiang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngageBenchmark {
+
+    @Param({"8x4", "64x2", "4x8", "1x10000"})
+    public String shape;
+
+    @Param({"off", "on", "async"})
+    public String reporter;
+
+    private Panel panel;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        console = Panel.reporter("off");
+        panel = new Panel(shape, 1, Integer.MAX_VALUE);
+        panel.root.engage();
+        panel.main.turnOn();
+        for (Appliance appliance : panel.appliances) {
+            appliance.turnOn();
+        }
+        Panel.restoreReporter(console);
+        console = Panel.reporter(reporter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Panel.restoreReporter(console);
+    }
+
+    @Benchmark
+    public int offAndOn() {
+        panel.main.turnOff();
+        panel.main.turnOn();
+        return panel.root.getDraw();
+    }
+}
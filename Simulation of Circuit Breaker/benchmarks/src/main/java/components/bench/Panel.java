@@ -0,0 +1,127 @@
+package components.bench;
+
+import components.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the panels the benchmarks run on. A shape "FxD" is a main breaker under a power source, then D levels of
+ * outlets where each outlet feeds F more, and F appliances on each outlet of the last level: "8x4" is a bushy panel
+ * of 4096 appliances, "1x10000" a single feeder daisy-chained through 10000 outlets.
+ *
+ * @author Feng Jiang
+ */
+final class Panel {
+
+    final PowerSource root;
+    final CircuitBreaker main;
+    final List<Appliance> appliances = new ArrayList<>();
+
+    /**
+     * build a panel with reporting turned off, everything switched off and nothing engaged
+     * @param shape     String  "FxD", see the class comment
+     * @param rating    int     the rating of every appliance
+     * @param limit     int     the limit of the main breaker
+     */
+    Panel(String shape, int rating, int limit) {
+        int fanout = fanout(shape);
+        int depth = depth(shape);
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled(false);
+        root = new PowerSource("Root");
+        main = new CircuitBreaker("Main", root, limit);
+        List<Component> level = new ArrayList<>();
+        level.add(main);
+        for (int d = 0; d < depth; d++) {
+            List<Component> next = new ArrayList<>();
+            for (Component source : level) {
+                for (int f = 0; f < fanout; f++) {
+                    next.add(new Outlet("O" + d + "_" + next.size(), source));
+                }
+            }
+            level = next;
+        }
+        for (Component outlet : level) {
+            for (int f = 0; f < fanout; f++) {
+                appliances.add(new Appliance("A" + appliances.size(), outlet, rating));
+            }
+        }
+        Reporter.enable(wasEnabled);
+    }
+
+    /**
+     * @param shape     String  "FxD"
+     * @return  int     F
+     */
+    static int fanout(String shape) {
+        return Integer.parseInt(shape.substring(0, shape.indexOf('x')));
+    }
+
+    /**
+     * @param shape     String  "FxD"
+     * @return  int     D
+     */
+    static int depth(String shape) {
+        return Integer.parseInt(shape.substring(shape.indexOf('x') + 1));
+    }
+
+    /**
+     * the same panel as a configuration file for Overload
+     * @param shape     String  "FxD"
+     * @return  String  the text of the configuration file
+     */
+    static String config(String shape) {
+        int fanout = fanout(shape);
+        int depth = depth(shape);
+        StringBuilder text = new StringBuilder("PowerSource Root\nCircuitBreaker Main Root 2000000000\n");
+        List<String> level = List.of("Main");
+        for (int d = 0; d < depth; d++) {
+            List<String> next = new ArrayList<>();
+            for (String source : level) {
+                for (int f = 0; f < fanout; f++) {
+                    String name = "O" + d + "_" + next.size();
+                    text.append("Outlet ").append(name).append(' ').append(source).append('\n');
+                    next.add(name);
+                }
+            }
+            level = next;
+        }
+        int count = 0;
+        for (String outlet : level) {
+            for (int f = 0; f < fanout; f++) {
+                text.append("Appliance A").append(count++).append(' ').append(outlet).append(" 1\n");
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Set up Reporter for a run: "off" turns every message off, "on" prints them, "async" queues them for the
+     * background writer. Whatever is printed goes nowhere, so the terminal does not take part in the measurement.
+     * @param mode  String  "on", "off" or "async"
+     * @return  PrintStream     the real standard output, to hand back to restoreReporter
+     */
+    static PrintStream reporter(String mode) {
+        PrintStream console = System.out;
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(nowhere);
+        Reporter.setAllEnabled(!mode.equals("off"));
+        if (mode.equals("async")) {
+            Reporter.useAsyncOutput(nowhere, 1 << 16, Reporter.Overflow.BLOCK);
+        }
+        return console;
+    }
+
+    /**
+     * undo reporter
+     * @param console   PrintStream     what reporter returned
+     */
+    static void restoreReporter(PrintStream console) {
+        Reporter.stopAsyncOutput();
+        Reporter.setAllEnabled(true);
+        System.setOut(console);
+    }
+}
@@ -0,0 +1,62 @@
+package components.bench;
+
+import components.Appliance;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Toggle throughput: each operation flips the next appliance of the panel, which sends one change in draw up through
+ * every level above it.
+ * <pre>
+ *     mvn -q package &amp;&amp; java -jar benchmarks/target/benchmarks.jar ToggleBenchmark
+ * </pre>
+ *
+ * @author Feng Jiang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ToggleBenchmark {
+
+    @Param({"8x4", "32x2", "1x1000"})
+    public String shape;
+
+    @Param({"off", "on", "async"})
+    public String reporter;
+
+    private Panel panel;
+    private PrintStream console;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        console = Panel.reporter("off");
+        panel = new Panel(shape, 1, Integer.MAX_VALUE);
+        panel.root.engage();
+        panel.main.turnOn();
+        Panel.restoreReporter(console);
+        console = Panel.reporter(reporter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Panel.restoreReporter(console);
+    }
+
+    @Benchmark
+    public int toggle() {
+        Appliance appliance = panel.appliances.get(next);
+        next = next + 1 == panel.appliances.size() ? 0 : next + 1;
+        if (appliance.isSwitchOn()) {
+            appliance.turnOff();
+        } else {
+            appliance.turnOn();
+        }
+        return panel.root.getDraw();
+    }
+}
@@ -0,0 +1,66 @@
+package components.bench;
+
+import components.Appliance;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaker-trip cascades: every appliance but one is on and the main breaker is one short of carrying them all. Each
+ * operation switches the last appliance on, which blows the main breaker and disengages the whole panel, switches it
+ * back off and turns the breaker on again, which engages the whole panel.
+ *
+ * @author Feng Jiang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TripCascadeBenchmark {
+
+    @Param({"8x4", "32x2", "1x1000"})
+    public String shape;
+
+    @Param({"off", "on", "async"})
+    public String reporter;
+
+    private Panel panel;
+    private Appliance lastStraw;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        console = Panel.reporter("off");
+        int count = Panel.fanout(shape);
+        for (int d = 0; d < Panel.depth(shape); d++) {
+            count *= Panel.fanout(shape);
+        }
+        panel = new Panel(shape, 1, count - 1);
+        panel.root.engage();
+        panel.main.turnOn();
+        lastStraw = panel.appliances.get(panel.appliances.size() - 1);
+        for (Appliance appliance : panel.appliances) {
+            if (appliance != lastStraw) {
+                appliance.turnOn();
+            }
+        }
+        Panel.restoreReporter(console);
+        console = Panel.reporter(reporter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Panel.restoreReporter(console);
+    }
+
+    @Benchmark
+    public int tripAndReset() {
+        lastStraw.turnOn();     // blows
+        lastStraw.turnOff();
+        panel.main.turnOn();
+        return panel.root.getDraw();
+    }
+}
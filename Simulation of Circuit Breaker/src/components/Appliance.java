@@ -25,6 +25,17 @@ public class Appliance extends Component implements Switcher{
         this.rating = rating;
     }
 
+    /**
+     * the appliance constructor for the top of a detached subtree, with no source and attached to nothing
+     * @param name  String  the name of the appliance
+     * @param rating    int     the rating for the amount of drawchanges that this appliance will draw
+     */
+    Appliance(String name, int rating) {
+        super(name, null);
+        this.power = false;
+        this.rating = rating;
+    }
+
     /**
      * gets the rating for this appliance
      * @return  int rating
@@ -38,10 +49,9 @@ public class Appliance extends Component implements Switcher{
      */
     @Override
     public void turnOn() {
-        this.power = true;
-        Reporter.report(this, Reporter.Msg.SWITCHING_ON);
+        int delta = switchTo(true);
         if (this.engaged()) {
-            source.changeDraw(rating);
+            source.changeDraw(delta);
         }
     }
 
@@ -50,34 +60,102 @@ public class Appliance extends Component implements Switcher{
      */
     @Override
     public void turnOff() {
-        this.power = false;
-        Reporter.report(this, Reporter.Msg.SWITCHING_OFF);
+        int delta = switchTo(false);
         if (this.engaged()) {
-            source.changeDraw(-1 * rating);
+            source.changeDraw(delta);
         }
     }
 
     /**
-     * engage the appliance checks to see if its switched on, if it is change the draw of the source component by its
-     * rating
+     * set the switch of the appliance without telling the source, which is left to the caller
+     * @param on    boolean     true to switch it on
+     * @return  int     the change in current the source has to be told about, nothing if the appliance is not engaged
+     */
+    int switchTo(boolean on) {
+        Metrics.toggled();
+        beforeChange();
+        this.power = on;
+        markStale();
+        Reporter.report(this, on ? Reporter.Msg.SWITCHING_ON : Reporter.Msg.SWITCHING_OFF);
+        if (this.engaged()) {
+            return on ? rating : -rating;
+        }
+        return 0;
+    }
+
+    /**
+     * engage the appliance, it has no loads of its own
+     * @return  boolean     false, there is nothing below an appliance
+     */
+    @Override
+    protected boolean startEngage() {
+        Reporter.report(this, Reporter.Msg.ENGAGING);
+        beforeChange();
+        engaged = true;
+        return false;
+    }
+
+    /**
+     * if the appliance is switched on it now draws its rating from the source; the source is told by whoever started
+     * the engagement, together with the rest of the subtree
+     * @param delta     int     always 0, an appliance has no loads
+     * @return  int     the rating if the appliance is switched on, otherwise 0
      */
     @Override
-    public void engage() {
-        super.engage();
-        if(this.engaged() && isSwitchOn()) {
+    protected int finishEngage(int delta) {
+        if (isSwitchOn()) {
             Reporter.report(this, Reporter.Msg.DRAW_CHANGE, rating);
-            source.changeDraw(rating);
+            return rating;
+        }
+        return 0;
+    }
+
+    /**
+     * start disengaging the appliance, it stays engaged until finishDisengage has seen whether it was drawing current
+     * @return  boolean     false, there is nothing below an appliance
+     */
+    @Override
+    protected boolean startDisengage() {
+        Reporter.report(this, Reporter.Msg.DISENGAGING);
+        return false;
+    }
+
+    /**
+     * disengage the appliance, if it was drawing its rating it stops doing so
+     * @param delta     int     always 0, an appliance has no loads
+     * @return  int     minus the rating if the appliance was drawing current, otherwise 0
+     */
+    @Override
+    protected int finishDisengage(int delta) {
+        boolean drawing = engaged() && isSwitchOn();
+        beforeChange();
+        engaged = false;
+        if (drawing) {
+            Reporter.report(this, Reporter.Msg.DRAW_CHANGE, -rating);
+            return -rating;
         }
+        return 0;
+    }
+
+    /**
+     * @return  int     the rating if the appliance is engaged and switched on, otherwise 0
+     */
+    @Override
+    int sourceDraw() {
+        return engaged() && isSwitchOn() ? rating : 0;
     }
 
     /**
-     * disengage the appliance, and change the draw of the source component by its rating.
+     * put back the state of this component as it was saved in a snapshot, including the switch
+     * @param draw  int     the draw
+     * @param engaged   boolean     whether it was engaged
+     * @param overloaded    boolean     whether it was overloaded
+     * @param power     boolean     whether it was switched on
      */
     @Override
-    public void disengage() {
-        super.disengage();
-        Reporter.report(this, Reporter.Msg.DRAW_CHANGE, -rating);
-        source.changeDraw(-rating);
+    void restoreState(int draw, boolean engaged, boolean overloaded, boolean power) {
+        super.restoreState(draw, engaged, overloaded, power);
+        this.power = power;
     }
 
     /**
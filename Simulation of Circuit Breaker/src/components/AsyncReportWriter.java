@@ -0,0 +1,283 @@
+package components;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Background writer used by the Reporter when asynchronous output is turned
+ * on. Components put structured events on a bounded queue; a single daemon
+ * thread drains them in batches, formats them and writes each batch to a
+ * buffered channel in one go.
+ *
+ * @author Feng Jiang
+ */
+final class AsyncReportWriter implements Runnable {
+
+    /**
+     * the most events the writer takes off the queue for one batch
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * size of the byte buffer that a batch is encoded into
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * how long to wait for room in the queue, or for a marker, before
+     * checking that the writer thread is still there to make room
+     */
+    private static final long WAIT_MILLIS = 100;
+
+    /**
+     * the queued events and what happens when there is no room for one
+     */
+    private final ArrayBlockingQueue< ReportEvent > queue;
+    private final Reporter.Overflow policy;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * where the formatted text goes
+     */
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate( BUFFER_SIZE );
+    private final StringBuilder text = new StringBuilder( BUFFER_SIZE );
+
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /**
+     * Submitters hold this shared while they check closed and queue
+     * their event; close holds it exclusively to set closed. So once
+     * closed is set, every event that got past the check is already
+     * in the queue, in front of the stop marker.
+     */
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+
+    /**
+     * Make a writer and start its thread.
+     * @param out where the report lines are written
+     * @param capacity the most events that may wait in the queue
+     * @param policy what to do with an event when the queue is full
+     */
+    AsyncReportWriter( OutputStream out, int capacity,
+                       Reporter.Overflow policy ) {
+        this.queue = new ArrayBlockingQueue<>( capacity );
+        this.policy = policy;
+        this.out = out;
+        this.channel = Channels.newChannel( out );
+        this.encoder = Reporter.OUTPUT_CHARSET.newEncoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        this.thread = new Thread( this, "reporter-writer" );
+        this.thread.setDaemon( true );
+        this.thread.start();
+    }
+
+    /**
+     * Queue an event, blocking or dropping it if the queue is full,
+     * depending on the overflow policy.
+     * @param event the event to write
+     */
+    void submit( ReportEvent event ) {
+        gate.readLock().lock();
+        try {
+            if ( closed ) {
+                dropped.incrementAndGet();
+            }
+            else if ( policy == Reporter.Overflow.DROP ) {
+                if ( !queue.offer( event ) ) {
+                    dropped.incrementAndGet();
+                }
+            }
+            else if ( !enqueue( event ) ) {
+                dropped.incrementAndGet();
+            }
+        }
+        catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+        }
+        finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Put an event in the queue, waiting for room as long as the
+     * writer thread is there to make some.
+     * @param event the event
+     * @return false if the writer thread has gone and the event was
+     *         not queued
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean enqueue( ReportEvent event ) throws InterruptedException {
+        while ( !queue.offer( event, WAIT_MILLIS, TimeUnit.MILLISECONDS ) ) {
+            if ( !thread.isAlive() ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until every event queued before this call has been written
+     * and the channel has been flushed. A flush is never dropped, even
+     * under the DROP policy.
+     */
+    synchronized void flush() {
+        if ( !closed ) {
+            awaitMarker( false );
+        }
+    }
+
+    /**
+     * Put a marker in the queue and wait for the writer to reach it.
+     * @param stop true if the writer should stop once it gets there
+     */
+    private void awaitMarker( boolean stop ) {
+        CountDownLatch done = new CountDownLatch( 1 );
+        try {
+            if ( !enqueue( ReportEvent.marker( done, stop ) ) ) {
+                return;
+            }
+            while ( !done.await( WAIT_MILLIS, TimeUnit.MILLISECONDS ) ) {
+                if ( !thread.isAlive() ) {
+                    return;
+                }
+            }
+        }
+        catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write out everything still queued and stop the writer thread.
+     * Events submitted after this are dropped.
+     */
+    synchronized void close() {
+        if ( closed ) {
+            return;
+        }
+        gate.writeLock().lock();
+        try {
+            closed = true;
+        }
+        finally {
+            gate.writeLock().unlock();
+        }
+        awaitMarker( true );
+        try {
+            thread.join();
+        }
+        catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return how many events were thrown away because the queue was full
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * the writer thread: take a batch, format it, write it, repeat
+     * until the stop marker comes through
+     */
+    @Override
+    public void run() {
+        ArrayList< ReportEvent > batch = new ArrayList<>( BATCH_SIZE );
+        boolean stopped = false;
+        while ( !stopped ) {
+            try {
+                batch.add( queue.take() );
+            }
+            catch ( InterruptedException ie ) {
+                break;
+            }
+            queue.drainTo( batch, BATCH_SIZE - batch.size() );
+            stopped = writeBatch( batch );
+            batch.clear();
+        }
+    }
+
+    /**
+     * Format a batch of events and push the text through the channel.
+     * Markers in the batch are released once everything in front of
+     * them is on its way out.
+     * @param batch the events to write, in order
+     * @return true if the batch held the stop marker
+     */
+    private boolean writeBatch( ArrayList< ReportEvent > batch ) {
+        for ( ReportEvent event : batch ) {
+            if ( event.isMarker() ) {
+                drainText();
+                try {
+                    out.flush();
+                }
+                catch ( IOException ioe ) {
+                    // nothing sensible left to report to
+                }
+                event.release();
+                if ( event.isStopMarker() ) {
+                    return true;
+                }
+            }
+            else {
+                Reporter.format( text, event );
+                text.append( System.lineSeparator() );
+                if ( text.length() >= BUFFER_SIZE ) {
+                    drainText();
+                }
+            }
+        }
+        drainText();
+        return false;
+    }
+
+    /**
+     * Encode the pending text and write it to the channel.
+     */
+    private void drainText() {
+        if ( text.length() == 0 ) {
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap( text );
+        encoder.reset();
+        try {
+            boolean more = true;
+            while ( more ) {
+                more = encoder.encode( chars, bytes, true ).isOverflow();
+                if ( !more ) {
+                    encoder.flush( bytes );
+                }
+                bytes.flip();
+                while ( bytes.hasRemaining() ) {
+                    channel.write( bytes );
+                }
+                bytes.clear();
+            }
+        }
+        catch ( IOException ioe ) {
+            // the console went away; nothing sensible left to report to
+        }
+        text.setLength( 0 );
+    }
+}
@@ -0,0 +1,304 @@
+package components;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log of every Reporter event as fixed-width binary records in a
+ * memory-mapped file. Each record holds
+ * <pre>
+ *   long sequence     1, 2, 3, ... in the order events happened
+ *   int  component    id of the Component involved
+ *   int  msg          ordinal of the Reporter.Msg
+ *   int  delta        the event's number (the id of the load for ATTACHING
+ *                     and DETACHING)
+ *   int  draw         the Component's draw right after the event
+ * </pre>
+ * after a header of magic number, version, record size, a spare int and
+ * the number of records, which is filled in when the log is closed.
+ * The file may be longer than the records in it, since it is mapped a
+ * region at a time and cannot always be cut down while mapped.
+ * The names that go with the ids are written to a text file next to the
+ * log, "id name" per line, the first time a Component shows up, and
+ * flushed straight away so they are there for any record that needs them.
+ * Events can be appended from any number of threads without a lock: each
+ * takes the next slot from an atomic counter and writes its record there,
+ * so records from different threads land in the order of their sequence
+ * numbers, whichever finishes first. Only mapping a new region and
+ * writing a new name are done under a lock.
+ * Use EventLogReader to read a log back.
+ *
+ * @author Feng Jiang
+ */
+public class BinaryEventLog implements Closeable {
+
+    /**
+     * layout of the file
+     */
+    static final int MAGIC = 0x4F564C47; // "OVLG"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int COUNT_OFFSET = 16;
+    static final int RECORD_SIZE = 24;  // the header takes the first one
+    static final String NAMES_SUFFIX = ".names";
+
+    /**
+     * the file is mapped this many records at a time
+     */
+    static final int REGION_RECORDS = 1 << 20;
+    private static final long REGION_SIZE = (long) RECORD_SIZE * REGION_RECORDS;
+
+    /**
+     * added to the slot counter when the log is closed, so that every slot
+     * taken after that is seen to be past the end
+     */
+    private static final long CLOSED = 1L << 62;
+
+    private final FileChannel channel;
+    private final BufferedWriter names;
+
+    /**
+     * the last slot taken, plus CLOSED once the log is closed, and how
+     * many of the slots taken have been written or given up on
+     */
+    private final AtomicLong slots = new AtomicLong();
+    private final LongAdder written = new LongAdder();
+
+    /**
+     * the regions mapped so far, by number, null where one has not been
+     * mapped yet or is left behind; a new array is put in for every change
+     */
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[ 1 ];
+    private final Object mapping = new Object();
+
+    /**
+     * a bit for each Component id whose name is in the names file; a bit
+     * is only set, and the array only grown, while holding names
+     */
+    private volatile AtomicLongArray named = new AtomicLongArray( 16 );
+
+    private volatile boolean failed;
+    private boolean closed;
+
+    /**
+     * Create (or overwrite) a log file and its name file.
+     * @param file where the records go; the names go to file + ".names"
+     * @throws IOException if either file cannot be created
+     */
+    public BinaryEventLog( Path file ) throws IOException {
+        channel = FileChannel.open( file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE );
+        names = Files.newBufferedWriter( namesFile( file ),
+                                         StandardCharsets.UTF_8 );
+        regionOf( 0 ).putInt( 0, MAGIC ).putInt( 4, VERSION )
+                      .putInt( 8, RECORD_SIZE ).putInt( 12, 0 )
+                      .putLong( COUNT_OFFSET, 0 );
+    }
+
+    /**
+     * @param file a log file
+     * @return the file holding the names of the Components in that log
+     */
+    static Path namesFile( Path file ) {
+        return Paths.get( file.toString() + NAMES_SUFFIX );
+    }
+
+    /**
+     * Find a region of the file, mapping it if no one has yet. Regions
+     * more than one behind it are forced out and left behind; a thread
+     * still writing to one keeps it, and one that has not got to it yet
+     * maps it again.
+     * @param number which region, counting from the start of the file
+     * @return the region; only its absolute get and put methods may be
+     *         used, since it is shared between threads
+     * @throws IOException if the file cannot be grown or mapped
+     */
+    private MappedByteBuffer regionOf( int number ) throws IOException {
+        MappedByteBuffer[] mapped = regions;
+        if ( number < mapped.length && mapped[ number ] != null ) {
+            return mapped[ number ];
+        }
+        synchronized ( mapping ) {
+            mapped = Arrays.copyOf( regions,
+                                    Math.max( regions.length, number + 1 ) );
+            if ( mapped[ number ] == null ) {
+                final MappedByteBuffer region = channel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        number * REGION_SIZE, REGION_SIZE );
+                region.order( ByteOrder.LITTLE_ENDIAN );
+                mapped[ number ] = region;
+            }
+            for ( int r = 0; r < number - 1; r++ ) {
+                if ( mapped[ r ] != null ) {
+                    mapped[ r ].force();
+                    mapped[ r ] = null;
+                }
+            }
+            regions = mapped;
+            return mapped[ number ];
+        }
+    }
+
+    /**
+     * Add an event to the log.
+     * @param comp the Component involved
+     * @param msg the event key
+     * @param delta the event's number, 0 if it has none
+     */
+    public void append( Component comp, Reporter.Msg msg, int delta ) {
+        final long slot = slots.incrementAndGet();
+        if ( slot >= CLOSED ) {
+            return;
+        }
+        try {
+            if ( failed ) {
+                return;
+            }
+            nameOf( comp );
+            final MappedByteBuffer region =
+                    regionOf( (int)( slot / REGION_RECORDS ) );
+            final int at = (int)( slot % REGION_RECORDS ) * RECORD_SIZE;
+            region.putInt( at + 8, comp.getId() )
+                  .putInt( at + 12, msg.ordinal() )
+                  .putInt( at + 16, delta )
+                  .putInt( at + 20, comp.getDraw() )
+                  .putLong( at, slot );
+        }
+        catch ( IOException ioe ) {
+            failed = true;
+        }
+        finally {
+            written.increment();
+        }
+    }
+
+    /**
+     * Add an event involving two Components to the log. The second
+     * Component's id goes where the delta normally is.
+     * @param comp1 the first Component involved
+     * @param comp2 the second Component involved
+     * @param msg the event key
+     */
+    public void append( Component comp1, Component comp2,
+                        Reporter.Msg msg ) {
+        if ( failed || slots.get() >= CLOSED ) {
+            return;
+        }
+        try {
+            nameOf( comp2 );
+        }
+        catch ( IOException ioe ) {
+            failed = true;
+        }
+        append( comp1, msg, comp2.getId() );
+    }
+
+    /**
+     * Write the Component's name to the names file if it is not there yet.
+     * @param comp the Component
+     * @throws IOException if the names file cannot be written
+     */
+    private void nameOf( Component comp ) throws IOException {
+        final int id = comp.getId();
+        if ( isNamed( named, id ) ) {
+            return;
+        }
+        synchronized ( names ) {
+            AtomicLongArray bits = named;
+            if ( isNamed( bits, id ) ) {
+                return;
+            }
+            names.write( Integer.toString( id ) );
+            names.write( ' ' );
+            names.write( comp.getName() );
+            names.newLine();
+            names.flush();
+            if ( id >> 6 >= bits.length() ) {
+                final AtomicLongArray grown = new AtomicLongArray(
+                        Math.max( bits.length() * 2, ( id >> 6 ) + 1 ) );
+                for ( int w = 0; w < bits.length(); w++ ) {
+                    grown.set( w, bits.get( w ) );
+                }
+                bits = grown;
+            }
+            bits.set( id >> 6, bits.get( id >> 6 ) | 1L << ( id & 63 ) );
+            named = bits;
+        }
+    }
+
+    /**
+     * @param bits the bits of the names written
+     * @param id a Component id
+     * @return true if the name for that id is in the names file
+     */
+    private static boolean isNamed( AtomicLongArray bits, int id ) {
+        return id >> 6 < bits.length()
+               && ( bits.get( id >> 6 ) & 1L << ( id & 63 ) ) != 0;
+    }
+
+    /**
+     * @return how many records have been written
+     */
+    public long size() {
+        return written.sum();
+    }
+
+    /**
+     * Write out everything, put the number of records in the header
+     * and cut the file down to the records where the platform allows
+     * it while the file is still mapped.
+     * @throws IOException if the files cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        final long records = slots.getAndAdd( CLOSED );
+        while ( written.sum() < records ) {
+            Thread.onSpinWait();    // a slot taken before now is being written
+        }
+        final long end = ( records + 1 ) * RECORD_SIZE;
+        synchronized ( mapping ) {
+            for ( MappedByteBuffer region : regions ) {
+                if ( region != null ) {
+                    region.force();
+                }
+            }
+            regions = new MappedByteBuffer[ 0 ];
+        }
+        try {
+            final ByteBuffer count = ByteBuffer.allocate( Long.BYTES )
+                    .order( ByteOrder.LITTLE_ENDIAN ).putLong( 0, records );
+            channel.write( count, COUNT_OFFSET );
+            channel.force( false );
+            try {
+                channel.truncate( Math.max( end, HEADER_SIZE ) );
+            }
+            catch ( IOException ioe ) {
+                // still mapped, as on Windows; the header says where
+                // the records end
+            }
+        }
+        finally {
+            channel.close();
+            names.close();
+        }
+    }
+}
@@ -12,6 +12,19 @@ public class CircuitBreaker extends Component implements Switcher{
     private final int limit;
     private int overDraw;
 
+    /**
+     * how the breaker trips, and its heat when a ThermalModel is watching it
+     */
+    private TripCurve curve = TripCurve.INSTANT;
+    private ThermalModel thermal;
+    double heat;
+    boolean heating;                // in the thermal model's list of breakers to update
+
+    /**
+     * its trips and peak draw, once Metrics has seen it
+     */
+    Metrics.BreakerStats stats;
+
     /**
      * the CircuitBreaker constructor and connect it to the source of power after its being created
      * @param name  String  the name of the circuit breaker
@@ -26,6 +39,18 @@ public class CircuitBreaker extends Component implements Switcher{
         this.limit = limit;
     }
 
+    /**
+     * the CircuitBreaker constructor for the top of a detached subtree, with no source and attached to nothing
+     * @param name  String  the name of the circuit breaker
+     * @param limit     int     the limit that this circuit breaker can draw power from before its overloaded
+     */
+    CircuitBreaker(String name, int limit) {
+        super(name, null);
+        this.power = false;
+        this.draw = 0;
+        this.limit = limit;
+    }
+
     /**
      * gets the limit of this circuit breaker
      * @return  int     the limit of this circuit breaker
@@ -34,65 +59,226 @@ public class CircuitBreaker extends Component implements Switcher{
         return this.limit;
     }
 
+    /**
+     * @return  int     the draw before the last change, which is what the source gets back when the breaker blows
+     */
+    int getOverDraw() {
+        return overDraw;
+    }
+
+    /**
+     * put back the draw before the last change as it was saved in a snapshot
+     * @param overDraw  int     the draw
+     */
+    void restoreOverDraw(int overDraw) {
+        this.overDraw = overDraw;
+    }
+
+    /**
+     * @return  TripCurve   how this breaker trips
+     */
+    public TripCurve getTripCurve() {
+        return curve;
+    }
+
+    /**
+     * give this breaker a trip curve, followed over time by a thermal model
+     * @param curve     TripCurve   how it trips
+     * @param thermal   ThermalModel    the model that heats and cools it, null for none
+     */
+    void useCurve(TripCurve curve, ThermalModel thermal) {
+        this.curve = curve;
+        this.thermal = thermal;
+    }
+
+    /**
+     * @return  boolean     true if the draw is over the limit far enough to trip straight away
+     */
+    private boolean tripsNow() {
+        return draw > limit && curve.tripsAtOnce(draw, limit);
+    }
+
+    /**
+     * tell the thermal model, if there is one, and the metrics that the draw has changed
+     */
+    private void drawChanged() {
+        Metrics.drawSeen(this, draw);
+        if (thermal != null) {
+            thermal.touch(this);
+        }
+    }
+
+    /**
+     * the breaker has been over its limit for too long; everything it draws has been passed to the source already
+     */
+    void thermalTrip() {
+        overDraw = draw;
+        overload();
+    }
+
     /**
      * the method that gets called when the draw > limit, meaning that the circuit breaker is now overloaded, so
      * it will disengage all components and turn itself off
      */
     public void overload() {
         Reporter.report(this, Reporter.Msg.BLOWN, draw);
+        Metrics.tripped(this);
+        beforeChange();
         overloaded = true;
-        turnOff();
+        switchOff();
     }
 
     /**
-     * the changeDraw method for circuit breaker, it will check to see if it is overloaded after it draw power from its
-     * loads, if it doesn't it will perform the regular operations.
+     * put back the state of this component as it was saved in a snapshot, including the switch
+     * @param draw  int     the draw
+     * @param engaged   boolean     whether it was engaged
+     * @param overloaded    boolean     whether it was overloaded
+     * @param power     boolean     whether it was switched on
+     */
+    @Override
+    void restoreState(int draw, boolean engaged, boolean overloaded, boolean power) {
+        super.restoreState(draw, engaged, overloaded, power);
+        this.power = power;
+    }
+
+    /**
+     * checks if current is passing through this circuit breaker to its loads
+     * @return  boolean     true if the breaker is engaged, switched on and not blown
+     */
+    private boolean isLive() {
+        return engaged() && isSwitchOn() && !overloaded;
+    }
+
+    /**
+     * @return  boolean     true if the breaker is engaged, switched on and not blown
+     */
+    @Override
+    boolean powersLoads() {
+        return isLive();
+    }
+
+    /**
+     * the changeDraw step for circuit breaker, it will check to see if it is overloaded after it draw power from its
+     * loads, if it doesn't it will perform the regular operations. Whether it is overloaded is up to its trip curve;
+     * a breaker that is over its limit but not by enough to trip at once heats up until its thermal model trips it.
      * @param delta     int     the amount being changed
+     * @return  Component   the source if the change goes on up, null if the breaker blew or was already blown
      */
     @Override
-    protected void changeDraw(int delta) {
+    protected Component passDraw(int delta) {
         overDraw = draw;
-        draw = draw + delta;
-        if (draw > limit && !overloaded) {
+        addDraw(delta);
+        drawChanged();
+        if (tripsNow() && !overloaded) {
             overload();
         } else if (!overloaded){
             Reporter.report(this, Reporter.Msg.DRAW_CHANGE, delta);
-            source.changeDraw(delta);
+            return source;
         }
+        return null;
     }
 
     /**
-     * the engage method for circuit breaker, it will be engaged only from the power source, it will not engage all its loads
-     * until its turned on
+     * the engage method for circuit breaker, it will be engaged only from the power source. If it is switched on its
+     * loads are engaged too.
+     * @return  boolean     true if current passes through to the loads
      */
     @Override
-    public void engage() {
+    protected boolean startEngage() {
         Reporter.report(this, Reporter.Msg.ENGAGING);
+        beforeChange();
         engaged = true;
+        return isLive();
     }
 
     /**
-     * turns the circuit breaker on and engage all its loads
+     * the combined draw of the loads is checked against the limit once
+     * @param delta     int     the change in current drawn by the loads
+     * @return  int     the change in current this breaker now draws from its source
+     */
+    @Override
+    protected int finishEngage(int delta) {
+        if (delta == 0) {
+            return 0;
+        }
+        overDraw = draw;
+        addDraw(delta);
+        drawChanged();
+        if (tripsNow()) {
+            overload();
+            return 0;
+        }
+        Reporter.report(this, Reporter.Msg.DRAW_CHANGE, delta);
+        return delta;
+    }
+
+    /**
+     * the disengage method for circuit breaker, its loads are disengaged if current was passing through it
+     * @return  boolean     true if the loads had current and need disengaging
+     */
+    @Override
+    protected boolean startDisengage() {
+        boolean live = isLive();
+        Reporter.report(this, Reporter.Msg.DISENGAGING);
+        beforeChange();
+        engaged = false;
+        return live;
+    }
+
+    /**
+     * turns the circuit breaker on and engage all its loads, the draw of the whole circuit is added up first and then
+     * checked against the limit and passed to the source as a single change
      */
     @Override
     public void turnOn() {
+        Metrics.toggled();
+        boolean wasLive = isLive();
+        beforeChange();
         this.power = true;
         this.overloaded = false;
+        markStale();
         Reporter.report(this, Reporter.Msg.SWITCHING_ON);
-        engageLoads();
+        if (engaged() && !wasLive) {
+            int delta = engageLoads();
+            if (delta != 0) {
+                changeDraw(delta);
+            }
+        }
     }
 
     /**
-     * turn the circuit breaker off and disengage all its loads
+     * turn the circuit breaker off and disengage all its loads, the source loses whatever current was passing through
+     * this breaker before it went off
      */
     @Override
     public void turnOff() {
+        Metrics.toggled();
+        switchOff();
+    }
+
+    /**
+     * the part of turnOff that a trip does too
+     */
+    private void switchOff() {
+        boolean wasLive = engaged() && isSwitchOn();
+        if (!overloaded) {
+            overDraw = draw;
+        }
+        beforeChange();
         this.power = false;
+        markStale();
         Reporter.report(this, Reporter.Msg.SWITCHING_OFF);
-        int SourcePrevDraw = source.getDraw();
-        source.setDraw(SourcePrevDraw - overDraw);
-        Reporter.report(source, Reporter.Msg.DRAW_CHANGE, -overDraw);
-        disengageLoads();
+        if (!wasLive) {
+            return;
+        }
+        int delta = disengageLoads();
+        if (delta != 0) {
+            addDraw(delta);
+            drawChanged();
+        }
+        if (overDraw != 0) {
+            source.changeDraw(-overDraw);
+        }
     }
 
     /**
@@ -1,6 +1,10 @@
 package components;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The abstract class for components, which can take many instances and subclass can inherit from.
@@ -8,9 +12,28 @@ import java.util.ArrayList;
  */
 public abstract class Component{
 
+    /**
+     * hands out the ids, in order of creation
+     */
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * for changing the draw of a shared component atomically
+     */
+    private static final VarHandle DRAW;
+
+    static {
+        try {
+            DRAW = MethodHandles.lookup().findVarHandle(Component.class, "draw", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * the fields that could be used for all type of components
      */
+    protected final int id;
     protected final String name;
     protected Component source;
     protected int draw;
@@ -18,12 +41,35 @@ public abstract class Component{
     protected boolean engaged;
     protected boolean overloaded;
 
+    /**
+     * true once ConcurrentToggles has found this component above every circuit breaker, where toggles holding
+     * different locks meet; from then on its draw is always changed atomically
+     */
+    boolean shared;
+
+    /**
+     * true if what display shows for this component or anything below it has changed since DisplayRenderer last
+     * rendered it; if a component is stale, so is everything above it
+     */
+    boolean stale = true;
+
+    /**
+     * which whole display by DisplayRenderer last cleared the stale mark of this component; text kept for it by an
+     * earlier one is out of date
+     */
+    int rendered;
+
     /**
      * the constructor for constructing a component, can take many forms for which the subclass will inherit
      * @param name  String  the name of the component
      * @param source    (Object)Component   the component source
+     * @throws IllegalStateException    if it has a source and a StateJournal is open; nothing is created
      */
     protected Component(String name, Component source) {
+        if (source != null && StateJournal.open != null) {
+            throw new IllegalStateException("a StateJournal cannot undo a new connection");
+        }
+        this.id = nextId.getAndIncrement();
         this.name = name;
         this.source = source;
         this.engaged = false;
@@ -36,8 +82,12 @@ public abstract class Component{
      * Add a new load (something that draws current) to this Component. If this component is engaged, the new load
      * becomes engaged.
      * @param load      Component   the load being added and determined if it should be engaged
+     * @throws IllegalStateException    if a StateJournal is open; nothing is changed
      */
     protected void attach(Component load) {
+        if (StateJournal.open != null) {
+            throw new IllegalStateException("a StateJournal cannot undo a new connection");
+        }
         Reporter.report(this, load, Reporter.Msg.ATTACHING);
         this.addLoad(load);
         if (this.engaged()) {
@@ -52,9 +102,60 @@ public abstract class Component{
      * @param delta     int     the amount being changed
      */
     protected void changeDraw(int delta) {
-        draw = draw + delta;
+        Component next = this;
+        int steps = 0;
+        while (next != null) {
+            next = next.passDraw(delta);
+            steps++;
+        }
+        Metrics.propagated(steps);
+    }
+
+    /**
+     * The part of changeDraw that happens at one component: take the change in draw and say where it goes next.
+     * changeDraw keeps calling this up the chain of sources in a loop, so a chain of any length uses the same amount
+     * of stack.
+     * @param delta     int     the amount being changed
+     * @return  Component   the component the change is passed on to, or null if it stops here
+     */
+    protected Component passDraw(int delta) {
+        addDraw(delta);
         Reporter.report(this, Reporter.Msg.DRAW_CHANGE, delta);
-        source.changeDraw(delta);
+        return source;
+    }
+
+    /**
+     * add to the draw of this component, atomically if it is shared between circuits that are toggled concurrently
+     * @param delta     int     the amount being changed
+     */
+    protected void addDraw(int delta) {
+        beforeChange();
+        if (shared) {
+            DRAW.getAndAdd(this, delta);
+        } else {
+            draw = draw + delta;
+        }
+        markStale();
+    }
+
+    /**
+     * write down the state of this component in the open StateJournal, if there is one, before any of it changes
+     */
+    void beforeChange() {
+        StateJournal journal = StateJournal.open;
+        if (journal != null) {
+            journal.record(this);
+        }
+    }
+
+    /**
+     * note that what display shows for this component has changed, here and in every component above it; the marking
+     * stops at the first component that is already marked, since everything above that one is marked too
+     */
+    void markStale() {
+        for (Component comp = this; comp != null && !comp.stale; comp = comp.source) {
+            comp.stale = true;
+        }
     }
 
     /**
@@ -62,14 +163,16 @@ public abstract class Component{
      * @param draw  int     the draw to change
      */
     protected void setDraw(int draw) {
+        beforeChange();
         this.draw = draw;
+        markStale();
     }
 
     /**
      * gets the draw of this component
      * @return  int     this draw
      */
-    protected int getDraw() {
+    public int getDraw() {
         return draw;
     }
 
@@ -80,6 +183,20 @@ public abstract class Component{
         return this.overloaded;
     }
 
+    /**
+     * put back the state of this component as it was saved in a snapshot, without reporting or passing anything on
+     * @param draw  int     the draw
+     * @param engaged   boolean     whether it was engaged
+     * @param overloaded    boolean     whether it was overloaded
+     * @param power     boolean     whether it was switched on, ignored by components that are not switches
+     */
+    void restoreState(int draw, boolean engaged, boolean overloaded, boolean power) {
+        this.draw = draw;
+        this.engaged = engaged;
+        this.overloaded = overloaded;
+        markStale();
+    }
+
     /**
      * gets the source of this component
      * @return  (Object)Component   the source component for this component
@@ -110,24 +227,149 @@ public abstract class Component{
      */
     protected void addLoad(Component newLoad) {
         connectionLoads.add(newLoad);
+        markStale();
     }
 
     /**
-     * engage all loads in this component collection
+     * engage all loads in this component collection without telling anyone above this component about the current
+     * they now draw
+     * @return  int     the total change in current drawn by the loads
      */
-    protected void engageLoads() {
+    protected int engageLoads() {
+        int delta = 0;
         for (Component load : connectionLoads) {
-            load.engage();
+            delta += load.energize();
         }
+        return delta;
     }
 
     /**
-     * disengage all loads in this component collection
+     * disengage all loads in this component collection without telling anyone above this component about the current
+     * they no longer draw
+     * @return  int     the total change in current drawn by the loads, zero or negative
      */
-    protected void disengageLoads() {
+    protected int disengageLoads() {
+        int delta = 0;
         for (Component load : connectionLoads) {
-            load.disengage();
+            delta += load.deenergize();
+        }
+        return delta;
+    }
+
+    /**
+     * Engage this component and everything below it, adding up the current the whole subtree now draws on the way
+     * back up. Each component in the subtree gets its draw adjusted once by its own subtree's total; nothing is passed
+     * to the source, the caller does that once with the returned total. The subtree is walked with a work list rather
+     * than by recursion, so it can be any depth; each component does its part in startEngage and finishEngage.
+     * @return  int     the change in current this component now draws from its source
+     */
+    protected int energize() {
+        return walk(true);
+    }
+
+    /**
+     * Disengage this component and everything below it, the opposite of energize. Each component does its part in
+     * startDisengage and finishDisengage.
+     * @return  int     the change in current this component now draws from its source, zero or negative
+     */
+    protected int deenergize() {
+        return walk(false);
+    }
+
+    /**
+     * Walk the subtree below this component depth first without recursion, calling the start hook of each component
+     * on the way down and the finish hook on the way back up with the total its loads handed back.
+     * @param engage    boolean     true to engage the subtree, false to disengage it
+     * @return  int     what this component's finish hook handed back
+     */
+    private int walk(boolean engage) {
+        ArrayList<Component> work = new ArrayList<>();     // null marks the end of a component's loads
+        ArrayList<Component> open = new ArrayList<>();     // components whose loads are being walked
+        int[] sums = new int[16];                          // what each open component's loads have handed back
+        int result = 0;
+        work.add(this);
+        while (!work.isEmpty()) {
+            Component comp = work.remove(work.size() - 1);
+            int delta;
+            if (comp != null) {
+                boolean descend = engage ? comp.startEngage() : comp.startDisengage();
+                if (descend && !comp.connectionLoads.isEmpty()) {
+                    if (open.size() == sums.length) {
+                        sums = Arrays.copyOf(sums, sums.length * 2);
+                    }
+                    sums[open.size()] = 0;
+                    open.add(comp);
+                    work.add(null);
+                    for (int i = comp.connectionLoads.size() - 1; i >= 0; i--) {
+                        work.add(comp.connectionLoads.get(i));
+                    }
+                    continue;
+                }
+                delta = engage ? comp.finishEngage(0) : comp.finishDisengage(0);
+            } else {
+                comp = open.remove(open.size() - 1);
+                int loads = sums[open.size()];
+                delta = engage ? comp.finishEngage(loads) : comp.finishDisengage(loads);
+            }
+            if (open.isEmpty()) {
+                result = delta;
+            } else {
+                sums[open.size() - 1] += delta;
+            }
         }
+        return result;
+    }
+
+    /**
+     * the way-down part of engaging this component
+     * @return  boolean     true if its loads should be engaged too
+     */
+    protected boolean startEngage() {
+        Reporter.report(this, Reporter.Msg.ENGAGING);
+        beforeChange();
+        engaged = true;
+        return true;
+    }
+
+    /**
+     * the way-up part of engaging this component, its loads are done
+     * @param delta     int     the change in current drawn by its loads
+     * @return  int     the change in current this component now draws from its source
+     */
+    protected int finishEngage(int delta) {
+        if (delta != 0) {
+            addDraw(delta);
+            Reporter.report(this, Reporter.Msg.DRAW_CHANGE, delta);
+        }
+        return delta;
+    }
+
+    /**
+     * the way-down part of disengaging this component
+     * @return  boolean     true if its loads should be disengaged too
+     */
+    protected boolean startDisengage() {
+        Reporter.report(this, Reporter.Msg.DISENGAGING);
+        beforeChange();
+        engaged = false;
+        return true;
+    }
+
+    /**
+     * the way-up part of disengaging this component, its loads are done
+     * @param delta     int     the change in current drawn by its loads, zero or negative
+     * @return  int     the change in current this component now draws from its source
+     */
+    protected int finishDisengage(int delta) {
+        return finishEngage(delta);
+    }
+
+    /**
+     * Get component's id, a small number unique to this component that is handed out in order of creation
+     * @return  int id
+     */
+    public int getId() {
+        return id;
     }
 
     /**
@@ -142,47 +384,168 @@ public abstract class Component{
     /**
      * This Component tells its loads that they can no longer draw current from it. If this is not a switchable
      * Component that has been switched off, this Component then passes on the information to its loads that they are
-     * now disengaged.
+     * now disengaged. The current the whole subtree stops drawing is passed to the source in a single change.
      */
-
     public void disengage() {
-        Reporter.report(this, Reporter.Msg.DISENGAGING);
-        engaged = false;
-        /*Reporter.report(this, Reporter.Msg.DRAW_CHANGE, 0);
-        source.setDraw(0);*/
-        disengageLoads();
+        Metrics.disengaged();
+        int delta = deenergize();
+        if (delta != 0 && source != null) {
+            source.changeDraw(delta);
+        }
     }
 
     /**
      * The source for this component is now being powered. For those Components that have sources, the source Component
      * is the one that calls this method. If this is not a switchable Component that has been switched off, this
-     * Component then passes on the information to its loads that they are now engaged. The expected followup is
-     * that each of the loads will inform this Component of how much current they need to draw.
+     * Component then passes on the information to its loads that they are now engaged. The current the whole subtree
+     * now draws is added up first and passed to the source in a single change.
      */
     public void engage() {
-        Reporter.report(this, Reporter.Msg.ENGAGING);
-        engaged = true;
-        engageLoads();
+        if (engaged) {
+            return;     // already drawing what it needs, engaging again would count the subtree twice
+        }
+        Metrics.engaged();
+        int delta = energize();
+        if (delta != 0 && source != null) {
+            source.changeDraw(delta);
+        }
     }
 
     /**
-     * method for which allows recursion depth for correct display
+     * @return  int     the current this component draws from its source
+     */
+    int sourceDraw() {
+        return draw;
+    }
+
+    /**
+     * @return  boolean     true if current passes through this component to its loads
+     */
+    boolean powersLoads() {
+        return engaged;
+    }
+
+    /**
+     * Unplug this component, with everything below it, from its source. What the subtree drew is taken off the chain
+     * of sources above it in one change, which costs as much as the chain is long; the subtree has no power any more,
+     * so it is disengaged, without passing anything on. It stays as it is otherwise, and can be moved somewhere else.
+     * @throws IllegalStateException    if this component has no source, or a StateJournal is open
+     */
+    public void detach() {
+        unplug();
+        if (engaged) {
+            deenergize();       // its draw was taken off the chain already
+        }
+    }
+
+    /**
+     * Unplug this component, with everything below it, from its source, if it has one, and plug it into another.
+     * If the new source powers its loads just as the old one did, nothing below this component changes: what the
+     * subtree draws is taken off the old chain of sources in one change and added to the new chain in another, so a
+     * move costs as much as the two chains are long, however big the subtree is. A breaker on either chain is checked
+     * against its limit as the change passes it, and one on the new chain may blow. Only if the subtree gains or loses
+     * power by moving is it engaged or disengaged, as attaching or switching would.
+     * @param newSource     Component   where this component is plugged in now
+     * @throws IllegalArgumentException     if the new source is null, this component, below it, or an appliance, or
+     *                                      this is a power source; nothing is changed
+     * @throws IllegalStateException    if a StateJournal is open; nothing is changed
+     */
+    public void move(Component newSource) {
+        if (newSource == null) {
+            throw new IllegalArgumentException(name + " cannot be moved to no source, detach it instead");
+        }
+        if (this instanceof PowerSource || newSource instanceof Appliance) {
+            throw new IllegalArgumentException(name + " cannot be plugged into " + newSource.getName());
+        }
+        for (Component up = newSource; up != null; up = up.source) {
+            if (up == this) {
+                throw new IllegalArgumentException(name + " cannot be moved below itself");
+            }
+        }
+        if (source != null) {
+            unplug();
+        } else if (StateJournal.open != null) {
+            throw new IllegalStateException("a StateJournal cannot undo a move");
+        }
+        boolean live = engaged;
+        Reporter.report(newSource, this, Reporter.Msg.ATTACHING);
+        source = newSource;
+        newSource.addLoad(this);
+        if (live == newSource.powersLoads()) {
+            int delta = sourceDraw();
+            if (delta != 0) {
+                newSource.changeDraw(delta);
+            }
+        } else if (live) {
+            deenergize();       // its draw was taken off the old chain already
+        } else {
+            engage();
+        }
+    }
+
+    /**
+     * take this component out of its source's loads and what it draws off the chain above
+     * @throws IllegalStateException    if this component has no source, or a StateJournal is open
+     */
+    private void unplug() {
+        if (source == null) {
+            throw new IllegalStateException(name + " has no source");
+        }
+        if (StateJournal.open != null) {
+            throw new IllegalStateException("a StateJournal cannot undo a move");
+        }
+        Component old = source;
+        Reporter.report(old, this, Reporter.Msg.DETACHING);
+        old.connectionLoads.remove(this);
+        old.markStale();
+        DisplayRenderer.forget(this);
+        source = null;
+        int delta = sourceDraw();
+        if (delta != 0) {
+            old.changeDraw(-delta);
+        }
+    }
+
+    /**
+     * method for which allows recursion depth for correct display; the tree is walked with a work list so it can be
+     * any depth
      * @param indent    String  a tab for indentation on every recursive call
      */
     public void recurDisplay(String indent) {
-        System.out.print(indent + "+ " + this.toString() + "\n");
-        for (Component load : connectionLoads) {
-            load.recurDisplay(indent + "    ");
+        ArrayList<Component> work = new ArrayList<>();
+        int[] depths = new int[16];
+        StringBuilder line = new StringBuilder();
+        work.add(this);
+        depths[0] = 0;
+        while (!work.isEmpty()) {
+            int top = work.size() - 1;
+            Component comp = work.remove(top);
+            int depth = depths[top];
+            line.setLength(0);
+            line.append(indent);
+            for (int i = 0; i < depth; i++) {
+                line.append("    ");
+            }
+            line.append("+ ");
+            Reporter.identify(comp, line).append('\n');
+            System.out.print(line);
+            ArrayList<Component> loads = comp.connectionLoads;
+            if (top + loads.size() > depths.length) {
+                depths = Arrays.copyOf(depths, Math.max(depths.length * 2, top + loads.size()));
+            }
+            for (int i = loads.size() - 1; i >= 0; i--) {
+                depths[work.size()] = depth + 1;
+                work.add(loads.get(i));
+            }
         }
     }
 
     /**
-     * display the components connection system into an easy to read format
+     * display the components connection system into an easy to read format; subtrees that have not changed since the
+     * last display are printed from the text DisplayRenderer kept of them
      */
     public void display() {
-        System.out.println();
-        String indent = "";
-        recurDisplay(indent);
+        DisplayRenderer.display(this, DisplayRenderer.ALL);
     }
 
     /**
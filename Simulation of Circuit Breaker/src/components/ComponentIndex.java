@@ -0,0 +1,149 @@
+package components;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds components by name or by id. Every component already has a small id, handed out in order of creation; the
+ * index keeps its components in one array in the order they were added, a table from id to place in that array, and
+ * an open-addressing hash table of places keyed by name. The tables are plain int arrays and the names are the
+ * components' own, so a component costs the index a few ints rather than a map entry, a boxed key and a list slot.
+ *
+ * @author Feng Jiang
+ */
+public class ComponentIndex {
+
+    private Component[] members = new Component[16];
+    private int size;
+    private int[] placeOfId = new int[16];     // place + 1 of the component with each id, 0 if not here
+    private int firstId;                       // the id placeOfId starts at
+    private int[] table = new int[32];         // place + 1 of a component, 0 for an empty slot
+    private int mask = 31;
+
+    /**
+     * add a component, unless another one already has its name
+     * @param comp  Component   the component
+     * @return  boolean     true if it was added, false if the name is taken
+     */
+    public boolean add(Component comp) {
+        int slot = slotOf(comp.getName());
+        if (table[slot] != 0) {
+            return false;
+        }
+        if (size == members.length) {
+            members = Arrays.copyOf(members, size * 2);
+        }
+        members[size] = comp;
+        table[slot] = size + 1;
+        int id = comp.getId();
+        if (size == 0) {
+            firstId = id;
+        } else if (id < firstId) {
+            // ids are handed out across every model, so the table only covers the span this index has seen
+            int[] wider = new int[placeOfId.length + firstId - id];
+            System.arraycopy(placeOfId, 0, wider, firstId - id, placeOfId.length);
+            placeOfId = wider;
+            firstId = id;
+        }
+        if (id - firstId >= placeOfId.length) {
+            placeOfId = Arrays.copyOf(placeOfId, Math.max(placeOfId.length * 2, id - firstId + 1));
+        }
+        placeOfId[id - firstId] = size + 1;
+        size++;
+        if (size * 2 > mask) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * @param name  String  a name
+     * @return  Component   the component with that name, null if there is none
+     */
+    public Component get(String name) {
+        int place = table[slotOf(name)];
+        return place == 0 ? null : members[place - 1];
+    }
+
+    /**
+     * @param id    int     an id
+     * @return  Component   the component with that id, null if it is not in the index
+     */
+    public Component get(int id) {
+        int at = id - firstId;
+        if (at < 0 || at >= placeOfId.length || placeOfId[at] == 0) {
+            return null;
+        }
+        return members[placeOfId[at] - 1];
+    }
+
+    /**
+     * @param name  String  a name
+     * @return  int     the id of the component with that name, -1 if there is none
+     */
+    public int idOf(String name) {
+        Component comp = get(name);
+        return comp == null ? -1 : comp.getId();
+    }
+
+    /**
+     * @param name  String  a name
+     * @return  boolean     true if a component has that name
+     */
+    public boolean contains(String name) {
+        return table[slotOf(name)] != 0;
+    }
+
+    /**
+     * @return  int     how many components there are
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  List    the components in the order they were added, a view that cannot be changed
+     */
+    public List<Component> components() {
+        return new AbstractList<Component>() {
+            @Override
+            public Component get(int i) {
+                if (i >= size) {
+                    throw new IndexOutOfBoundsException(i);
+                }
+                return members[i];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * find the slot of a name: where it is, or the empty slot where it would go
+     * @param name  String  the name
+     * @return  int     the slot
+     */
+    private int slotOf(String name) {
+        int h = name.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != 0 && !members[table[slot] - 1].getName().equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * double the hash table and put every name back in it
+     */
+    private void grow() {
+        table = new int[table.length * 2];
+        mask = table.length - 1;
+        for (int place = 0; place < size; place++) {
+            table[slotOf(members[place].getName())] = place + 1;
+        }
+    }
+}
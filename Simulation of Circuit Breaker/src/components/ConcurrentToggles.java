@@ -0,0 +1,164 @@
+package components;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets many threads switch components on and off at the same time. A toggle holds the lock of the circuit it is in,
+ * the subtree of the topmost circuit breaker above it, so toggles on separate circuits run in parallel and toggles on
+ * the same circuit take turns. Everything from the topmost breakers up to the power source is shared by all the
+ * circuits below it; those components hold no limits, so their draw is simply changed with atomic adds and no update
+ * is lost when two circuits change at once. A component that has no breaker above it at all belongs to the circuit of
+ * its power source.
+ * <br><br>
+ * The locks are striped: circuits are spread over a fixed number of locks by their ids, so the locks take the same
+ * space however many circuits there are, at the price of two circuits now and then sharing a lock.
+ * <br><br>
+ * Only switching goes through here. Connecting components, or engaging and disengaging anything above the breakers,
+ * must not happen while toggles are running.
+ *
+ * @author Feng Jiang
+ */
+public class ConcurrentToggles {
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+    private final LongAdder contended = new LongAdder();
+
+    /**
+     * a toggle engine with a few locks per core
+     */
+    public ConcurrentToggles() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param stripes   int     the least number of locks to spread the circuits over, rounded up to a power of two
+     */
+    public ConcurrentToggles(int stripes) {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * switch a component on, holding the lock of its circuit
+     * @param comp  Component   a switchable component
+     */
+    public void turnOn(Component comp) {
+        Switcher switcher = switcher(comp);
+        ReentrantLock lock = lockFor(comp);
+        acquire(lock);
+        try {
+            switcher.turnOn();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * switch a component off, holding the lock of its circuit
+     * @param comp  Component   a switchable component
+     */
+    public void turnOff(Component comp) {
+        Switcher switcher = switcher(comp);
+        ReentrantLock lock = lockFor(comp);
+        acquire(lock);
+        try {
+            switcher.turnOff();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * switch a component to the other position, holding the lock of its circuit so no other toggle gets in between
+     * looking at the switch and flipping it
+     * @param comp  Component   a switchable component
+     * @return  boolean     true if the component is now switched on
+     */
+    public boolean toggle(Component comp) {
+        Switcher switcher = switcher(comp);
+        ReentrantLock lock = lockFor(comp);
+        acquire(lock);
+        try {
+            if (switcher.isSwitchOn()) {
+                switcher.turnOff();
+                return false;
+            }
+            switcher.turnOn();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  long    how many toggles found their circuit's lock held and had to wait for it
+     */
+    public long contended() {
+        return contended.sum();
+    }
+
+    /**
+     * take a lock, counting it if it has to be waited for
+     * @param lock  ReentrantLock   the lock
+     */
+    private void acquire(ReentrantLock lock) {
+        if (!lock.tryLock()) {
+            contended.increment();
+            lock.lock();
+        }
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  Switcher    the component as a switch
+     * @throws IllegalArgumentException     if it cannot be switched
+     */
+    private static Switcher switcher(Component comp) {
+        if (!(comp instanceof Switcher)) {
+            throw new IllegalArgumentException(comp.getName() + " cannot be switched");
+        }
+        return (Switcher) comp;
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  Component   the circuit it is in: the topmost circuit breaker above it, or its power source if there is
+     *                      no breaker above it
+     */
+    public static Component circuitOf(Component comp) {
+        Component circuit = null;
+        Component root = comp;
+        for (Component c = comp; c != null; c = c.source) {
+            if (c instanceof CircuitBreaker) {
+                circuit = c;
+            }
+            root = c;
+        }
+        return circuit == null ? root : circuit;
+    }
+
+    /**
+     * Find the circuit a component is in and mark everything above the circuit as shared, so that the draw changes
+     * passed up out of the circuit are atomic. The marks are made by the thread that is about to pass changes through
+     * those components, before it takes the lock, so it always sees them.
+     * @param comp  Component   a component
+     * @return  ReentrantLock   the lock of its circuit
+     */
+    private ReentrantLock lockFor(Component comp) {
+        Component circuit = circuitOf(comp);
+        Component above = circuit instanceof CircuitBreaker ? circuit.source : comp;
+        for (Component c = above; c != null; c = c.source) {
+            if (!c.shared) {
+                c.shared = true;
+            }
+        }
+        int h = circuit.getId() * 0x9E3779B9;
+        return locks[(h ^ (h >>> 16)) & mask];
+    }
+}
@@ -0,0 +1,149 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Renders the tree that display prints, keeping the text of the top few levels of subtrees from one display to the
+ * next. Every change that shows up in the display marks the component stale, and everything above it; a subtree
+ * that is not stale is printed from its kept text instead of being walked again, so a second display of a big model
+ * costs only as much as what changed since the first.
+ * <br><br>
+ * Only subtrees whose top is at most CACHE_DEPTH levels below where the display starts are kept, so the text is never
+ * held more than CACHE_DEPTH + 1 times over. Every whole display is numbered, and each component it walks is
+ * stamped with the number; text kept for a component is only used if it was kept by the display that stamped it
+ * last, so a deeper component that had text kept by a display that started lower down needs no lookup to put that
+ * text out of date. A display cut short with a depth does not keep anything or clear any
+ * marks, since it does not see everything below it. There is one set of marks, so there is one renderer; it is not
+ * meant to be used while components are being switched on other threads.
+ * <br><br>
+ * The kept text is dropped when a subtree is detached, and is only weakly held, so components that are no longer used
+ * do not stay in memory on its account. Components do not override equals, so the weak map still goes by identity.
+ *
+ * @author Feng Jiang
+ */
+public final class DisplayRenderer {
+
+    /**
+     * subtrees with their top deeper than this are not kept on their own
+     */
+    static final int CACHE_DEPTH = 3;
+
+    /**
+     * no limit on how deep a display goes
+     */
+    public static final int ALL = -1;
+
+    private static final String STEP = "    ";
+
+    /**
+     * the kept text of a subtree, the depth it was rendered at and the display that rendered it
+     */
+    private static class Kept {
+        private final int depth;
+        private final int stamp;
+        private final String text;
+
+        Kept(int depth, int stamp, String text) {
+            this.depth = depth;
+            this.stamp = stamp;
+            this.text = text;
+        }
+    }
+
+    private static final WeakHashMap<Component, Kept> kept = new WeakHashMap<>();
+
+    /**
+     * how many whole displays have been rendered
+     */
+    private static int renders;
+
+    private DisplayRenderer() {
+    }
+
+    /**
+     * print a component and what is below it, the way Component.display does
+     * @param top   Component   where the display starts
+     * @param depth     int     how many levels below the top to show, ALL for everything
+     */
+    public static synchronized void display(Component top, int depth) {
+        Reporter.flush();
+        StringBuilder out = new StringBuilder();
+        render(top, depth, out);
+        System.out.println();
+        System.out.print(out);
+    }
+
+    /**
+     * Render a component and what is below it, one line per component, indented four spaces per level.
+     * @param top   Component   where the rendering starts
+     * @param depth     int     how many levels below the top to show, ALL for everything
+     * @param out   StringBuilder   where the text goes
+     */
+    public static synchronized void render(Component top, int depth, StringBuilder out) {
+        boolean whole = depth < 0;
+        int stamp = whole ? ++renders : renders;
+        ArrayList<Component> work = new ArrayList<>();     // null marks the end of a kept subtree
+        int[] depths = new int[16];
+        int[] starts = new int[CACHE_DEPTH + 1];            // where the text of each open kept subtree starts
+        ArrayList<Component> open = new ArrayList<>();
+        work.add(top);
+        depths[0] = 0;
+        while (!work.isEmpty()) {
+            int at = work.size() - 1;
+            Component comp = work.remove(at);
+            int level = depths[at];
+            if (comp == null) {
+                Component done = open.remove(open.size() - 1);
+                kept.put(done, new Kept(level, stamp, out.substring(starts[level])));
+                continue;
+            }
+            ArrayList<Component> loads = comp.getLoads();
+            if (work.size() + loads.size() + 1 > depths.length) {
+                depths = Arrays.copyOf(depths, Math.max(depths.length * 2, work.size() + loads.size() + 1));
+            }
+            if (whole && level <= CACHE_DEPTH) {
+                Kept text = kept.get(comp);
+                if (!comp.stale && text != null && text.depth == level && text.stamp == comp.rendered) {
+                    out.append(text.text);
+                    continue;
+                }
+                starts[level] = out.length();
+                open.add(comp);
+                depths[work.size()] = level;
+                work.add(null);
+            }
+            if (whole) {
+                comp.stale = false;
+                comp.rendered = stamp;
+            }
+            for (int i = 0; i < level; i++) {
+                out.append(STEP);
+            }
+            out.append("+ ");
+            Reporter.identify(comp, out).append('\n');
+            if (whole || level < depth) {
+                for (int i = loads.size() - 1; i >= 0; i--) {
+                    depths[work.size()] = level + 1;
+                    work.add(loads.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * forget the text kept for a subtree, which was rendered where it used to be
+     * @param top   Component   the top of the subtree
+     */
+    static synchronized void forget(Component top) {
+        kept.remove(top);
+    }
+
+    /**
+     * forget every kept subtree
+     */
+    public static synchronized void clear() {
+        kept.clear();
+    }
+}
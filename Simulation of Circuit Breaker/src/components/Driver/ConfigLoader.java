@@ -0,0 +1,505 @@
+package components.testing;
+
+import components.*;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Loads a configuration file for Overload. The file is memory-mapped and cut into chunks at line boundaries; the
+ * chunks are tokenized in parallel without regular expressions. A second pass looks up every source by name, so a
+ * component may name a source that is defined further down the file, and the components are then built in bulk with
+ * reporting turned off, or put straight into a FlatTopology for models too big to build out of Components. Errors
+ * carry the number and text of the line they were found on.
+ *
+ * @author Feng Jiang
+ */
+public class ConfigLoader {
+
+    /**
+     * the kinds of line in a configuration file
+     */
+    private static final byte SOURCE = 0;
+    private static final byte BREAKER = 1;
+    private static final byte OUTLET = 2;
+    private static final byte APPLIANCE = 3;
+
+    private static final String[] TYPE_NAMES = {"PowerSource", "CircuitBreaker", "Outlet", "Appliance"};
+    private static final int[] TOKEN_COUNTS = {2, 4, 3, 4};
+
+    /**
+     * chunks smaller than this are not worth handing to another thread
+     */
+    private static final int MIN_CHUNK = 1 << 20;
+
+    /**
+     * A problem with a configuration file, with the error code Overload exits with and where the problem is.
+     */
+    public static class ConfigException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+        private final int line;
+        private final String text;
+
+        /**
+         * @param code  int     the Overload error code
+         * @param line  int     the line number, counting from 1
+         * @param text  String  the text of the line
+         */
+        ConfigException(int code, int line, String text) {
+            super("line " + line + ": " + text);
+            this.code = code;
+            this.line = line;
+            this.text = text;
+        }
+
+        /**
+         * @return  int     the Overload error code
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return  int     the line number, counting from 1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return  String  the text of the line
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * One piece of the file and the lines parsed out of it.
+     */
+    private static class Chunk {
+        private final MappedByteBuffer map;
+        private final int start;
+        private final int end;
+        private int lines;
+        private int count;
+        private byte[] types = new byte[64];
+        private String[] names = new String[64];
+        private String[] sources = new String[64];
+        private int[] amounts = new int[64];
+        private int[] lineNumbers = new int[64];
+        private int errorCode;
+        private int errorLine;
+        private String errorText;
+
+        /**
+         * @param map   MappedByteBuffer    the whole file
+         * @param start     int     where this chunk starts, at the beginning of a line
+         * @param end   int     where the next chunk starts
+         */
+        Chunk(MappedByteBuffer map, int start, int end) {
+            this.map = map;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * tokenize every line in this chunk, stopping at the first bad one
+         */
+        void parse() {
+            String[] tokens = new String[5];
+            int lineStart = start;
+            while (lineStart < end && errorText == null) {
+                int lineEnd = lineStart;
+                while (lineEnd < end && map.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                lines++;
+                int found = 0;
+                int i = lineStart;
+                while (i < lineEnd && found < tokens.length) {
+                    while (i < lineEnd && isSpace(map.get(i))) {
+                        i++;
+                    }
+                    int tokenStart = i;
+                    while (i < lineEnd && !isSpace(map.get(i))) {
+                        i++;
+                    }
+                    if (i > tokenStart) {
+                        tokens[found++] = text(tokenStart, i);
+                    }
+                }
+                if (found > 0) {
+                    add(tokens, found, lineStart, lineEnd);
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        /**
+         * record one non-blank line
+         * @param tokens    String[]    the tokens of the line
+         * @param found     int     how many tokens there are, tokens.length means there may be more
+         * @param lineStart     int     where the line starts, for error messages
+         * @param lineEnd   int     where the line ends
+         */
+        private void add(String[] tokens, int found, int lineStart, int lineEnd) {
+            byte type = -1;
+            for (byte t = 0; t < TYPE_NAMES.length; t++) {
+                if (TYPE_NAMES[t].equalsIgnoreCase(tokens[0])) {
+                    type = t;
+                }
+            }
+            if (type < 0 || found != TOKEN_COUNTS[type]) {
+                fail(Overload.BAD_FILE_FORMAT, lineStart, lineEnd);
+                return;
+            }
+            int amount = 0;
+            if (found == 4) {
+                try {
+                    amount = Integer.parseInt(tokens[3]);
+                } catch (NumberFormatException nfe) {
+                    fail(Overload.BAD_FILE_FORMAT, lineStart, lineEnd);
+                    return;
+                }
+            }
+            if (count == types.length) {
+                int capacity = count * 2;
+                types = Arrays.copyOf(types, capacity);
+                names = Arrays.copyOf(names, capacity);
+                sources = Arrays.copyOf(sources, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+            }
+            types[count] = type;
+            names[count] = tokens[1];
+            sources[count] = found > 2 ? tokens[2] : null;
+            amounts[count] = amount;
+            lineNumbers[count] = lines;
+            count++;
+        }
+
+        /**
+         * remember the first bad line in this chunk
+         * @param code  int     the Overload error code
+         * @param lineStart     int     where the line starts
+         * @param lineEnd   int     where the line ends
+         */
+        private void fail(int code, int lineStart, int lineEnd) {
+            errorCode = code;
+            errorLine = lines;
+            errorText = text(lineStart, lineEnd).trim();
+        }
+
+        /**
+         * @param from  int     first byte
+         * @param to    int     one past the last byte
+         * @return  String  the bytes decoded as UTF-8
+         */
+        private String text(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            map.get(from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param b     byte    a byte of the file
+         * @return  boolean     true for the whitespace the old "\\s+" split on
+         */
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+        }
+    }
+
+    private final Path file;
+
+    /**
+     * @param file  Path    the configuration file
+     */
+    public ConfigLoader(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the file and build every component in it, with reporting turned off.
+     * @return  List    the components in the order they were built, every source before its loads
+     * @throws IOException  if the file cannot be read
+     * @throws ConfigException  if a line is bad or refers to an unknown component
+     */
+    public List<Component> load() throws IOException, ConfigException {
+        Lines lines = read();
+        int[] order = sourcesFirst(lines);
+        Component[] built = new Component[lines.total];
+        ArrayList<Component> components = new ArrayList<>(lines.total);
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled(false);
+        try {
+            for (int k : order) {
+                Component source = lines.sourceOf[k] < 0 ? null : built[lines.sourceOf[k]];
+                switch (lines.types[k]) {
+                    case SOURCE:
+                        built[k] = new PowerSource(lines.names[k]);
+                        break;
+                    case BREAKER:
+                        built[k] = new CircuitBreaker(lines.names[k], source, lines.amounts[k]);
+                        break;
+                    case OUTLET:
+                        built[k] = new Outlet(lines.names[k], source);
+                        break;
+                    default:
+                        built[k] = new Appliance(lines.names[k], source, lines.amounts[k]);
+                }
+                components.add(built[k]);
+            }
+        } finally {
+            Reporter.enable(wasEnabled);
+        }
+        return components;
+    }
+
+    /**
+     * Read the file straight into a flat topology, without making a Component for anything in it. The components are
+     * numbered depth first from each power source, with loads in the order load would attach them, so the topology is
+     * the one FlatTopology.of would copy from what load builds: all switched off and disengaged.
+     * @return  FlatTopology    the topology
+     * @throws IOException  if the file cannot be read
+     * @throws ConfigException  if a line is bad or refers to an unknown component, or an appliance is used as a
+     *                          source, which a flat topology cannot hold
+     */
+    public FlatTopology loadFlat() throws IOException, ConfigException {
+        Lines lines = read();
+        int[] order = sourcesFirst(lines);
+        int[] loadStart = new int[lines.total + 1];
+        for (int k = 0; k < lines.total; k++) {
+            int source = lines.sourceOf[k];
+            if (source >= 0) {
+                if (lines.types[source] == APPLIANCE) {
+                    throw error(Overload.BAD_FILE_FORMAT, k, lines);
+                }
+                loadStart[source + 1]++;
+            }
+        }
+        for (int k = 0; k < lines.total; k++) {
+            loadStart[k + 1] += loadStart[k];
+        }
+        int[] loads = new int[lines.total];
+        int[] filled = Arrays.copyOf(loadStart, lines.total);
+        for (int k : order) {
+            if (lines.sourceOf[k] >= 0) {
+                loads[filled[lines.sourceOf[k]]++] = k;
+            }
+        }
+
+        FlatTopology.Builder builder = new FlatTopology.Builder();
+        int[] placeOf = new int[lines.total];
+        int[] work = new int[16];
+        for (int root : order) {
+            if (lines.sourceOf[root] >= 0) {
+                continue;
+            }
+            int pending = 0;
+            work[pending++] = root;
+            while (pending > 0) {
+                int k = work[--pending];
+                int source = lines.sourceOf[k] < 0 ? -1 : placeOf[lines.sourceOf[k]];
+                switch (lines.types[k]) {
+                    case SOURCE:
+                        placeOf[k] = builder.addSource(lines.names[k]);
+                        break;
+                    case BREAKER:
+                        placeOf[k] = builder.addBreaker(lines.names[k], source, lines.amounts[k]);
+                        break;
+                    case OUTLET:
+                        placeOf[k] = builder.addOutlet(lines.names[k], source);
+                        break;
+                    default:
+                        placeOf[k] = builder.addAppliance(lines.names[k], source, lines.amounts[k]);
+                }
+                int count = loadStart[k + 1] - loadStart[k];
+                if (pending + count > work.length) {
+                    work = Arrays.copyOf(work, Math.max(work.length * 2, pending + count));
+                }
+                for (int l = loadStart[k + 1] - 1; l >= loadStart[k]; l--) {
+                    work[pending++] = loads[l];
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * The lines of a file, in file order, with every source looked up.
+     */
+    private static class Lines {
+        private final int total;
+        private final byte[] types;
+        private final String[] names;
+        private final String[] sources;
+        private final int[] amounts;
+        private final int[] lineNumbers;
+        private final int[] sourceOf;
+
+        /**
+         * @param total     int     how many lines there are, not counting blank ones
+         */
+        Lines(int total) {
+            this.total = total;
+            types = new byte[total];
+            names = new String[total];
+            sources = new String[total];
+            amounts = new int[total];
+            lineNumbers = new int[total];
+            sourceOf = new int[total];
+        }
+    }
+
+    /**
+     * tokenize the file in parallel and look up every source by name
+     * @return  Lines   what the file holds
+     * @throws IOException  if the file cannot be read
+     * @throws ConfigException  if a line is bad, a name is repeated or starts with the id prefix, or a source is
+     *                          unknown
+     */
+    private Lines read() throws IOException, ConfigException {
+        Chunk[] chunks = split();
+        Arrays.stream(chunks).parallel().forEach(Chunk::parse);
+
+        int total = 0;
+        int lineBase = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.errorText != null) {
+                throw new ConfigException(chunk.errorCode, lineBase + chunk.errorLine, chunk.errorText);
+            }
+            total += chunk.count;
+            lineBase += chunk.lines;
+        }
+        Lines lines = new Lines(total);
+        int at = 0;
+        lineBase = 0;
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.types, 0, lines.types, at, chunk.count);
+            System.arraycopy(chunk.names, 0, lines.names, at, chunk.count);
+            System.arraycopy(chunk.sources, 0, lines.sources, at, chunk.count);
+            System.arraycopy(chunk.amounts, 0, lines.amounts, at, chunk.count);
+            for (int i = 0; i < chunk.count; i++) {
+                lines.lineNumbers[at + i] = lineBase + chunk.lineNumbers[i];
+            }
+            at += chunk.count;
+            lineBase += chunk.lines;
+        }
+
+        HashMap<String, Integer> byName = new HashMap<>(total * 2);
+        for (int i = 0; i < total; i++) {
+            if (lines.names[i].startsWith(Overload.ID_PREFIX)) {
+                throw error(Overload.BAD_NAME, i, lines);
+            }
+            if (byName.putIfAbsent(lines.names[i], i) != null) {
+                throw error(Overload.REPEAT_NAME, i, lines);
+            }
+        }
+        for (int i = 0; i < total; i++) {
+            if (lines.sources[i] == null) {
+                lines.sourceOf[i] = -1;
+            } else {
+                Integer s = byName.get(lines.sources[i]);
+                if (s == null) {
+                    throw error(Overload.UNKNOWN_COMPONENT, i, lines);
+                }
+                lines.sourceOf[i] = s;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * map the file and cut it into chunks that start at the beginnings of lines
+     * @return  Chunk[]     the chunks, in file order
+     * @throws IOException  if the file cannot be mapped
+     */
+    private Chunk[] split() throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = map.limit();
+        int pieces = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, size / MIN_CHUNK));
+        ArrayList<Chunk> chunks = new ArrayList<>(pieces);
+        int start = 0;
+        for (int p = 1; p <= pieces && start < size; p++) {
+            int end = p == pieces ? size : (int) ((long) size * p / pieces);
+            while (end < size && end > 0 && map.get(end - 1) != '\n') {
+                end++;
+            }
+            if (end > start) {
+                chunks.add(new Chunk(map, start, end));
+                start = end;
+            }
+        }
+        return chunks.toArray(new Chunk[0]);
+    }
+
+    /**
+     * put the lines in an order with each source before its loads, whatever order they were in the file
+     * @param lines     Lines   the lines
+     * @return  int[]   the lines in the order they can be built
+     * @throws ConfigException  if sources refer to each other in a loop
+     */
+    private static int[] sourcesFirst(Lines lines) throws ConfigException {
+        int[] order = new int[lines.total];
+        int placed = 0;
+        boolean[] done = new boolean[lines.total];
+        boolean[] pending = new boolean[lines.total];
+        int[] path = new int[16];
+        for (int i = 0; i < lines.total; i++) {
+            int depth = 0;
+            int j = i;
+            while (j >= 0 && !done[j]) {
+                if (pending[j]) {
+                    throw error(Overload.BAD_FILE_FORMAT, j, lines);
+                }
+                pending[j] = true;
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = j;
+                j = lines.sourceOf[j];
+            }
+            while (depth > 0) {
+                int k = path[--depth];
+                done[k] = true;
+                order[placed++] = k;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @param code  int     the Overload error code
+     * @param i     int     the line in error, counting only the lines that are not blank
+     * @param lines     Lines   the lines
+     * @return  ConfigException     an error for line i, with its text rebuilt from the tokens
+     */
+    private static ConfigException error(int code, int i, Lines lines) {
+        StringBuilder text = new StringBuilder(TYPE_NAMES[lines.types[i]]).append(' ').append(lines.names[i]);
+        if (lines.sources[i] != null) {
+            text.append(' ').append(lines.sources[i]);
+        }
+        if (lines.types[i] == BREAKER || lines.types[i] == APPLIANCE) {
+            text.append(' ').append(lines.amounts[i]);
+        }
+        return new ConfigException(code, lines.lineNumbers[i], text.toString());
+    }
+}
@@ -0,0 +1,91 @@
+package components.testing;
+
+import components.EventLogReader;
+import components.Reporter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Prints the records of a binary event log written with Overload -log, optionally only those with a given message
+ * and/or component, e.g. all BLOWN events for Breaker2:
+ * <pre>
+ *     java components.testing.EventLogReplay events.bin BLOWN Breaker2
+ * </pre>
+ * A "*" in place of the message matches every message, and a component may be given by id as # followed by the id.
+ *
+ * @author Feng Jiang
+ */
+public class EventLogReplay {
+
+    public static final int BAD_ARGS = 1;
+    public static final int BAD_LOG = 2;
+    public static final int UNKNOWN_MSG = 3;
+    public static final int UNKNOWN_COMPONENT = 4;
+
+    private static final String ANY = "*";
+    private static final String ID = "#";
+
+    static {
+        Reporter.addError(BAD_ARGS,
+                "Usage: java components.testing.EventLogReplay <eventLog> [<msg>|* [<component>]]");
+        Reporter.addError(BAD_LOG, "Event log could not be read");
+        Reporter.addError(UNKNOWN_MSG, "Unknown message name");
+        Reporter.addError(UNKNOWN_COMPONENT, "Component never appears in the event log");
+    }
+
+    /**
+     * @param reference     String  # followed by a component id
+     * @return  int     the id, -1 if it is not a number
+     */
+    private static int parseId(String reference) {
+        try {
+            return Integer.parseInt(reference.substring(ID.length()));
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * the main method which replays the log
+     * @param args  String[]    the log file, then optionally a message name and a component name
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            Reporter.usageError(BAD_ARGS);
+        }
+        try {
+            EventLogReader reader = new EventLogReader(Paths.get(args[0]));
+            Reporter.Msg msg = null;
+            if (args.length > 1 && !args[1].equals(ANY)) {
+                try {
+                    msg = Reporter.Msg.valueOf(args[1].toUpperCase());
+                } catch (IllegalArgumentException iae) {
+                    Reporter.usageError(UNKNOWN_MSG, args[1]);
+                }
+            }
+            int component = -1;
+            if (args.length > 2) {
+                component = args[2].startsWith(ID) ? parseId(args[2]) : reader.idOf(args[2]);
+                if (component < 0) {
+                    Reporter.usageError(UNKNOWN_COMPONENT, args[2]);
+                }
+            }
+            StringBuilder line = new StringBuilder();
+            long count = reader.replay(msg, component, (sequence, id, event, delta, draw) -> {
+                line.setLength(0);
+                line.append(sequence).append(' ').append(reader.nameOf(id)).append(": ").append(event);
+                if (event == Reporter.Msg.ATTACHING || event == Reporter.Msg.DETACHING) {
+                    line.append(' ').append(reader.nameOf(delta));
+                } else {
+                    line.append(' ').append(delta);
+                }
+                line.append(" (draw ").append(draw).append(')');
+                System.out.println(line);
+            });
+            System.out.println(count + " events.");
+        } catch (IOException ioe) {
+            Reporter.usageError(BAD_LOG, ioe.getMessage());
+        }
+    }
+}
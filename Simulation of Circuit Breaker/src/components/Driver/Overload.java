@@ -2,8 +2,15 @@ package components.testing;
 
 import components.*;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -22,19 +29,68 @@ public class Overload {
     public static final int UNKNOWN_COMPONENT_TYPE = 6;
     public static final int UNKNOWN_USER_COMMAND = 7;
     public static final int UNSWITCHABLE_COMPONENT = 8;
+    public static final int COMMAND_FILE_NOT_FOUND = 9;
+    public static final int BAD_MOVE = 10;
+    public static final int BAD_NAME = 11;
 
-    private static final String WHITESPACE_REGEX = "\\s+";
     private static final String[] NO_STRINGS = new String[ 0 ];
 
     private static final String PROMPT = "? -> ";
 
-    private static HashMap<String,Component> link = new HashMap<>();
-    private static ArrayList<Component> componentList = new ArrayList<>();
+    private static final String ASYNC_OPTION = "-async";
+    private static final String ASYNC_DROP_OPTION = "-async-drop";
+    private static final String LOG_OPTION = "-log";
+    private static final String BATCH_OPTION = "-batch";
+    private static final String METRICS_OPTION = "-metrics";
+    private static final String PARALLEL_OPTION = "-parallel";
+    private static final long METRICS_PERIOD = 10_000;
+    private static final String STANDARD_INPUT = "-";
+    private static final int BATCH_BUFFER_SIZE = 1 << 16;
+    private static final int ASYNC_QUEUE_SIZE = 1 << 16;
+
+    static final String ID_PREFIX = "#";
+    private static final String DEPTH_OPTION = "depth=";
+    private static final int PLACES_SHOWN = 5;
+
+    /**
+     * the commands, in lower case, which is how Metrics times them
+     */
+    private static final String[] COMMANDS = {"display", "quit", "toggle", "id", "stats", "place", "metrics",
+                                              "commit", "save", "detach", "move", "connect"};
+
+    private static ComponentIndex index = new ComponentIndex();
     private static PowerSource mainPower;
+    private static SubtreeIndex subtrees;
+    private static HeadroomIndex headroom;
+    private static String batchFile;
+    private static boolean asyncChosen;
+    private static boolean asyncDrop;
+    private static boolean parallelPowerUp;
+
+    /**
+     * A command that cannot be carried out, with the error code Overload exits with for it when it is interactive.
+     * Nothing has been changed by the command when this is thrown.
+     */
+    private static class CommandError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        /**
+         * @param code  int     the Overload error code
+         */
+        CommandError(int code) {
+            super(null, null, false, false);
+            this.code = code;
+        }
+    }
 
     static {
         Reporter.addError(
-                BAD_ARGS, "Usage: java components.Overload <configFile>" );
+                BAD_ARGS,
+                "Usage: java components.Overload [-async|-async-drop] [-log <eventLog>] [-metrics <csvFile>] "
+                + "[-parallel] [-batch <commandFile>|-] <configFile>"
+        );
         Reporter.addError( FILE_NOT_FOUND, "Config file not found" );
         Reporter.addError( BAD_FILE_FORMAT, "Error in config file" );
         Reporter.addError(
@@ -56,147 +112,444 @@ public class Overload {
         Reporter.addError(UNSWITCHABLE_COMPONENT,
                 "Unswitchable component being asked to toggle"
         );
+        Reporter.addError( COMMAND_FILE_NOT_FOUND, "Command file not found" );
+        Reporter.addError( BAD_MOVE, "Component cannot be moved there" );
+        Reporter.addError( BAD_NAME, "Component name starts with " + ID_PREFIX + ", which marks an id" );
     }
 
     /**
-     * error check to see if there is a component with the same name that already exist in the Component system.
+     * error check to see if there is a component with the same name that already exist in the Component system, or if
+     * the name could be taken for an id.
      * @param name  String  the name being checked
-     * @param component Component   the component for which is being added
+     * @throws CommandError     if the name is taken or starts with the id prefix
      */
-    private static void nameCheck(String name, Component component) {
-        if (!link.containsKey(name)) {
-            link.put(name, component);
-            componentList.add(component);
-        } else {
-            Reporter.usageError(REPEAT_NAME);
+    private static void nameCheck(String name) throws CommandError {
+        if (name.startsWith(ID_PREFIX)) {
+            throw new CommandError(BAD_NAME);
+        }
+        if (index.contains(name)) {
+            throw new CommandError(REPEAT_NAME);
+        }
+    }
+
+    /**
+     * find a component by name, or by id when the reference is # followed by the id
+     * @param reference     String  a name or #id
+     * @return  Component   the component, null if there is none
+     */
+    private static Component lookup(String reference) {
+        if (reference.startsWith(ID_PREFIX) && reference.length() > ID_PREFIX.length()) {
+            try {
+                return index.get(Integer.parseInt(reference.substring(ID_PREFIX.length())));
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
         }
+        return index.get(reference);
     }
 
     /**
      * error check to see if there is reference or connection to an unknown component that was never made
-     * @param name  String  the name of the component for which is the source of connection
+     * @param name  String  the name of the component for which is the source of connection, or #id
+     * @return  Component   the component with that name
+     * @throws CommandError     if there is no such component
      */
-    private static void compCheck(String name) {
-        if (!link.containsKey(name)) {
-            Reporter.usageError(UNKNOWN_COMPONENT);
+    private static Component compCheck(String name) throws CommandError {
+        Component component = lookup(name);
+        if (component == null) {
+            throw new CommandError(UNKNOWN_COMPONENT);
+        }
+        return component;
+    }
+
+    /**
+     * @param amount    String  a limit or rating
+     * @return  int     its value
+     * @throws CommandError     if it is not a number
+     */
+    private static int amountCheck(String amount) throws CommandError {
+        try {
+            return Integer.parseInt(amount);
+        } catch (NumberFormatException nfe) {
+            throw new CommandError(UNKNOWN_USER_COMMAND);
         }
     }
 
     /**
      * the method that allows components to be constructed and attached into a system and checks to see if there was
-     * an unknown component type trying to be constructed or added
+     * an unknown component type trying to be constructed or added; everything is checked before anything is built
      * @param data  the array that contains the information to construct a component
      * @param errorType int     the integer for different type of error message that is sourced from
+     * @throws CommandError     if the component cannot be made, nothing has been built then
      */
-    private static void connectComponent( String[] data, int errorType) {
+    private static void connectComponent( String[] data, int errorType) throws CommandError {
+        Component component;
         if (data.length == 2 && data[0].equalsIgnoreCase("PowerSource")) {
-            PowerSource ps = new PowerSource(data[1]);
-            nameCheck(data[1], ps);
+            nameCheck(data[1]);
+            component = new PowerSource(data[1]);
         } else if (data.length == 3 && data[0].equalsIgnoreCase("Outlet")) {
-            compCheck(data[2]);
-            Outlet ol = new Outlet(data[1], link.get(data[2]));
-            nameCheck(data[1], ol);
+            nameCheck(data[1]);
+            component = new Outlet(data[1], compCheck(data[2]));
         } else if (data.length == 4 && data[0].equalsIgnoreCase("CircuitBreaker")) {
-            compCheck(data[2]);
-            CircuitBreaker cb = new CircuitBreaker(data[1], link.get(data[2]), Integer.parseInt(data[3]));
-            nameCheck(data[1], cb);
+            nameCheck(data[1]);
+            Component source = compCheck(data[2]);
+            component = new CircuitBreaker(data[1], source, amountCheck(data[3]));
         } else if (data.length == 4 && data[0].equalsIgnoreCase("Appliance")) {
-            compCheck(data[2]);
-            Appliance ap = new Appliance(data[1], link.get(data[2]), Integer.parseInt(data[3]));
-            nameCheck(data[1], ap);
+            nameCheck(data[1]);
+            Component source = compCheck(data[2]);
+            component = new Appliance(data[1], source, amountCheck(data[3]));
         } else {
-            Reporter.usageError(errorType);
+            throw new CommandError(errorType);
         }
+        index.add(component);
     }
 
     /**
      * the method that reads the configuration file from the terminal argument when the program executes and constructs
-     * the system of components in the file if it is correctly formatted.
+     * the system of components in the file if it is correctly formatted. Components may refer to sources further down
+     * the file; errors name the line they were found on. The file may also be a snapshot written by the save command,
+     * in which case the components come back exactly as they were saved.
      * @param configFileName    String  the name of the file that have information of configuration
      */
     private static void readConfiguration (String configFileName) {
-        try (Scanner configFile = new Scanner (new File(configFileName))) {
-            try {
-            while (configFile.hasNextLine()) {
-                String line = configFile.nextLine();
-                String[] data = line.split(WHITESPACE_REGEX);
-                connectComponent(data, BAD_FILE_FORMAT);
-                }
-                System.out.println(componentList.size() + " components created.");
-            } catch (Exception e) {
-                Reporter.usageError(BAD_FILE_FORMAT);
-            } finally {
-                configFile.close();
+        try {
+            Path configFile = Paths.get(configFileName);
+            List<Component> components = Snapshot.isSnapshot(configFile)
+                    ? Snapshot.read(configFile)
+                    : new ConfigLoader(configFile).load();
+            for (Component component : components) {
+                index.add(component);
             }
-        } catch (FileNotFoundException fnf) {
-            Reporter.usageError(FILE_NOT_FOUND);
+            Reporter.flush();
+            System.out.println(index.size() + " components created.");
+        } catch (NoSuchFileException nsf) {
+            Reporter.usageError(FILE_NOT_FOUND, configFileName);
+        } catch (IOException ioe) {
+            Reporter.usageError(BAD_FILE_FORMAT, ioe.getMessage());
+        } catch (ConfigLoader.ConfigException ce) {
+            Reporter.usageError(ce.getCode(), "line " + ce.getLine() + ":", ce.getText());
         }
     }
 
     /**
-     * power up the main PowerSource when the system is constructed from the config file
+     * power up the main PowerSource when the system is constructed from the config file; with -parallel every source
+     * is announced first and then they are all engaged together by ParallelPowerUp
      */
     private static void MainPowerUp() {
         System.out.println("Starting up the main circuit(s).");
-        for (Component component : componentList) {
+        for (Component component : index.components()) {
             if (component instanceof PowerSource) {
                 Reporter.report(component, Reporter.Msg.POWERING_UP);
-                component.engage();
+                if (!parallelPowerUp) {
+                    component.engage();
+                }
                 mainPower = (PowerSource)component;
             }
         }
+        if (parallelPowerUp) {
+            new ParallelPowerUp().engage(index.components());
+        }
+    }
+
+    /**
+     * @param word  String  the first word of a command, in any case
+     * @return  String  the command in lower case, one of COMMANDS, so no new string is made, if it is one of them
+     */
+    private static String commandName(String word) {
+        for (String name : COMMANDS) {
+            if (name.equalsIgnoreCase(word)) {
+                return name;
+            }
+        }
+        return word.toLowerCase();
+    }
+
+    /**
+     * split a command into words at whitespace, without a regular expression since batches can run to millions of
+     * commands
+     * @param line  String  the command as typed
+     * @return  String[]    its words, none for a blank line
+     */
+    private static String[] words(String line) {
+        ArrayList<String> words = new ArrayList<>(5);
+        int i = 0;
+        while (i < line.length()) {
+            while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                words.add(line.substring(start, i));
+            }
+        }
+        return words.toArray(NO_STRINGS);
+    }
+
+    /**
+     * display the whole system, or from a given component down, optionally only to a given depth:
+     * display [&lt;component&gt;] [depth=N]
+     * @param command   String[]    the words of the command
+     * @throws CommandError     if the component is unknown or the depth is not a number
+     */
+    private static void display(String[] command) throws CommandError {
+        Component top = mainPower;
+        int depth = DisplayRenderer.ALL;
+        for (int i = 1; i < command.length; i++) {
+            if (command[i].regionMatches(true, 0, DEPTH_OPTION, 0, DEPTH_OPTION.length())) {
+                depth = amountCheck(command[i].substring(DEPTH_OPTION.length()));
+                if (depth < 0) {
+                    throw new CommandError(UNKNOWN_USER_COMMAND);
+                }
+            } else if (i == 1) {
+                top = compCheck(command[i]);
+            } else {
+                throw new CommandError(UNKNOWN_USER_COMMAND);
+            }
+        }
+        DisplayRenderer.display(top, depth);
+    }
+
+    /**
+     * carry out one command; switching goes through the transaction, and anything that needs the draws to be up to
+     * date commits it first
+     * @param command   String[]    the words of the command
+     * @param transaction   Transaction     where the switching is collected
+     * @return  boolean     false if the command was quit
+     * @throws CommandError     if the command cannot be carried out
+     */
+    private static boolean runCommand(String[] command, Transaction transaction) throws CommandError {
+        if (command.length == 0) {
+            throw new CommandError(UNKNOWN_USER_COMMAND);
+        }
+        if (command[0].equalsIgnoreCase("display") && command.length <= 3) {
+            transaction.commit();
+            display(command);
+        } else if (command[0].equalsIgnoreCase("quit")) {
+            return false;
+        } else if (command[0].equalsIgnoreCase("toggle") && command.length == 2) {
+            Component component = lookup(command[1]);
+            if (component instanceof CircuitBreaker || component instanceof Appliance) {
+                transaction.toggle(component);
+            } else {
+                throw new CommandError(UNSWITCHABLE_COMPONENT);
+            }
+        } else if (command[0].equalsIgnoreCase("id") && command.length == 2) {
+            Component component = compCheck(command[1]);
+            System.out.println(component.getName() + " " + ID_PREFIX + component.getId());
+        } else if (command[0].equalsIgnoreCase("stats") && command.length == 2) {
+            transaction.commit();
+            Component component = compCheck(command[1]);
+            if (subtrees == null) {
+                subtrees = new SubtreeIndex(index.components());      // kept up to date from then on
+            }
+            Reporter.flush();
+            System.out.println(component.getName() + ": rated load " + subtrees.ratedLoad(component) + ", "
+                               + subtrees.appliancesOn(component) + " appliances on for " + subtrees.loadOn(component)
+                               + ", highest draw " + subtrees.maxDraw(component));
+        } else if (command[0].equalsIgnoreCase("place") && command.length == 2) {
+            transaction.commit();
+            int rating = amountCheck(command[1]);
+            if (headroom == null) {
+                headroom = new HeadroomIndex(index.components());      // kept up to date from then on
+            }
+            Reporter.flush();
+            List<HeadroomIndex.Place> places = headroom.placesFor(rating, PLACES_SHOWN);
+            if (places.isEmpty()) {
+                System.out.println("No outlet can take " + rating + ".");
+            }
+            for (HeadroomIndex.Place place : places) {
+                System.out.println(place.outlet().getName() + ": headroom "
+                                   + (place.headroom() == Long.MAX_VALUE ? "unlimited" : place.headroom()));
+            }
+        } else if (command[0].equalsIgnoreCase("metrics") && command.length == 1) {
+            transaction.commit();
+            Reporter.flush();
+            System.out.print(Metrics.text());
+        } else if (command[0].equalsIgnoreCase("commit") && command.length == 1) {
+            transaction.commit();
+        } else if (command[0].equalsIgnoreCase("save") && command.length == 2) {
+            transaction.commit();
+            try {
+                Snapshot.write(index.components(), Paths.get(command[1]));
+                System.out.println(index.size() + " components saved.");
+            } catch (IOException ioe) {
+                System.err.println("Could not save snapshot: " + ioe.getMessage());
+            }
+        } else if (command[0].equalsIgnoreCase("detach") && command.length == 2) {
+            transaction.commit();
+            Component component = compCheck(command[1]);
+            try {
+                component.detach();
+            } catch (IllegalStateException ise) {
+                throw new CommandError(BAD_MOVE);
+            }
+        } else if (command[0].equalsIgnoreCase("move") && command.length == 3) {
+            transaction.commit();
+            Component component = compCheck(command[1]);
+            Component newSource = compCheck(command[2]);
+            try {
+                component.move(newSource);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                throw new CommandError(BAD_MOVE);
+            }
+        } else if (command[0].equalsIgnoreCase("connect") && command.length > 1) {
+            transaction.commit();
+            connectComponent(Arrays.copyOfRange(command, 1, command.length), UNKNOWN_COMPONENT_TYPE);
+        } else {
+            throw new CommandError(UNKNOWN_USER_COMMAND);
+        }
+        return true;
     }
 
     /**
-     * prompt user for manipulation of the system of loads after the configuration.
+     * prompt user for manipulation of the system of loads after the configuration. Every command takes effect before
+     * the next prompt, and a bad command ends the program.
      */
     private static void PromptUser() {
-        Scanner input = new Scanner(System.in);
-        String[] command;
-        String action;
-        while (true) {
-            System.out.print(PROMPT);
-            action = input.nextLine();
-            command = action.split(WHITESPACE_REGEX);
-            if (command[0].equalsIgnoreCase("display")) {
-                mainPower.display();
-            } else if (command[0].equalsIgnoreCase("quit")) {
-                break;
-            } else if (command[0].equalsIgnoreCase("toggle")) {
-                Component component = link.get(command[1]);
-                if (component instanceof CircuitBreaker || component instanceof Appliance) {
-                    if (((Switcher) component).isSwitchOn()) {
-                        ((Switcher) component).turnOff();
-                    } else {
-                        ((Switcher) component).turnOn();
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        Transaction transaction = new Transaction();
+        try {
+            while (true) {
+                Reporter.flush();
+                System.out.print(PROMPT);
+                String action = input.readLine();
+                if (action == null) {
+                    break;
+                }
+                String[] command = words(action);
+                long start = System.nanoTime();
+                boolean more = runCommand(command, transaction);
+                transaction.commit();
+                Metrics.timeCommand(commandName(command[0]), System.nanoTime() - start);
+                if (!more) {
+                    break;
+                }
+            }
+        } catch (CommandError ce) {
+            Reporter.usageError(ce.code);
+        } catch (IOException ioe) {
+            Reporter.usageError(BAD_ARGS, ioe.getMessage());
+        }
+    }
+
+    /**
+     * Run the commands in a file, or on standard input, without prompting. Toggles are collected into one transaction
+     * until a command needs the draws to be up to date, or the commands say commit, so a long run of toggles is passed
+     * up the tree once. A bad command is reported with its line number and skipped; the rest still run.
+     * @param name  String  the command file, or - for standard input
+     */
+    private static void runBatch(String name) {
+        try (InputStream in = name.equals(STANDARD_INPUT) ? System.in : Files.newInputStream(Paths.get(name));
+             BufferedReader commands = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),
+                                                          BATCH_BUFFER_SIZE)) {
+            Transaction transaction = new Transaction();
+            long lineNumber = 0;
+            long errors = 0;
+            String line;
+            while ((line = commands.readLine()) != null) {
+                lineNumber++;
+                String[] command = words(line);
+                if (command.length == 0) {
+                    continue;
+                }
+                try {
+                    long start = System.nanoTime();
+                    if (!runCommand(command, transaction)) {
+                        break;
                     }
-                } else {
-                    Reporter.usageError(UNSWITCHABLE_COMPONENT);
+                    Metrics.timeCommand(commandName(command[0]), System.nanoTime() - start);
+                } catch (CommandError ce) {
+                    errors++;
+                    Reporter.commandError(ce.code, lineNumber, command);
+                }
+            }
+            transaction.commit();
+            Reporter.flush();
+            System.out.println(lineNumber + " lines read, " + transaction.toggles() + " toggles, " + errors
+                               + " errors.");
+        } catch (NoSuchFileException nsf) {
+            Reporter.usageError(COMMAND_FILE_NOT_FOUND, name);
+        } catch (IOException ioe) {
+            Reporter.usageError(COMMAND_FILE_NOT_FOUND, name, ioe.getMessage());
+        }
+    }
+
+    /**
+     * handle the options in front of the config file name: -async or -async-drop turn on asynchronous reporting, and
+     * -async-drop says at the end how many report lines it dropped, -log followed by a file name writes every event to
+     * a binary event log, -metrics followed by a file name collects metrics, shows them over JMX and appends them to
+     * the file as CSV every ten seconds and at the end, -parallel powers up independent subtrees at the same time,
+     * -batch followed by a file name, or - for standard input, runs the commands in it instead of prompting
+     * @param args  String[]    the command line arguments
+     * @return  int     the index of the first argument that is not an option
+     */
+    private static int readOptions(String[] args) {
+        int next = 0;
+        while (next < args.length && args[next].startsWith("-")) {
+            if (args[next].equalsIgnoreCase(ASYNC_OPTION)) {
+                Reporter.useAsyncOutput(ASYNC_QUEUE_SIZE, Reporter.Overflow.BLOCK);
+                asyncChosen = true;
+                asyncDrop = false;
+            } else if (args[next].equalsIgnoreCase(ASYNC_DROP_OPTION)) {
+                Reporter.useAsyncOutput(ASYNC_QUEUE_SIZE, Reporter.Overflow.DROP);
+                asyncChosen = true;
+                asyncDrop = true;
+            } else if (args[next].equalsIgnoreCase(BATCH_OPTION) && next + 1 < args.length) {
+                next++;
+                batchFile = args[next];
+            } else if (args[next].equalsIgnoreCase(PARALLEL_OPTION)) {
+                parallelPowerUp = true;
+            } else if (args[next].equalsIgnoreCase(METRICS_OPTION) && next + 1 < args.length) {
+                next++;
+                Metrics.enable();
+                Metrics.registerMXBean();
+                try {
+                    Metrics.dumpEvery(Paths.get(args[next]), METRICS_PERIOD);
+                } catch (IOException ioe) {
+                    Reporter.usageError(BAD_ARGS, args[next]);
                 }
-            } else if (command[0].equalsIgnoreCase("connect")) {
+            } else if (args[next].equalsIgnoreCase(LOG_OPTION) && next + 1 < args.length) {
+                next++;
                 try {
-                    String[] data = {command[1], command[2], command[3], command[4]};
-                    connectComponent(data, UNKNOWN_COMPONENT_TYPE);
-                } catch (ArrayIndexOutOfBoundsException aiob2) {
-                    Reporter.usageError(UNKNOWN_USER_COMMAND);
+                    Reporter.logTo(new BinaryEventLog(Paths.get(args[next])));
+                } catch (IOException ioe) {
+                    Reporter.usageError(BAD_ARGS, args[next]);
                 }
             } else {
-                Reporter.usageError(UNKNOWN_USER_COMMAND);
+                Reporter.usageError(BAD_ARGS, args[next]);
             }
-
+            next++;
         }
+        return next;
     }
 
     /**
      * the main method which executes the program
-     * @param args  String[]    the name of the config file should exist here
+     * @param args  String[]    the name of the config file should exist here, optionally after the options
      */
     public static void main( String[] args ) {
         System.out.println( "Overload Project, CS2" );
         try {
-            readConfiguration(args[0]);
+            String configFile = args[readOptions(args)];
+            if (batchFile != null && !asyncChosen) {
+                Reporter.useAsyncOutput(ASYNC_QUEUE_SIZE, Reporter.Overflow.BLOCK);     // nobody is waiting on a prompt
+            }
+            readConfiguration(configFile);
             MainPowerUp();
-            PromptUser();
+            if (batchFile != null) {
+                runBatch(batchFile);
+            } else {
+                PromptUser();
+            }
+            Reporter.stopAsyncOutput();
+            if (asyncDrop) {
+                System.out.println(Reporter.droppedEvents() + " report lines dropped.");
+            }
+            Reporter.closeEventLog();
+            Metrics.stopDumping();
         } catch (ArrayIndexOutOfBoundsException aiob){
             Reporter.usageError(BAD_ARGS);
         }
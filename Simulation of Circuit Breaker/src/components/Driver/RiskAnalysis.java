@@ -0,0 +1,126 @@
+package components.testing;
+
+import components.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+/**
+ * Prints how likely each circuit breaker in an Overload configuration is to blow, given how likely each appliance is
+ * to be on. The usage file has one appliance per line, its name and the probability that it is on, e.g.
+ * <pre>
+ *     Heater 0.25
+ * </pre>
+ * Appliances that are not listed are taken to be off. Every breaker is switched on in every scenario.
+ * <pre>
+ *     java components.testing.RiskAnalysis panel.txt usage.txt 10000000
+ * </pre>
+ *
+ * @author Feng Jiang
+ */
+public class RiskAnalysis {
+
+    public static final int BAD_ARGS = 1;
+    public static final int FILE_NOT_FOUND = 2;
+    public static final int BAD_FILE_FORMAT = 3;
+    public static final int UNKNOWN_COMPONENT = 4;
+
+    private static final long DEFAULT_SCENARIOS = 1_000_000;
+    private static final long SEED = 2412;
+
+    static {
+        Reporter.addError(BAD_ARGS,
+                "Usage: java components.testing.RiskAnalysis <configFile> <usageFile> [<scenarios>]");
+        Reporter.addError(FILE_NOT_FOUND, "File not found");
+        Reporter.addError(BAD_FILE_FORMAT, "Error in file");
+        Reporter.addError(UNKNOWN_COMPONENT, "Reference to unknown appliance in usage file");
+    }
+
+    /**
+     * read the usage file
+     * @param flat  FlatTopology    the topology the appliances are in
+     * @param usageFile     String  the name of the usage file
+     * @return  double[]    the probability of each component being on, indexed like the topology
+     * @throws IOException  if the file cannot be read
+     */
+    private static double[] readUsage(FlatTopology flat, String usageFile) throws IOException {
+        HashMap<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < flat.size(); i++) {
+            if (flat.kind(i) == FlatTopology.APPLIANCE) {
+                index.put(flat.name(i), i);
+            }
+        }
+        double[] probability = new double[flat.size()];
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(usageFile), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String[] words = line.trim().split("\\s+");
+                if (words.length == 1 && words[0].isEmpty()) {
+                    continue;
+                }
+                if (words.length != 2) {
+                    Reporter.usageError(BAD_FILE_FORMAT, "line " + lineNumber + ":", line.trim());
+                }
+                Integer i = index.get(words[0]);
+                if (i == null) {
+                    Reporter.usageError(UNKNOWN_COMPONENT, "line " + lineNumber + ":", line.trim());
+                }
+                try {
+                    probability[i] = Double.parseDouble(words[1]);
+                } catch (NumberFormatException nfe) {
+                    Reporter.usageError(BAD_FILE_FORMAT, "line " + lineNumber + ":", line.trim());
+                }
+                if (!(probability[i] >= 0 && probability[i] <= 1)) {
+                    Reporter.usageError(BAD_FILE_FORMAT, "line " + lineNumber + ":", line.trim());
+                }
+            }
+        }
+        return probability;
+    }
+
+    /**
+     * the main method which runs the analysis
+     * @param args  String[]    the config file, the usage file and optionally the number of scenarios
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            Reporter.usageError(BAD_ARGS);
+        }
+        long scenarios = DEFAULT_SCENARIOS;
+        if (args.length == 3) {
+            try {
+                scenarios = Long.parseLong(args[2]);
+            } catch (NumberFormatException nfe) {
+                Reporter.usageError(BAD_ARGS, args[2]);
+            }
+        }
+        String current = args[0];
+        try {
+            FlatTopology flat = new ConfigLoader(Paths.get(args[0])).loadFlat();
+            current = args[1];
+            double[] usage = readUsage(flat, args[1]);
+            long start = System.nanoTime();
+            double[] risk = new OverloadRisk(flat, usage).tripProbabilities(scenarios, SEED);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (int i = 0; i < flat.size(); i++) {
+                if (flat.kind(i) == FlatTopology.BREAKER) {
+                    System.out.printf("%s (limit %d): %.6f%n", flat.name(i), flat.limit(i), risk[i]);
+                }
+            }
+            System.out.printf("%d scenarios in %.2f s%n", scenarios, seconds);
+        } catch (NoSuchFileException nsf) {
+            Reporter.usageError(FILE_NOT_FOUND, current);
+        } catch (IOException ioe) {
+            Reporter.usageError(BAD_FILE_FORMAT, current, ioe.getMessage());
+        } catch (ConfigLoader.ConfigException ce) {
+            Reporter.usageError(BAD_FILE_FORMAT, args[0], "line " + ce.getLine() + ":", ce.getText());
+        }
+    }
+}
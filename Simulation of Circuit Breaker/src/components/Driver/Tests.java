@@ -2,8 +2,22 @@ package components.testing;
 
 import components.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.util.Map.entry;
 
@@ -35,7 +49,28 @@ public class Tests {
                         entry( 1, Tests::oneAppl ),
                         entry( 2, Tests::twoApplWithCB ),
                         entry( 3, Tests::treeOf15 ),
-                        entry( 4, Tests::multiCircuit )
+                        entry( 4, Tests::multiCircuit ),
+                        entry( 5, Tests::flatTreeOf15 ),
+                        entry( 6, Tests::deepChain ),
+                        entry( 7, Tests::concurrentCircuits ),
+                        entry( 8, Tests::buildingMonth ),
+                        entry( 9, Tests::thermalTrips ),
+                        entry( 10, Tests::whatIf ),
+                        entry( 11, Tests::metrics ),
+                        entry( 12, Tests::journal ),
+                        entry( 13, Tests::listeners ),
+                        entry( 14, Tests::parallelPowerUp ),
+                        entry( 15, Tests::occupants ),
+                        entry( 16, Tests::subtreeQueries ),
+                        entry( 17, Tests::placementQueries ),
+                        entry( 18, Tests::rewiring ),
+                        entry( 19, Tests::badMoves ),
+                        entry( 20, Tests::snapshotRoundTrip ),
+                        entry( 21, Tests::propagation ),
+                        entry( 22, Tests::displayCache ),
+                        entry( 23, Tests::configLoading ),
+                        entry( 24, Tests::transactions ),
+                        entry( 25, Tests::flatFromConfig )
                 )
             );
 
@@ -183,4 +218,1849 @@ public class Tests {
         breaker2.turnOn();
     }
 
+    /**
+     * The same steps as treeOf15, run on a FlatTopology.
+     * The final draws should match the last display of treeOf15.
+     */
+    public static void flatTreeOf15() {
+        FlatTopology.Builder b = new FlatTopology.Builder();
+        int ps = b.addSource( "Root" );
+        int cb1 = b.addBreaker( "Breaker1", ps, 15 );
+        int cb2 = b.addBreaker( "Breaker2", ps, 25 );
+        int out1a = b.addOutlet( "Outlet1A", cb1 );
+        int out1b = b.addOutlet( "Outlet1B", cb1 );
+        int out2a = b.addOutlet( "Outlet2A", cb2 );
+        int out2b = b.addOutlet( "Outlet2B", cb2 );
+        int light1 = b.addAppliance( "Light1", out1a, 1 );
+        int light2 = b.addAppliance( "Light2", out1a, 1 );
+        int light3 = b.addAppliance( "Light3", out1b, 1 );
+        int heater = b.addAppliance( "Heater", out1b, 13 );
+        int ecar1 = b.addAppliance( "ECar1", out2a, 7 );
+        int ecar2 = b.addAppliance( "ECar2", out2a, 7 );
+        int ecar3 = b.addAppliance( "ECar3", out2b, 7 );
+        int ecar4 = b.addAppliance( "ECar4", out2b, 7 );
+        FlatTopology flat = b.build();
+
+        flat.engage( ps );
+        flat.turnOn( cb1 );
+        flat.turnOn( light1 );
+        flat.turnOn( light2 );
+        flat.turnOn( light3 );
+        flat.turnOn( heater ); // Circuit breaker should blow here.
+        flat.turnOn( cb2 );
+        flat.turnOn( ecar3 );
+        flat.turnOn( ecar4 );
+        flat.turnOn( ecar1 );
+        flat.turnOn( ecar2 ); // Circuit breaker should blow here.
+        flat.turnOff( light2 );
+        flat.turnOff( ecar3 );
+        flat.turnOn( cb2 );
+        flat.turnOn( cb1 );
+
+        for ( int i = 0; i < flat.size(); i++ ) {
+            if ( flat.kind( i ) != FlatTopology.APPLIANCE ) {
+                System.out.println( flat.name( i ) + ": draw " +
+                                    flat.draw( i ) );
+            }
+        }
+        System.out.println( flat.trips() + " trips" );
+    }
+
+    /**
+     * A feeder daisy-chained through a million outlets.
+     * Engaging, drawing and tripping all have to walk the whole chain,
+     * which used to overflow the stack after a few thousand levels.
+     * Reporting is turned off while it runs; only the totals print.
+     */
+    public static void deepChain() {
+        final int depth = 1_000_000;
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "Root" );
+        CircuitBreaker breaker = new CircuitBreaker( "Breaker", root, 100 );
+        Component end = breaker;
+        for ( int i = 0; i < depth; i++ ) {
+            end = new Outlet( "Outlet" + i, end );
+        }
+        Appliance lamp = new Appliance( "Lamp", end, 10 );
+        Appliance welder = new Appliance( "Welder", end, 200 );
+        root.engage();
+        lamp.turnOn();
+        breaker.turnOn();
+        String afterOn = "Root draw after turning on the breaker: " +
+                         root.getDraw() + " (expect 10)";
+        lamp.turnOff();
+        lamp.turnOn();
+        String afterToggle = "Root draw after toggling the lamp: " +
+                             root.getDraw() + " (expect 10)";
+        welder.turnOn(); // Circuit breaker should blow here.
+        String afterTrip = "Root draw after the welder: " +
+                           root.getDraw() + ", breaker " +
+                           ( breaker.isSwitchOn() ? "on" : "off" ) +
+                           " (expect 0, off)";
+        Reporter.enable( wasEnabled );
+        System.out.println( afterOn );
+        System.out.println( afterToggle );
+        System.out.println( afterTrip );
+    }
+
+    /**
+     * Eight circuits on one feeder, each toggled by its own thread,
+     * plus a lamp plugged straight into the feeder that every thread
+     * toggles. Every switch is flipped an even number of times and then
+     * one appliance per circuit is left on, so the feeder has to end up
+     * drawing exactly that much; a lost update at the feeder would show.
+     * Reporting is turned off while it runs.
+     */
+    public static void concurrentCircuits() {
+        final int circuits = 8;
+        final int rounds = 100_000;
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "Root" );
+        Outlet feeder = new Outlet( "Feeder", root );
+        Appliance lamp = new Appliance( "Lamp", feeder, 1 );
+        CircuitBreaker[] breakers = new CircuitBreaker[ circuits ];
+        Appliance[][] loads = new Appliance[ circuits ][ 4 ];
+        for ( int c = 0; c < circuits; c++ ) {
+            breakers[ c ] = new CircuitBreaker( "Breaker" + c, feeder, 100 );
+            Outlet outlet = new Outlet( "Outlet" + c, breakers[ c ] );
+            for ( int a = 0; a < loads[ c ].length; a++ ) {
+                loads[ c ][ a ] =
+                        new Appliance( "Load" + c + "_" + a, outlet, a + 1 );
+            }
+            breakers[ c ].turnOn();
+        }
+        root.engage();
+
+        ConcurrentToggles toggles = new ConcurrentToggles();
+        Thread[] threads = new Thread[ circuits ];
+        for ( int c = 0; c < circuits; c++ ) {
+            final Appliance[] mine = loads[ c ];
+            threads[ c ] = new Thread( () -> {
+                for ( int r = 0; r < rounds; r++ ) {
+                    toggles.toggle( mine[ r % mine.length ] );
+                    if ( r % 64 == 0 ) {
+                        toggles.toggle( lamp );
+                    }
+                }
+                toggles.turnOn( mine[ mine.length - 1 ] );
+            } );
+            threads[ c ].start();
+        }
+        try {
+            for ( Thread thread : threads ) {
+                thread.join();
+            }
+        }
+        catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+        Reporter.enable( wasEnabled );
+        System.out.println( "Root draw: " + root.getDraw() + " (expect " +
+                            circuits * loads[ 0 ].length + ")" );
+        System.out.println( "Lamp " + ( lamp.isSwitchOn() ? "on" : "off" ) +
+                            " (expect off)" );
+    }
+
+    /**
+     * A month of occupancy for a building of 24 circuits, driven by
+     * the Scheduler a second at a time. Every appliance is switched on
+     * and off at random times from a fixed seed, so the run is the same
+     * every time; once an hour any breaker that has blown is reset.
+     * Reporting is turned off while it runs.
+     */
+    public static void buildingMonth() {
+        final int circuits = 24;
+        final long month = 30L * 24 * 3600;
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "Root" );
+        CircuitBreaker[] breakers = new CircuitBreaker[ circuits ];
+        java.util.ArrayList< Appliance > appliances = new java.util.ArrayList<>();
+        for ( int c = 0; c < circuits; c++ ) {
+            breakers[ c ] = new CircuitBreaker( "Breaker" + c, root, 30 );
+            for ( int o = 0; o < 4; o++ ) {
+                Outlet outlet =
+                        new Outlet( "Outlet" + c + "_" + o, breakers[ c ] );
+                for ( int a = 0; a < 4; a++ ) {
+                    appliances.add( new Appliance(
+                            "Appl" + c + "_" + o + "_" + a, outlet, a + 1 ) );
+                }
+            }
+            breakers[ c ].turnOn();
+        }
+        root.engage();
+
+        Scheduler scheduler = new Scheduler();
+        SplittableRandom random = new SplittableRandom( 2412 );
+        for ( Appliance appliance : appliances ) {
+            long time = random.nextLong( 3600 );
+            boolean on = true;
+            while ( time < month ) {
+                scheduler.schedule( time, appliance, on ?
+                        Scheduler.Action.TURN_ON : Scheduler.Action.TURN_OFF );
+                time += 60 + random.nextLong( on ? 1800 : 7200 );
+                on = !on;
+            }
+        }
+        long[] resets = { 0 };
+        long[] peak = { 0 };
+        scheduler.every( 3600, now -> {
+            peak[ 0 ] = Math.max( peak[ 0 ], root.getDraw() );
+            for ( CircuitBreaker breaker : breakers ) {
+                if ( !breaker.isSwitchOn() ) {
+                    scheduler.schedule( now, breaker,
+                                        Scheduler.Action.TURN_ON );
+                    resets[ 0 ]++;
+                }
+            }
+        } );
+        long events = scheduler.runUntil( month );
+        Reporter.enable( wasEnabled );
+        System.out.println( events + " events over " + month + " seconds" );
+        System.out.println( resets[ 0 ] + " breaker resets, hourly peak draw " +
+                            peak[ 0 ] );
+        System.out.printf( "%.0f events per second%n",
+                           scheduler.eventsPerSecond() );
+    }
+
+    /**
+     * Breakers with inverse-time trip curves, stepped once a second.
+     * A 110% load holds for minutes, a 200% load for seconds and a
+     * 600% load trips at once. Then 100,000 idle breakers are watched
+     * along with one loaded one, to show that only the loaded one is
+     * stepped.
+     */
+    public static void thermalTrips() {
+        int[] loads = { 11, 20, 60 };
+        for ( int rating : loads ) {
+            PowerSource root = new PowerSource( "Root" + rating );
+            CircuitBreaker breaker =
+                    new CircuitBreaker( "Breaker" + rating, root, 10 );
+            Appliance load = new Appliance( "Load" + rating, breaker, rating );
+            ThermalModel thermal = new ThermalModel();
+            thermal.watch( breaker, new InverseTimeCurve() );
+            breaker.turnOn();
+            root.engage();
+            load.turnOn();
+            int second = 0;
+            while ( breaker.isSwitchOn() && second < 3600 ) {
+                second++;
+                thermal.tick( second );
+            }
+            System.out.println( "Load of " + rating * 10 + "% tripped after " +
+                                second + " s" );
+        }
+
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource campus = new PowerSource( "Campus" );
+        ThermalModel thermal = new ThermalModel();
+        CircuitBreaker hot = null;
+        for ( int i = 0; i < 100_000; i++ ) {
+            CircuitBreaker breaker =
+                    new CircuitBreaker( "Breaker" + i, campus, 10 );
+            thermal.watch( breaker, new InverseTimeCurve() );
+            breaker.turnOn();
+            hot = breaker;
+        }
+        Appliance heater = new Appliance( "Heater", hot, 12 );
+        campus.engage();
+        thermal.tick( 1 );
+        heater.turnOn();
+        thermal.tick( 2 );
+        Reporter.enable( wasEnabled );
+        System.out.println( thermal.active() +
+                            " of 100000 breakers active with the heater " +
+                            "on (expect 1)" );
+    }
+
+    /**
+     * What-if questions about the treeOf15 panel, asked without
+     * switching anything. Then a panel of 32 circuits of 8 appliances
+     * each is asked a few million random questions to show the rate.
+     */
+    public static void whatIf() {
+        FlatTopology.Builder b = new FlatTopology.Builder();
+        int ps = b.addSource( "Root" );
+        int cb1 = b.addBreaker( "Breaker1", ps, 15 );
+        int cb2 = b.addBreaker( "Breaker2", ps, 25 );
+        int out1a = b.addOutlet( "Outlet1A", cb1 );
+        int out1b = b.addOutlet( "Outlet1B", cb1 );
+        int out2a = b.addOutlet( "Outlet2A", cb2 );
+        int out2b = b.addOutlet( "Outlet2B", cb2 );
+        int light1 = b.addAppliance( "Light1", out1a, 1 );
+        int light2 = b.addAppliance( "Light2", out1a, 1 );
+        int light3 = b.addAppliance( "Light3", out1b, 1 );
+        int heater = b.addAppliance( "Heater", out1b, 13 );
+        int ecar1 = b.addAppliance( "ECar1", out2a, 7 );
+        int ecar2 = b.addAppliance( "ECar2", out2a, 7 );
+        int ecar3 = b.addAppliance( "ECar3", out2b, 7 );
+        int ecar4 = b.addAppliance( "ECar4", out2b, 7 );
+        FlatTopology flat = b.build();
+        WhatIfEvaluator evaluator = new WhatIfEvaluator( flat );
+
+        int[][] questions = {
+                { light1, light2, light3 },
+                { light1, light2, light3, heater },
+                { light1, heater, ecar1, ecar2, ecar3 },
+                { light1, light2, light3, heater, ecar1, ecar2, ecar3, ecar4 }
+        };
+        for ( int[] question : questions ) {
+            BitSet on = new BitSet();
+            StringBuilder line = new StringBuilder( "On:" );
+            for ( int i : question ) {
+                on.set( i );
+                line.append( ' ' ).append( flat.name( i ) );
+            }
+            line.append( System.lineSeparator() ).append( "    blows:" );
+            int[] blown = evaluator.blownBreakers( on );
+            if ( blown.length == 0 ) {
+                line.append( " nothing" );
+            }
+            for ( int i : blown ) {
+                line.append( ' ' ).append( flat.name( i ) );
+            }
+            System.out.println( line );
+        }
+
+        FlatTopology.Builder panel = new FlatTopology.Builder();
+        int root = panel.addSource( "Panel" );
+        for ( int c = 0; c < 32; c++ ) {
+            int breaker = panel.addBreaker( null, root, 40 );
+            for ( int o = 0; o < 2; o++ ) {
+                int outlet = panel.addOutlet( null, breaker );
+                for ( int a = 0; a < 4; a++ ) {
+                    panel.addAppliance( null, outlet, 3 + 4 * a );
+                }
+            }
+        }
+        evaluator = new WhatIfEvaluator( panel.build() );
+        SplittableRandom random = new SplittableRandom( 2412 );
+        long[][] masks = new long[ 1024 ][ evaluator.words() ];
+        for ( long[] mask : masks ) {
+            for ( int w = 0; w < mask.length; w++ ) {
+                mask[ w ] = random.nextLong() & random.nextLong();
+            }
+        }
+        long[] draw = new long[ evaluator.size() ];
+        int[] blown = new int[ evaluator.breakers() ];
+        final int queries = 4_000_000;
+        long total = 0;
+        long start = System.nanoTime();
+        for ( int q = 0; q < queries; q++ ) {
+            total += evaluator.evaluate( masks[ q & 1023 ], draw, blown );
+        }
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+        System.out.printf( "%d questions, %.2f breakers blown on average, " +
+                           "%.1f million questions per second%n",
+                           queries, (double)total / queries,
+                           queries / seconds / 1e6 );
+    }
+
+    /**
+     * Metrics collected over a breaker that is toggled and then
+     * overloaded, and a histogram of the times 1 to 1000 ns, whose
+     * percentiles should be right to within an eighth.
+     */
+    public static void metrics() {
+        Metrics.reset();
+        Metrics.enable();
+        PowerSource root = new PowerSource( "MetricsRoot" );
+        CircuitBreaker breaker = new CircuitBreaker( "MetricsCB", root, 10 );
+        Appliance small = new Appliance( "Small", breaker, 4 );
+        Appliance big = new Appliance( "Big", breaker, 9 );
+        breaker.turnOn();
+        root.engage();
+        small.turnOn();
+        small.turnOff();
+        small.turnOn();
+        big.turnOn();
+        Metrics.disable();
+        System.out.print( Metrics.text() );
+
+        LatencyHistogram times = new LatencyHistogram();
+        for ( int nanos = 1; nanos <= 1000; nanos++ ) {
+            times.record( nanos );
+        }
+        System.out.println( "p50 " + times.percentile( 50 ) +
+                            " (expect 500-562), p99 " + times.percentile( 99 ) +
+                            " (expect 990-1000), max " + times.max() +
+                            " (expect 1000)" );
+    }
+
+    /**
+     * The state of every component, one line each.
+     * @param comps the components
+     * @return their state
+     */
+    private static String stateOf( ArrayList< Component > comps ) {
+        StringBuilder state = new StringBuilder();
+        for ( Component comp : comps ) {
+            Reporter.identify( comp, state ).append( '\n' );
+        }
+        return state.toString();
+    }
+
+    /**
+     * A panel of 64 circuits is switched about under a journal until
+     * breakers blow, rolled back to its checkpoint and redone; the state
+     * has to come back exactly each time. Then four threads fork a flat
+     * copy of the panel 10,000 times each and switch one more appliance
+     * on in every fork, without changing the panel or each other's forks.
+     */
+    public static void journal() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        ArrayList< Appliance > appliances = new ArrayList<>();
+        PowerSource root = new PowerSource( "Panel" );
+        comps.add( root );
+        for ( int c = 0; c < 64; c++ ) {
+            CircuitBreaker breaker =
+                    new CircuitBreaker( "Circuit" + c, root, 12 );
+            comps.add( breaker );
+            breaker.turnOn();
+            for ( int a = 0; a < 4; a++ ) {
+                Appliance appliance =
+                        new Appliance( "Load" + c + "_" + a, breaker, 3 + a );
+                comps.add( appliance );
+                appliances.add( appliance );
+            }
+        }
+        root.engage();
+        SplittableRandom random = new SplittableRandom( 2412 );
+        for ( int i = 0; i < 100; i++ ) {
+            Appliance appliance =
+                    appliances.get( random.nextInt( appliances.size() ) );
+            if ( !appliance.isSwitchOn() ) {
+                appliance.turnOn();
+            }
+        }
+        String before = stateOf( comps );
+
+        StateJournal journal = new StateJournal();
+        journal.start();
+        int checkpoint = journal.checkpoint();
+        for ( int i = 0; i < 200; i++ ) {
+            appliances.get( random.nextInt( appliances.size() ) ).turnOn();
+        }
+        String connected;
+        try {
+            new Appliance( "Late", comps.get( 1 ), 1 );
+            connected = "connected";
+        }
+        catch ( IllegalStateException e ) {
+            connected = "refused";
+        }
+        journal.stop();
+        String after = stateOf( comps );
+        int entries = journal.size();
+        int undone = journal.rollback( checkpoint );
+        System.out.println( entries + " entries, " + undone +
+                            " undone, state restored: " +
+                            before.equals( stateOf( comps ) ) );
+        System.out.println( "a new load while journaling: " + connected );
+        journal.redo();
+        System.out.println( "state redone: " +
+                            after.equals( stateOf( comps ) ) );
+        journal.rollback( checkpoint );
+
+        FlatTopology panel = FlatTopology.of( comps );
+        long[] trips = new long[ 4 ];
+        int[] pages = new int[ 4 ];
+        Thread[] threads = new Thread[ trips.length ];
+        for ( int t = 0; t < threads.length; t++ ) {
+            final int mine = t;
+            threads[ t ] = new Thread( () -> {
+                SplittableRandom choices = new SplittableRandom( mine );
+                for ( int f = 0; f < 10_000; f++ ) {
+                    FlatTopology fork = panel.fork();
+                    int i = choices.nextInt( panel.size() );
+                    if ( panel.kind( i ) == FlatTopology.APPLIANCE ) {
+                        fork.turnOn( i );
+                    }
+                    trips[ mine ] += fork.trips() - panel.trips();
+                    pages[ mine ] = Math.max( pages[ mine ], fork.ownedPages() );
+                }
+            } );
+            threads[ t ].start();
+        }
+        try {
+            for ( Thread thread : threads ) {
+                thread.join();
+            }
+        }
+        catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+        }
+        Reporter.enable( wasEnabled );
+        long total = 0;
+        int most = 0;
+        for ( int t = 0; t < trips.length; t++ ) {
+            total += trips[ t ];
+            most = Math.max( most, pages[ t ] );
+        }
+        System.out.println( "40000 forks, " + total + " trips, at most " +
+                            most + " pages copied per fork; panel draw " +
+                            panel.draw( 0 ) + " (expect " + root.getDraw() +
+                            ")" );
+    }
+
+    /**
+     * Listeners on a panel of two circuits, with printing turned off:
+     * one hears every trip, one counts the draw changes in the kitchen
+     * circuit and one counts the switching of the kettle. After they
+     * are cancelled they hear nothing more.
+     */
+    public static void listeners() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "House" );
+        CircuitBreaker kitchen = new CircuitBreaker( "Kitchen", root, 20 );
+        CircuitBreaker garage = new CircuitBreaker( "Garage", root, 10 );
+        Outlet counter = new Outlet( "Counter", kitchen );
+        Appliance kettle = new Appliance( "Kettle", counter, 12 );
+        Appliance toaster = new Appliance( "Toaster", counter, 9 );
+        Appliance welder = new Appliance( "Welder", garage, 15 );
+        kitchen.turnOn();
+        garage.turnOn();
+        root.engage();
+
+        final int[] kitchenChanges = new int[ 1 ];
+        final int[] kettleSwitches = new int[ 1 ];
+        Subscription alerts = Reporter.subscribe( new ReportListener() {
+            @Override
+            public void onTrip( CircuitBreaker breaker, int draw ) {
+                System.out.println( "ALERT " + breaker.getName() +
+                                    " tripped at " + draw );
+            }
+        }, Reporter.Msg.BLOWN );
+        Subscription changes = Reporter.subscribeSubtree( new ReportListener() {
+            @Override
+            public void onDrawChange( Component comp, int delta ) {
+                kitchenChanges[ 0 ]++;
+            }
+        }, kitchen, Reporter.Msg.DRAW_CHANGE );
+        Subscription switches = Reporter.subscribe( new ReportListener() {
+            @Override
+            public void onSwitch( Component comp, boolean on ) {
+                kettleSwitches[ 0 ]++;
+            }
+        }, kettle );
+
+        kettle.turnOn();
+        toaster.turnOn();       // 21 > 20, the kitchen blows
+        welder.turnOn();        // 15 > 10, the garage blows
+        kettle.turnOff();
+        kitchen.turnOn();
+        System.out.println( kitchenChanges[ 0 ] + " kitchen draw changes" +
+                            " (expect 9), " + kettleSwitches[ 0 ] +
+                            " kettle switches (expect 2)" );
+        alerts.cancel();
+        changes.cancel();
+        switches.cancel();
+        kettle.turnOn();
+        Reporter.enable( wasEnabled );
+        System.out.println( kitchenChanges[ 0 ] + " kitchen draw changes" +
+                            " and " + kettleSwitches[ 0 ] +
+                            " kettle switches after cancelling" );
+    }
+
+    /**
+     * Build a random model: power sources feeding wide panels of
+     * breakers, some nested, with outlets and appliances, and one deep
+     * chain of outlets. Some breakers are loaded past their limits.
+     * @param seed the seed of the random numbers
+     * @param mains how many main breakers each source feeds
+     * @param chain how long each source's chain of outlets is
+     * @param comps where every component is put
+     */
+    private static void randomModel( long seed, int mains, int chain,
+                                     ArrayList< Component > comps ) {
+        SplittableRandom random = new SplittableRandom( seed );
+        for ( int s = 0; s < 3; s++ ) {
+            PowerSource root = new PowerSource( "Source" + s );
+            comps.add( root );
+            for ( int b = 0; b < mains; b++ ) {
+                CircuitBreaker main =
+                        new CircuitBreaker( "Main" + s + "_" + b, root,
+                                            400 + random.nextInt( 200 ) );
+                main.turnOn();
+                comps.add( main );
+                for ( int c = 0; c < 8; c++ ) {
+                    CircuitBreaker breaker =
+                            new CircuitBreaker( "CB" + s + "_" + b + "_" + c,
+                                                main, 40 + random.nextInt( 40 ) );
+                    if ( random.nextInt( 10 ) > 0 ) {
+                        breaker.turnOn();
+                    }
+                    comps.add( breaker );
+                    Outlet outlet = new Outlet( "Out" + s + "_" + b + "_" + c,
+                                                breaker );
+                    comps.add( outlet );
+                    for ( int a = 0; a < 6; a++ ) {
+                        Appliance appliance = new Appliance(
+                                "App" + s + "_" + b + "_" + c + "_" + a,
+                                outlet, 1 + random.nextInt( 15 ) );
+                        if ( random.nextBoolean() ) {
+                            appliance.turnOn();
+                        }
+                        comps.add( appliance );
+                    }
+                }
+            }
+            Component end = root;
+            for ( int d = 0; d < chain; d++ ) {
+                end = new Outlet( "Chain" + s + "_" + d, end );
+                comps.add( end );
+            }
+            Appliance last = new Appliance( "Last" + s, end, 5 );
+            last.turnOn();
+            comps.add( last );
+        }
+    }
+
+    /**
+     * The same random model powered up one source after another and
+     * by ParallelPowerUp on four threads; every component has to end up
+     * in the same state.
+     */
+    public static void parallelPowerUp() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > sequential = new ArrayList<>();
+        randomModel( 2412, 300, 20_000, sequential );
+        for ( Component comp : sequential ) {
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+            }
+        }
+        ArrayList< Component > parallel = new ArrayList<>();
+        randomModel( 2412, 300, 20_000, parallel );
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        new ParallelPowerUp( pool ).engage( parallel );
+        pool.shutdown();
+        Reporter.enable( wasEnabled );
+        int blown = 0;
+        for ( Component comp : parallel ) {
+            if ( comp instanceof CircuitBreaker &&
+                 !( (CircuitBreaker)comp ).isSwitchOn() ) {
+                blown++;
+            }
+        }
+        System.out.println( parallel.size() + " components, " + blown +
+                            " breakers off, same state as sequential: " +
+                            stateOf( sequential ).equals( stateOf( parallel ) ) );
+    }
+
+    /**
+     * 2,000 occupants of a building of 200 circuits, each toggling two
+     * appliances of one circuit 50 times, thinking for 100 us on
+     * average in between. Every circuit can be overloaded, so breakers
+     * blow and get reset. At the end the feeder has to draw exactly what
+     * the appliances that are on in live circuits add up to.
+     */
+    public static void occupants() {
+        final int circuits = 200;
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "Building" );
+        CircuitBreaker[] breakers = new CircuitBreaker[ circuits ];
+        Appliance[][] loads = new Appliance[ circuits ][ 5 ];
+        for ( int c = 0; c < circuits; c++ ) {
+            breakers[ c ] = new CircuitBreaker( "Circuit" + c, root, 20 );
+            Outlet outlet = new Outlet( "Wall" + c, breakers[ c ] );
+            for ( int a = 0; a < loads[ c ].length; a++ ) {
+                loads[ c ][ a ] =
+                        new Appliance( "Device" + c + "_" + a, outlet, 3 + a );
+            }
+            breakers[ c ].turnOn();
+        }
+        root.engage();
+
+        OccupantSimulator building =
+                new OccupantSimulator( new ConcurrentToggles() );
+        SplittableRandom random = new SplittableRandom( 2412 );
+        for ( int o = 0; o < 2000; o++ ) {
+            Appliance[] room = loads[ random.nextInt( circuits ) ];
+            building.addOccupant( room[ random.nextInt( room.length ) ],
+                                  room[ random.nextInt( room.length ) ] );
+        }
+        OccupantSimulator.Result result;
+        try {
+            result = building.run( 50, 100_000, 2412 );
+        }
+        catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            Reporter.enable( wasEnabled );
+            return;
+        }
+        Reporter.enable( wasEnabled );
+
+        int expected = 0;
+        for ( int c = 0; c < circuits; c++ ) {
+            if ( !breakers[ c ].isSwitchOn() ) {
+                continue;
+            }
+            for ( Appliance appliance : loads[ c ] ) {
+                if ( appliance.isSwitchOn() ) {
+                    expected += appliance.getRating();
+                }
+            }
+        }
+        LatencyHistogram latency = result.latency();
+        System.out.println( result.toggles() + " toggles (expect 100000), " +
+                            result.trips() + " trips, " + result.resets() +
+                            " resets, " + result.contended() + " waited" );
+        System.out.printf( "toggle latency p50 %.1f us, p99 %.1f us, " +
+                           "max %.1f us, %s%n",
+                           latency.percentile( 50 ) / 1e3,
+                           latency.percentile( 99 ) / 1e3,
+                           latency.max() / 1e3,
+                           result.virtualThreads() ? "virtual threads" :
+                                                     "thread pool" );
+        System.out.println( "hottest circuit " +
+                            result.hottest().get( 0 ).getName() +
+                            ", root draw " + root.getDraw() + " (expect " +
+                            expected + ")" );
+    }
+
+    /**
+     * Answer a subtree question by walking the subtree, in a flat copy
+     * of the model.
+     * @param flat the copy
+     * @param top the index of the top of the subtree
+     * @param what 0 for rated load, 1 for appliances on, 2 for the load
+     *             switched on, 3 for the highest draw
+     * @return the answer
+     */
+    private static long walkSubtree( FlatTopology flat, int top, int what ) {
+        long answer = what == 3 ? Long.MIN_VALUE : 0;
+        ArrayList< Integer > work = new ArrayList<>();
+        work.add( top );
+        while ( !work.isEmpty() ) {
+            int i = work.remove( work.size() - 1 );
+            for ( int k = flat.childStart( i ); k < flat.childEnd( i ); k++ ) {
+                work.add( flat.child( k ) );
+            }
+            if ( what == 3 ) {
+                answer = Math.max( answer, flat.draw( i ) );
+            }
+            else if ( flat.kind( i ) == FlatTopology.APPLIANCE ) {
+                if ( what == 0 ) {
+                    answer += flat.rating( i );
+                }
+                else if ( flat.isSwitchOn( i ) ) {
+                    answer += what == 1 ? 1 : flat.rating( i );
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * A SubtreeIndex over a random model that is switched about and
+     * has appliances and outlets connected to it as it goes, checked
+     * against walks of the subtrees after every step.
+     */
+    public static void subtreeQueries() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        randomModel( 2412, 20, 200, comps );
+        for ( Component comp : comps ) {
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+            }
+        }
+        SubtreeIndex index = new SubtreeIndex( comps );
+        SplittableRandom random = new SplittableRandom( 2412 );
+        int queries = 0;
+        int wrong = 0;
+        for ( int step = 0; step < 2000; step++ ) {
+            Component comp = comps.get( random.nextInt( comps.size() ) );
+            int choice = random.nextInt( 10 );
+            if ( comp instanceof Switcher && choice < 7 ) {
+                Switcher switcher = (Switcher)comp;
+                if ( switcher.isSwitchOn() ) {
+                    switcher.turnOff();
+                }
+                else {
+                    switcher.turnOn();
+                }
+            }
+            else if ( !( comp instanceof Appliance ) && choice < 9 ) {
+                comps.add( random.nextBoolean() ?
+                           new Appliance( "New" + step, comp,
+                                          1 + random.nextInt( 9 ) ) :
+                           new Outlet( "NewOutlet" + step, comp ) );
+            }
+            Component top = comps.get( random.nextInt( comps.size() ) );
+            if ( random.nextInt( 4 ) == 0 ) {
+                top = ConcurrentToggles.circuitOf( top );
+            }
+            long[] got = { index.ratedLoad( top ), index.appliancesOn( top ),
+                           index.loadOn( top ), index.maxDraw( top ) };
+            FlatTopology flat = FlatTopology.of( comps );
+            int at = 0;
+            while ( !top.getName().equals( flat.name( at ) ) ) {
+                at++;
+            }
+            for ( int what = 0; what < got.length; what++ ) {
+                queries++;
+                if ( got[ what ] != walkSubtree( flat, at, what ) ) {
+                    wrong++;
+                }
+            }
+        }
+        index.close();
+        Reporter.enable( wasEnabled );
+        System.out.println( queries + " queries, " + wrong +
+                            " wrong (expect 0), " + index.rebuilds() +
+                            " rebuilds" );
+    }
+
+    /**
+     * Work out the headroom of every outlet by walking up from it, in a
+     * flat copy of the model.
+     * @param flat the copy
+     * @return by outlet name, its headroom; outlets without power, or
+     *         below a breaker that is off or blown, are left out
+     */
+    private static HashMap< String, Long > walkHeadroom( FlatTopology flat ) {
+        HashMap< String, Long > headroom = new HashMap<>();
+        for ( int i = 0; i < flat.size(); i++ ) {
+            if ( flat.kind( i ) != FlatTopology.OUTLET ||
+                 !flat.isEngaged( i ) ) {
+                continue;
+            }
+            long least = Long.MAX_VALUE;
+            for ( int up = flat.parent( i ); up >= 0; up = flat.parent( up ) ) {
+                if ( flat.kind( up ) != FlatTopology.BREAKER ) {
+                    continue;
+                }
+                if ( !flat.isSwitchOn( up ) || flat.isOverloaded( up ) ) {
+                    least = Long.MIN_VALUE;
+                    break;
+                }
+                least = Math.min( least, flat.limit( up ) - flat.draw( up ) );
+            }
+            if ( least > Long.MIN_VALUE ) {
+                headroom.put( flat.name( i ), least );
+            }
+        }
+        return headroom;
+    }
+
+    /**
+     * A HeadroomIndex over a random model that is switched about and
+     * has breakers, outlets and appliances connected to it as it goes;
+     * after every step the best places for a random rating are checked
+     * against the headroom of every outlet worked out by walking up.
+     */
+    public static void placementQueries() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        randomModel( 2412, 20, 200, comps );
+        for ( Component comp : comps ) {
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+            }
+        }
+        HeadroomIndex index = new HeadroomIndex( comps );
+        SplittableRandom random = new SplittableRandom( 2412 );
+        int queries = 0;
+        int wrong = 0;
+        for ( int step = 0; step < 2000; step++ ) {
+            Component comp = comps.get( random.nextInt( comps.size() ) );
+            int choice = random.nextInt( 20 );
+            if ( comp instanceof Switcher && choice < 16 ) {
+                Switcher switcher = (Switcher)comp;
+                if ( switcher.isSwitchOn() ) {
+                    switcher.turnOff();
+                }
+                else {
+                    switcher.turnOn();
+                }
+            }
+            else if ( !( comp instanceof Appliance ) && choice < 19 ) {
+                int kind = random.nextInt( 3 );
+                comps.add( kind == 0 ?
+                           new Appliance( "New" + step, comp,
+                                          1 + random.nextInt( 9 ) ) :
+                           kind == 1 ?
+                           new Outlet( "NewOutlet" + step, comp ) :
+                           new CircuitBreaker( "NewCB" + step, comp,
+                                               20 + random.nextInt( 40 ) ) );
+            }
+            HashMap< String, Long > expected =
+                    walkHeadroom( FlatTopology.of( comps ) );
+            int rating = 1 + random.nextInt( 40 );
+            int most = step % 50 == 0 ? Integer.MAX_VALUE : 10;
+            List< HeadroomIndex.Place > places = index.placesFor( rating, most );
+            ArrayList< Long > fits = new ArrayList<>();
+            for ( long room : expected.values() ) {
+                if ( room >= rating ) {
+                    fits.add( room );
+                }
+            }
+            fits.sort( Collections.reverseOrder() );
+            queries++;
+            if ( places.size() != Math.min( most, fits.size() ) ) {
+                wrong++;
+            }
+            for ( int k = 0; k < places.size() && k < fits.size(); k++ ) {
+                HeadroomIndex.Place place = places.get( k );
+                queries++;
+                if ( place.headroom() != fits.get( k ) ||
+                     !expected.get( place.outlet().getName() )
+                              .equals( place.headroom() ) ||
+                     index.headroom( place.outlet() ) != place.headroom() ) {
+                    wrong++;
+                }
+            }
+        }
+        index.close();
+        Reporter.enable( wasEnabled );
+        System.out.println( queries + " checks, " + wrong +
+                            " wrong (expect 0), " + index.rebuilds() +
+                            " rebuilds" );
+    }
+
+    /**
+     * Check that every component in a flat copy of the model is engaged
+     * exactly when its source passes current on, draws what its loads
+     * draw, and that no breaker passing current is over its limit.
+     * @param flat the copy
+     * @return how many components are wrong
+     */
+    private static int inconsistent( FlatTopology flat ) {
+        int wrong = 0;
+        for ( int i = 0; i < flat.size(); i++ ) {
+            int up = flat.parent( i );
+            boolean powered = up < 0 ? flat.name( i ).startsWith( "Source" ) :
+                              passesOn( flat, up );
+            long loads = 0;
+            for ( int k = flat.childStart( i ); k < flat.childEnd( i ); k++ ) {
+                loads += drawnBy( flat, flat.child( k ) );
+            }
+            if ( flat.isEngaged( i ) != powered ||
+                 ( flat.kind( i ) != FlatTopology.APPLIANCE &&
+                   flat.draw( i ) != ( passesOn( flat, i ) ? loads : 0 ) ) ||
+                 ( flat.kind( i ) == FlatTopology.BREAKER &&
+                   passesOn( flat, i ) && flat.draw( i ) > flat.limit( i ) ) ) {
+                wrong++;
+            }
+        }
+        return wrong;
+    }
+
+    /**
+     * @param flat a flat copy of the model
+     * @param i a component in it
+     * @return true if current passes through it to its loads
+     */
+    private static boolean passesOn( FlatTopology flat, int i ) {
+        return flat.isEngaged( i ) &&
+               ( flat.kind( i ) != FlatTopology.BREAKER ||
+                 ( flat.isSwitchOn( i ) && !flat.isOverloaded( i ) ) );
+    }
+
+    /**
+     * @param flat a flat copy of the model
+     * @param i a component in it
+     * @return the current it draws from its source
+     */
+    private static long drawnBy( FlatTopology flat, int i ) {
+        if ( flat.kind( i ) != FlatTopology.APPLIANCE ) {
+            return flat.draw( i );
+        }
+        return flat.isEngaged( i ) && flat.isSwitchOn( i ) ?
+               flat.rating( i ) : 0;
+    }
+
+    /**
+     * A random model whose subtrees are moved about, detached and
+     * plugged back in, with some switching in between, and with a
+     * SubtreeIndex and a HeadroomIndex watching; after every step the
+     * draws are checked against the loads, and the indexes against
+     * walks of a flat copy.
+     */
+    public static void rewiring() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        randomModel( 2412, 20, 200, comps );
+        for ( Component comp : comps ) {
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+            }
+        }
+        SubtreeIndex subtrees = new SubtreeIndex( comps );
+        HeadroomIndex headroom = new HeadroomIndex( comps );
+        SplittableRandom random = new SplittableRandom( 2412 );
+        int moves = 0;
+        int refused = 0;
+        int detached = 0;
+        int wrong = 0;
+        for ( int step = 0; step < 2000; step++ ) {
+            Component comp = comps.get( random.nextInt( comps.size() ) );
+            Component target = comps.get( random.nextInt( comps.size() ) );
+            while ( target instanceof Appliance ) {
+                target = comps.get( random.nextInt( comps.size() ) );
+            }
+            int choice = random.nextInt( 10 );
+            try {
+                if ( choice < 2 && comp instanceof Switcher ) {
+                    Switcher switcher = (Switcher)comp;
+                    if ( switcher.isSwitchOn() ) {
+                        switcher.turnOff();
+                    }
+                    else {
+                        switcher.turnOn();
+                    }
+                }
+                else if ( choice < 3 ) {
+                    comp.detach();
+                    detached++;
+                }
+                else {
+                    comp.move( target );
+                    moves++;
+                }
+            }
+            catch ( IllegalArgumentException | IllegalStateException e ) {
+                refused++;
+            }
+            FlatTopology flat = FlatTopology.of( comps );
+            wrong += inconsistent( flat );
+            Component top = comps.get( random.nextInt( comps.size() ) );
+            int at = 0;
+            while ( !top.getName().equals( flat.name( at ) ) ) {
+                at++;
+            }
+            int root = at;
+            while ( flat.parent( root ) >= 0 ) {
+                root = flat.parent( root );
+            }
+            if ( flat.name( root ).startsWith( "Source" ) &&
+                 ( subtrees.ratedLoad( top ) != walkSubtree( flat, at, 0 ) ||
+                   subtrees.maxDraw( top ) != walkSubtree( flat, at, 3 ) ) ) {
+                wrong++;
+            }
+            long best = 0;
+            for ( long room : walkHeadroom( flat ).values() ) {
+                best = Math.max( best, room );
+            }
+            List< HeadroomIndex.Place > places = headroom.placesFor( 1, 1 );
+            if ( places.isEmpty() ? best > 0 :
+                 places.get( 0 ).headroom() != best ) {
+                wrong++;
+            }
+        }
+        subtrees.close();
+        headroom.close();
+        Reporter.enable( wasEnabled );
+        System.out.println( moves + " moves, " + detached + " detached, " +
+                            refused + " refused, " + wrong +
+                            " wrong (expect 0)" );
+    }
+
+    /**
+     * Moves that cannot be done are refused before anything changes: to
+     * no source, onto the component itself, below it, into an appliance,
+     * and of a power source, which cannot be detached either. The wiring
+     * and every draw have to stay as they were.
+     */
+    public static void badMoves() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "Root" );
+        CircuitBreaker breaker = new CircuitBreaker( "Breaker", root, 20 );
+        Outlet outlet = new Outlet( "Outlet", breaker );
+        Outlet inner = new Outlet( "Inner", outlet );
+        Appliance lamp = new Appliance( "Lamp", inner, 5 );
+        breaker.turnOn();
+        lamp.turnOn();
+        root.engage();
+        StringBuilder before = new StringBuilder();
+        DisplayRenderer.render( root, DisplayRenderer.ALL, before );
+        Component[][] moves = { { outlet, null }, { outlet, outlet },
+                                { outlet, inner }, { outlet, lamp },
+                                { root, breaker } };
+        int refused = 0;
+        for ( Component[] move : moves ) {
+            try {
+                move[ 0 ].move( move[ 1 ] );
+            }
+            catch ( IllegalArgumentException iae ) {
+                refused++;
+            }
+        }
+        try {
+            root.detach();
+        }
+        catch ( IllegalStateException ise ) {
+            refused++;
+        }
+        StringBuilder after = new StringBuilder();
+        DisplayRenderer.render( root, DisplayRenderer.ALL, after );
+        Reporter.enable( wasEnabled );
+        System.out.println( refused + " of 6 refused (expect 6), wiring and " +
+                            "draws unchanged: " +
+                            before.toString().equals( after.toString() ) +
+                            " (expect true), lamp draws " + root.getDraw() +
+                            " (expect 5)" );
+    }
+
+    /**
+     * A model with a tripped breaker, a breaker switched off and a
+     * detached subtree is saved to a snapshot and read back. The copy
+     * has to match in wiring, kinds, draws and flags, and go on matching
+     * after the same changes are made to both.
+     */
+    public static void snapshotRoundTrip() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        PowerSource root = new PowerSource( "Root" );
+        CircuitBreaker main = new CircuitBreaker( "Main", root, 100 );
+        Outlet kitchen = new Outlet( "Kitchen", main );
+        Appliance kettle = new Appliance( "Kettle", kitchen, 30 );
+        Appliance toaster = new Appliance( "Toaster", kitchen, 25 );
+        CircuitBreaker small = new CircuitBreaker( "Small", root, 10 );
+        Appliance heater = new Appliance( "Heater", small, 15 );
+        CircuitBreaker spare = new CircuitBreaker( "Spare", root, 10 );
+        CircuitBreaker shed = new CircuitBreaker( "Shed", main, 40 );
+        Outlet bench = new Outlet( "Bench", shed );
+        Appliance drill = new Appliance( "Drill", bench, 8 );
+        Collections.addAll( comps, root, main, kitchen, kettle, toaster,
+                            small, heater, spare, shed, bench, drill );
+        main.turnOn();
+        small.turnOn();
+        shed.turnOn();
+        kettle.turnOn();
+        root.engage();
+        heater.turnOn();
+        shed.detach();
+
+        List< Component > copy;
+        try {
+            Path file = Files.createTempFile( "snapshot", ".bin" );
+            file.toFile().deleteOnExit();
+            Snapshot.write( comps, file );
+            copy = Snapshot.read( file );
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+        boolean sameRead = pictureOf( comps ).equals( pictureOf( copy ) );
+
+        for ( List< ? extends Component > model: List.of( comps, copy ) ) {
+            Map< String, Component > named = new HashMap<>();
+            for ( Component comp: model ) {
+                named.put( comp.getName(), comp );
+            }
+            ( (Appliance)named.get( "Heater" ) ).turnOff();
+            ( (CircuitBreaker)named.get( "Small" ) ).turnOn();
+            named.get( "Shed" ).move( named.get( "Main" ) );
+            ( (Appliance)named.get( "Drill" ) ).turnOn();
+            ( (Appliance)named.get( "Toaster" ) ).turnOn();
+        }
+        boolean sameAfter = pictureOf( comps ).equals( pictureOf( copy ) );
+        int copyDraw = 0;
+        for ( Component comp: copy ) {
+            if ( comp.getName().equals( "Root" ) ) {
+                copyDraw = comp.getDraw();
+            }
+        }
+        Reporter.enable( wasEnabled );
+        System.out.println( "read back the same: " + sameRead +
+                            " (expect true), same after the same changes: " +
+                            sameAfter + " (expect true), Root draws " +
+                            copyDraw + " (expect 63)" );
+    }
+
+    /**
+     * @param comps the components of a model
+     * @return one line per component with its class, where it is wired,
+     *         its draw and its flags
+     */
+    private static String pictureOf( List< ? extends Component > comps ) {
+        Map< String, String > kinds = new HashMap<>();
+        for ( Component comp: comps ) {
+            kinds.put( comp.getName(), comp.getClass().getSimpleName() );
+        }
+        FlatTopology flat = FlatTopology.of( comps );
+        StringBuilder picture = new StringBuilder();
+        for ( int i = 0; i < flat.size(); i++ ) {
+            int up = flat.parent( i );
+            picture.append( flat.name( i ) ).append( ' ' )
+                   .append( kinds.get( flat.name( i ) ) ).append( " under " )
+                   .append( up < 0 ? "-" : flat.name( up ) ).append( " draws " )
+                   .append( flat.draw( i ) ).append( ' ' )
+                   .append( flat.isSwitchOn( i ) ).append( ' ' )
+                   .append( flat.isEngaged( i ) ).append( ' ' )
+                   .append( flat.isOverloaded( i ) ).append( '\n' );
+        }
+        return picture.toString();
+    }
+
+    /**
+     * Draw changes and engagement are followed by hand through a
+     * breaker with an outlet below it and a second breaker nested under
+     * that outlet. The draw at every level and which breakers are blown
+     * are checked after each step, including a breaker that blows part
+     * of the way up a change, a nested breaker that blows under a live
+     * one, and breakers that blow while they are being engaged.
+     */
+    public static void propagation() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        PowerSource root = new PowerSource( "Root" );
+        CircuitBreaker main = new CircuitBreaker( "Main", root, 60 );
+        Outlet kitchen = new Outlet( "Kitchen", main );
+        Appliance kettle = new Appliance( "Kettle", kitchen, 20 );
+        CircuitBreaker sub = new CircuitBreaker( "Sub", kitchen, 25 );
+        Outlet bench = new Outlet( "Bench", sub );
+        Appliance drill = new Appliance( "Drill", bench, 10 );
+        Appliance saw = new Appliance( "Saw", bench, 12 );
+        Appliance lamp = new Appliance( "Lamp", main, 5 );
+        Appliance heater = new Appliance( "Heater", kitchen, 30 );
+        Appliance grinder = new Appliance( "Grinder", bench, 8 );
+        Collections.addAll( comps, root, main, kitchen, kettle, sub, bench,
+                            drill, saw, lamp, heater, grinder );
+        Component[] levels = { root, main, kitchen, sub, bench };
+
+        main.turnOn();
+        sub.turnOn();
+        kettle.turnOn();
+        drill.turnOn();
+        lamp.turnOn();
+        root.engage();
+        propagationStep( "engaged", comps, levels, "35 35 30 10 10, none" );
+        saw.turnOn();
+        propagationStep( "saw on", comps, levels, "47 47 42 22 22, none" );
+        heater.turnOn();
+        propagationStep( "heater on", comps, levels, "0 0 0 0 0, Main" );
+        heater.turnOff();
+        main.turnOn();
+        propagationStep( "heater off, Main reset", comps, levels,
+                         "47 47 42 22 22, none" );
+        grinder.turnOn();
+        propagationStep( "grinder on", comps, levels, "25 25 20 0 0, Sub" );
+        grinder.turnOff();
+        sub.turnOn();
+        propagationStep( "grinder off, Sub reset", comps, levels,
+                         "47 47 42 22 22, none" );
+        main.turnOff();
+        heater.turnOn();
+        propagationStep( "Main off, heater on", comps, levels,
+                         "0 0 0 0 0, none" );
+        main.turnOn();
+        propagationStep( "Main on", comps, levels, "0 0 0 0 0, Main" );
+        heater.turnOff();
+        grinder.turnOn();
+        main.turnOn();
+        propagationStep( "heater off, grinder on, Main reset", comps, levels,
+                         "25 25 20 0 0, Sub" );
+        Reporter.enable( wasEnabled );
+    }
+
+    /**
+     * Print the draws of some components and which breakers are blown.
+     * @param what the step just taken
+     * @param comps all the components
+     * @param levels the components whose draws are shown
+     * @param expect what should be shown
+     */
+    private static void propagationStep( String what,
+                                         List< Component > comps,
+                                         Component[] levels, String expect ) {
+        StringBuilder got = new StringBuilder();
+        for ( Component comp: levels ) {
+            got.append( comp.getDraw() ).append( ' ' );
+        }
+        got.setLength( got.length() - 1 );
+        got.append( ',' );
+        FlatTopology flat = FlatTopology.of( comps );
+        int blown = 0;
+        for ( int i = 0; i < flat.size(); i++ ) {
+            if ( flat.isOverloaded( i ) ) {
+                got.append( ' ' ).append( flat.name( i ) );
+                blown++;
+            }
+        }
+        if ( blown == 0 ) {
+            got.append( " none" );
+        }
+        System.out.println( what + ": " + got + " (expect " + expect + ")" );
+    }
+
+    /**
+     * A random model is switched, rewired and displayed over and over,
+     * so that DisplayRenderer prints much of it from kept text. In each
+     * round a few changes are made, then a power source, a random
+     * component and a random component cut short at a random depth are
+     * rendered and compared with a plain recursive walk of a flat copy.
+     */
+    public static void displayCache() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > comps = new ArrayList<>();
+        randomModel( 2412, 5, 30, comps );
+        Map< String, Component > named = new HashMap<>();
+        for ( Component comp : comps ) {
+            named.put( comp.getName(), comp );
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+            }
+        }
+        DisplayRenderer.clear();
+        SplittableRandom random = new SplittableRandom( 2412 );
+        int rounds = 300;
+        int matched = 0;
+        for ( int round = 0; round < rounds; round++ ) {
+            for ( int change = random.nextInt( 5 ); change >= 0; change-- ) {
+                Component comp = comps.get( random.nextInt( comps.size() ) );
+                Component target = comps.get( random.nextInt( comps.size() ) );
+                try {
+                    if ( comp instanceof Switcher && random.nextInt( 4 ) > 0 ) {
+                        Switcher switcher = (Switcher)comp;
+                        if ( switcher.isSwitchOn() ) {
+                            switcher.turnOff();
+                        }
+                        else {
+                            switcher.turnOn();
+                        }
+                    }
+                    else if ( random.nextInt( 4 ) == 0 ) {
+                        comp.detach();
+                    }
+                    else {
+                        comp.move( target );
+                    }
+                }
+                catch ( IllegalArgumentException | IllegalStateException e ) {
+                    // refused, nothing changed
+                }
+            }
+            FlatTopology flat = FlatTopology.of( comps );
+            Map< String, Integer > place = new HashMap<>();
+            for ( int i = 0; i < flat.size(); i++ ) {
+                place.put( flat.name( i ), i );
+            }
+            Component[] tops = { named.get( "Source" + random.nextInt( 3 ) ),
+                                 comps.get( random.nextInt( comps.size() ) ),
+                                 comps.get( random.nextInt( comps.size() ) ) };
+            int[] depths = { DisplayRenderer.ALL, DisplayRenderer.ALL,
+                             random.nextInt( 5 ) };
+            boolean same = true;
+            for ( int t = 0; t < tops.length; t++ ) {
+                StringBuilder cached = new StringBuilder();
+                DisplayRenderer.render( tops[ t ], depths[ t ], cached );
+                StringBuilder plain = new StringBuilder();
+                plainRender( flat, place.get( tops[ t ].getName() ), 0,
+                             depths[ t ], named, plain );
+                same &= cached.toString().equals( plain.toString() );
+            }
+            if ( same ) {
+                matched++;
+            }
+        }
+        Reporter.enable( wasEnabled );
+        System.out.println( matched + " of " + rounds + " rounds matched (expect " +
+                            rounds + ")" );
+    }
+
+    /**
+     * Render a component and what is below it the way DisplayRenderer
+     * does, by plain recursion and without keeping anything.
+     * @param flat a flat copy of the model
+     * @param at where the rendering starts in the copy
+     * @param level how far below the top it is
+     * @param depth how many levels below the top to show, or
+     *              DisplayRenderer.ALL for everything
+     * @param named the components by name
+     * @param out where the text goes
+     */
+    private static void plainRender( FlatTopology flat, int at, int level,
+                                     int depth, Map< String, Component > named,
+                                     StringBuilder out ) {
+        for ( int i = 0; i < level; i++ ) {
+            out.append( "    " );
+        }
+        out.append( "+ " )
+           .append( Reporter.identify( named.get( flat.name( at ) ) ) )
+           .append( '\n' );
+        if ( depth == DisplayRenderer.ALL || level < depth ) {
+            for ( int k = flat.childStart( at ); k < flat.childEnd( at ); k++ ) {
+                plainRender( flat, flat.child( k ), level + 1, depth, named,
+                             out );
+            }
+        }
+    }
+
+    /**
+     * Configuration files big enough to be cut into several chunks are
+     * loaded with ConfigLoader and compared with building the same
+     * lines one at a time, as Overload used to. The same lines in
+     * reverse, so that every source is named before it is defined,
+     * have to give the same wiring. Then each kind of bad file has to
+     * be refused with its error code and the number of its first bad
+     * line, including lines far into the file and a loop of sources.
+     */
+    public static void configLoading() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        ArrayList< String > lines = new ArrayList<>();
+        lines.add( "PowerSource Grid" );
+        for ( int b = 0; b < 6000; b++ ) {
+            lines.add( "CircuitBreaker CB" + b + " Grid " + ( 20 + b % 40 ) );
+            lines.add( "Outlet Out" + b + " CB" + b );
+            for ( int a = 0; a < 15; a++ ) {
+                lines.add( "Appliance App" + b + "_" + a + " Out" + b + " " +
+                           ( 1 + ( a * 7 + b ) % 13 ) );
+            }
+            if ( b % 100 == 0 ) {
+                lines.add( "" );
+            }
+        }
+        ArrayList< Component > sequential = new ArrayList<>();
+        Map< String, Component > named = new HashMap<>();
+        for ( String line : lines ) {
+            String[] data = line.trim().split( "\\s+" );
+            if ( data[ 0 ].isEmpty() ) {
+                continue;
+            }
+            Component source = data.length > 2 ? named.get( data[ 2 ] ) : null;
+            Component comp;
+            if ( data[ 0 ].equals( "PowerSource" ) ) {
+                comp = new PowerSource( data[ 1 ] );
+            }
+            else if ( data[ 0 ].equals( "CircuitBreaker" ) ) {
+                comp = new CircuitBreaker( data[ 1 ], source,
+                                           Integer.parseInt( data[ 3 ] ) );
+            }
+            else if ( data[ 0 ].equals( "Outlet" ) ) {
+                comp = new Outlet( data[ 1 ], source );
+            }
+            else {
+                comp = new Appliance( data[ 1 ], source,
+                                      Integer.parseInt( data[ 3 ] ) );
+            }
+            named.put( data[ 1 ], comp );
+            sequential.add( comp );
+        }
+        String expected = wiringOf( sequential );
+        ArrayList< String > reversed = new ArrayList<>( lines );
+        Collections.reverse( reversed );
+        try {
+            List< Component > loaded =
+                    new ConfigLoader( configFile( lines ) ).load();
+            System.out.println( "in order: " + loaded.size() +
+                                " components (expect " + sequential.size() +
+                                "), same wiring as one at a time: " +
+                                wiringOf( loaded ).equals( expected ) +
+                                " (expect true), sources first: " +
+                                sourcesFirst( loaded ) + " (expect true)" );
+            loaded = new ConfigLoader( configFile( reversed ) ).load();
+            System.out.println( "reversed: " + loaded.size() +
+                                " components (expect " + sequential.size() +
+                                "), same wiring as one at a time: " +
+                                wiringOf( loaded ).equals( expected ) +
+                                " (expect true), sources first: " +
+                                sourcesFirst( loaded ) + " (expect true)" );
+        }
+        catch ( IOException | ConfigLoader.ConfigException e ) {
+            System.out.println( "refused: " + e.getMessage() + " (expect loaded)" );
+        }
+
+        loadError( "unknown type", List.of( "PowerSource P", "",
+                "Fridge F P 5" ), Overload.BAD_FILE_FORMAT, 3 );
+        loadError( "missing amount", List.of( "PowerSource P",
+                "CircuitBreaker B P" ), Overload.BAD_FILE_FORMAT, 2 );
+        loadError( "bad amount", List.of( "PowerSource P", "Outlet O P",
+                "Appliance A O 5x" ), Overload.BAD_FILE_FORMAT, 3 );
+        loadError( "unknown source", List.of( "PowerSource P", "Outlet O P",
+                "", "Appliance A Q 5" ), Overload.UNKNOWN_COMPONENT, 4 );
+        loadError( "repeated name", List.of( "PowerSource P", "Outlet O P",
+                "Outlet O P" ), Overload.REPEAT_NAME, 3 );
+        loadError( "name like an id", List.of( "PowerSource P",
+                "Outlet #1 P" ), Overload.BAD_NAME, 2 );
+        loadError( "loop of sources", List.of( "PowerSource P",
+                "Outlet A B", "Outlet B C", "Outlet C A", "Outlet D P" ),
+                Overload.BAD_FILE_FORMAT, 2 );
+        ArrayList< String > late = new ArrayList<>( lines );
+        late.set( 90_000, "Outlet Late" );
+        late.set( 95_000, "Appliance Later Nowhere 3" );
+        loadError( "bad line far in", late, Overload.BAD_FILE_FORMAT, 90_001 );
+        late.set( 90_000, lines.get( 90_000 ) );
+        loadError( "unknown source far in", late, Overload.UNKNOWN_COMPONENT,
+                   95_001 );
+        Reporter.enable( wasEnabled );
+    }
+
+    /**
+     * Load a configuration that ought to be refused, and print the
+     * error code and line it was refused with.
+     * @param what what is wrong with it
+     * @param lines the lines of the file
+     * @param code the error code it should be refused with
+     * @param line the line it should be refused at
+     */
+    private static void loadError( String what, List< String > lines,
+                                   int code, int line ) {
+        String got;
+        try {
+            got = "loaded " + new ConfigLoader( configFile( lines ) ).load()
+                    .size() + " components";
+        }
+        catch ( ConfigLoader.ConfigException ce ) {
+            got = "code " + ce.getCode() + " line " + ce.getLine();
+        }
+        catch ( IOException ioe ) {
+            got = ioe.toString();
+        }
+        System.out.println( what + ": " + got + " (expect code " + code +
+                            " line " + line + ")" );
+    }
+
+    /**
+     * @param lines the lines of a configuration file
+     * @return a temporary file holding them, removed when the tests end
+     */
+    private static Path configFile( List< String > lines ) {
+        try {
+            Path file = Files.createTempFile( "config", ".txt" );
+            file.toFile().deleteOnExit();
+            Files.write( file, lines );
+            return file;
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+    }
+
+    /**
+     * @param comps the components of a model
+     * @return what each component is and what it is connected to, in
+     *         name order, so that models built in different orders
+     *         can be compared
+     */
+    private static String wiringOf( List< Component > comps ) {
+        FlatTopology flat = FlatTopology.of( comps );
+        ArrayList< String > wires = new ArrayList<>();
+        for ( int i = 0; i < flat.size(); i++ ) {
+            int up = flat.parent( i );
+            String value = flat.kind( i ) == FlatTopology.BREAKER ?
+                    " " + flat.limit( i ) :
+                    flat.kind( i ) == FlatTopology.APPLIANCE ?
+                    " " + flat.rating( i ) : "";
+            wires.add( flat.name( i ) + " " + flat.kind( i ) + " " +
+                       ( up < 0 ? "-" : flat.name( up ) ) + value );
+        }
+        Collections.sort( wires );
+        return String.join( "\n", wires );
+    }
+
+    /**
+     * @param comps components in the order they were built
+     * @return true if every component's source was built before it
+     */
+    private static boolean sourcesFirst( List< Component > comps ) {
+        FlatTopology flat = FlatTopology.of( comps );
+        Map< String, Integer > built = new HashMap<>();
+        for ( Component comp : comps ) {
+            built.put( comp.getName(), built.size() );
+        }
+        for ( int i = 0; i < flat.size(); i++ ) {
+            int up = flat.parent( i );
+            if ( up >= 0 && built.get( flat.name( up ) ) >
+                            built.get( flat.name( i ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Toggles collected in a Transaction are followed by hand: nothing
+     * moves until the commit, each component then changes once by the
+     * net change below it, and a breaker is only checked against that
+     * net change. Then random toggles on a random model are committed
+     * at random points and the draws checked against the loads after
+     * every commit. Last, Overload runs a batch of commands with bad
+     * ones in the middle, which are reported and change nothing, and
+     * the model it saves at the end is compared with the same toggles
+     * made directly.
+     */
+    public static void transactions() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        PowerSource root = new PowerSource( "Root" );
+        CircuitBreaker main = new CircuitBreaker( "Main", root, 50 );
+        Outlet outlet = new Outlet( "Outlet", main );
+        Appliance a = new Appliance( "A", outlet, 20 );
+        Appliance b = new Appliance( "B", outlet, 20 );
+        Appliance c = new Appliance( "C", outlet, 20 );
+        main.turnOn();
+        root.engage();
+        Transaction transaction = new Transaction();
+        transaction.toggle( a );
+        transaction.toggle( b );
+        transaction.toggle( c );
+        transaction.toggle( a );
+        int before = root.getDraw();
+        boolean pending = transaction.isPending();
+        int changed = transaction.commit();
+        System.out.println( "A, B, C on, A off: Root " + before + " and " +
+                            pending + " before commit, then Root " +
+                            root.getDraw() + ", Main " + main.getDraw() + ", " +
+                            changed + " changed, Main on " + main.isSwitchOn() +
+                            " (expect Root 0 and true before commit, then " +
+                            "Root 40, Main 40, 3 changed, Main on true)" );
+        transaction.toggle( c );
+        transaction.toggle( c );
+        changed = transaction.commit();
+        System.out.println( "C off and on: Root " + root.getDraw() + ", " +
+                            changed + " changed (expect Root 40, 0 changed)" );
+        transaction.toggle( a );
+        transaction.commit();
+        System.out.println( "A on: Root " + root.getDraw() + ", Main on " +
+                            main.isSwitchOn() + " (expect Root 0, Main on " +
+                            "false)" );
+        transaction.toggle( a );
+        transaction.toggle( main );
+        System.out.println( "A off, Main reset: Root " + root.getDraw() +
+                            ", pending " + transaction.isPending() +
+                            " (expect Root 40, pending false)" );
+
+        ArrayList< Component > comps = new ArrayList<>();
+        randomModel( 2412, 20, 200, comps );
+        ArrayList< Component > switches = new ArrayList<>();
+        for ( Component comp : comps ) {
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+            }
+            if ( comp instanceof Switcher ) {
+                switches.add( comp );
+            }
+        }
+        SplittableRandom random = new SplittableRandom( 2412 );
+        int commits = 0;
+        int wrong = 0;
+        for ( int t = 0; t < 50_000; t++ ) {
+            transaction.toggle( switches.get( random.nextInt( switches.size() ) ) );
+            if ( random.nextInt( 500 ) == 0 ) {
+                transaction.commit();
+                commits++;
+                wrong += inconsistent( FlatTopology.of( comps ) );
+            }
+        }
+        transaction.commit();
+        wrong += inconsistent( FlatTopology.of( comps ) );
+        System.out.println( "50000 random toggles, " + commits + " commits: " +
+                            wrong + " wrong (expect 0)" );
+
+        List< String > config = List.of( "PowerSource Root",
+                "CircuitBreaker Main Root 50", "Outlet Kitchen Main",
+                "Appliance Kettle Kitchen 20", "Appliance Toaster Kitchen 15",
+                "Appliance Lamp Main 5" );
+        Path snapshot;
+        try {
+            snapshot = Files.createTempFile( "batch", ".snap" );
+            snapshot.toFile().deleteOnExit();
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+        List< String > commands = List.of( "toggle Main", "toggle Kettle",
+                "toggle Lamp", "toggle Nothing", "toggle Kitchen",
+                "move Main Lamp", "connect Outlet Kitchen Main",
+                "connect Appliance Fan Nowhere 3", "toggle Toaster",
+                "save " + snapshot );
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setOut( new PrintStream( printed, true ) );
+        System.setErr( new PrintStream( errors, true ) );
+        try {
+            Overload.main( new String[]{ "-batch",
+                    configFile( commands ).toString(),
+                    configFile( config ).toString() } );
+        }
+        finally {
+            System.setOut( out );
+            System.setErr( err );
+        }
+        String summary = "no summary";
+        for ( String line : printed.toString().split( "\n" ) ) {
+            if ( line.contains( " lines read, " ) ) {
+                summary = line.trim();
+            }
+        }
+        long refused = Arrays.stream( errors.toString().split( "\n" ) )
+                             .filter( line -> line.startsWith( "line " ) )
+                             .count();
+
+        Reporter.setAllEnabled( false );
+        ArrayList< Component > direct = new ArrayList<>();
+        PowerSource home = new PowerSource( "Root" );
+        CircuitBreaker breaker = new CircuitBreaker( "Main", home, 50 );
+        Outlet kitchen = new Outlet( "Kitchen", breaker );
+        Appliance kettle = new Appliance( "Kettle", kitchen, 20 );
+        Appliance toaster = new Appliance( "Toaster", kitchen, 15 );
+        Appliance lamp = new Appliance( "Lamp", breaker, 5 );
+        Collections.addAll( direct, home, breaker, kitchen, kettle, toaster,
+                            lamp );
+        home.engage();
+        breaker.turnOn();
+        kettle.turnOn();
+        lamp.turnOn();
+        toaster.turnOn();
+        boolean same;
+        try {
+            same = pictureOf( Snapshot.read( snapshot ) )
+                    .equals( pictureOf( direct ) );
+        }
+        catch ( IOException ioe ) {
+            same = false;
+        }
+        Reporter.enable( wasEnabled );
+        System.out.println( summary + " " + refused + " reported, saved " +
+                            "model as if only the good toggles ran: " + same +
+                            " (expect 10 lines read, 4 toggles, 5 errors. " +
+                            "5 reported, true)" );
+    }
+
+    /**
+     * A configuration with nested breakers, tight limits and a chain of
+     * outlets, written with every source after its loads, is loaded
+     * both as Components and straight into a FlatTopology. The two have
+     * to be numbered and wired the same, and stay the same, draw for
+     * draw and flag for flag, through power-up and thousands of random
+     * toggles that trip and reset breakers at every level.
+     */
+    public static void flatFromConfig() {
+        Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        SplittableRandom random = new SplittableRandom( 2412 );
+        ArrayList< String > lines = new ArrayList<>();
+        for ( int s = 0; s < 2; s++ ) {
+            lines.add( "PowerSource Grid" + s );
+            for ( int m = 0; m < 6; m++ ) {
+                String main = "Main" + s + "_" + m;
+                lines.add( "CircuitBreaker " + main + " Grid" + s + " " +
+                           ( 60 + random.nextInt( 60 ) ) );
+                for ( int b = 0; b < 4; b++ ) {
+                    String breaker = "CB" + s + "_" + m + "_" + b;
+                    String outlet = "Out" + s + "_" + m + "_" + b;
+                    lines.add( "CircuitBreaker " + breaker + " " + main + " " +
+                               ( 15 + random.nextInt( 25 ) ) );
+                    lines.add( "Outlet " + outlet + " " + breaker );
+                    for ( int a = 0; a < 5; a++ ) {
+                        lines.add( "Appliance App" + s + "_" + m + "_" + b + "_" +
+                                   a + " " + outlet + " " +
+                                   ( 1 + random.nextInt( 12 ) ) );
+                    }
+                }
+            }
+            String end = "Grid" + s;
+            for ( int d = 0; d < 50; d++ ) {
+                lines.add( "Outlet Chain" + s + "_" + d + " " + end );
+                end = "Chain" + s + "_" + d;
+            }
+            lines.add( "CircuitBreaker Deep" + s + " " + end + " 20" );
+            for ( int a = 0; a < 4; a++ ) {
+                lines.add( "Appliance Far" + s + "_" + a + " Deep" + s + " " +
+                           ( 4 + a ) );
+            }
+        }
+        Collections.reverse( lines );
+        Path file = configFile( lines );
+        List< Component > comps;
+        FlatTopology flat;
+        try {
+            comps = new ConfigLoader( file ).load();
+            flat = new ConfigLoader( file ).loadFlat();
+        }
+        catch ( IOException | ConfigLoader.ConfigException e ) {
+            System.out.println( "refused: " + e.getMessage() + " (expect loaded)" );
+            Reporter.enable( wasEnabled );
+            return;
+        }
+        boolean sameWiring = flatDifferences( FlatTopology.of( comps ), flat ) == 0;
+
+        ArrayList< Component > switches = new ArrayList<>();
+        int[] placeOf = new int[ comps.size() ];
+        Map< String, Integer > place = new HashMap<>();
+        for ( int i = 0; i < flat.size(); i++ ) {
+            place.put( flat.name( i ), i );
+        }
+        for ( Component comp : comps ) {
+            if ( comp instanceof Switcher ) {
+                placeOf[ switches.size() ] = place.get( comp.getName() );
+                switches.add( comp );
+            }
+        }
+        for ( Component comp : comps ) {
+            if ( comp instanceof PowerSource ) {
+                comp.engage();
+                flat.engage( place.get( comp.getName() ) );
+            }
+        }
+        int wrong = flatDifferences( FlatTopology.of( comps ), flat );
+        int steps = 5000;
+        for ( int step = 0; step < steps; step++ ) {
+            int k = random.nextInt( switches.size() );
+            Switcher switcher = (Switcher)switches.get( k );
+            if ( switcher.isSwitchOn() ) {
+                switcher.turnOff();
+            }
+            else {
+                switcher.turnOn();
+            }
+            flat.toggle( placeOf[ k ] );
+            wrong += flatDifferences( FlatTopology.of( comps ), flat );
+        }
+        Reporter.enable( wasEnabled );
+        System.out.println( flat.size() + " components, same numbering and " +
+                            "wiring: " + sameWiring + " (expect true), " +
+                            flat.trips() + " trips in " + steps +
+                            " toggles, " + wrong + " differences (expect 0)" );
+    }
+
+    /**
+     * @param expected one flat topology
+     * @param flat another
+     * @return how many components differ between the two in name,
+     *         source, kind, limit or rating, draw or flags
+     */
+    private static int flatDifferences( FlatTopology expected,
+                                        FlatTopology flat ) {
+        if ( expected.size() != flat.size() ) {
+            return Math.max( expected.size(), flat.size() );
+        }
+        int wrong = 0;
+        for ( int i = 0; i < flat.size(); i++ ) {
+            if ( !expected.name( i ).equals( flat.name( i ) ) ||
+                 expected.parent( i ) != flat.parent( i ) ||
+                 expected.kind( i ) != flat.kind( i ) ||
+                 expected.limit( i ) != flat.limit( i ) ||
+                 expected.rating( i ) != flat.rating( i ) ||
+                 expected.draw( i ) != flat.draw( i ) ||
+                 expected.isSwitchOn( i ) != flat.isSwitchOn( i ) ||
+                 expected.isEngaged( i ) != flat.isEngaged( i ) ||
+                 expected.isOverloaded( i ) != flat.isOverloaded( i ) ) {
+                wrong++;
+            }
+        }
+        return wrong;
+    }
 }
@@ -0,0 +1,168 @@
+package components;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads back a log written by BinaryEventLog. The file is mapped a region
+ * of records at a time, as it was written, so a log of any length can be
+ * read, and the records are handed to a Visitor one at a time, optionally
+ * only those with a given Msg and/or Component.
+ *
+ * @author Feng Jiang
+ */
+public class EventLogReader {
+
+    /**
+     * Receives the records of a log, in order.
+     */
+    public interface Visitor {
+        /**
+         * @param sequence the record's sequence number
+         * @param component id of the Component involved
+         * @param msg the event key
+         * @param delta the event's number (the load's id for ATTACHING
+         *              and DETACHING)
+         * @param draw the Component's draw right after the event
+         */
+        void record( long sequence, int component, Reporter.Msg msg,
+                     int delta, int draw );
+    }
+
+    private final Path file;
+    private final Map< Integer, String > namesById = new HashMap<>();
+    private final Map< String, Integer > idsByName = new HashMap<>();
+
+    /**
+     * Open a log and read its names file.
+     * @param file the log file
+     * @throws IOException if either file cannot be read
+     */
+    public EventLogReader( Path file ) throws IOException {
+        this.file = file;
+        try ( BufferedReader in = Files.newBufferedReader(
+                BinaryEventLog.namesFile( file ), StandardCharsets.UTF_8 ) ) {
+            String line;
+            while ( ( line = in.readLine() ) != null ) {
+                final int space = line.indexOf( ' ' );
+                if ( space > 0 ) {
+                    final int id = Integer.parseInt( line.substring( 0, space ) );
+                    final String name = line.substring( space + 1 );
+                    namesById.put( id, name );
+                    idsByName.put( name, id );
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id a Component id from this log
+     * @return the Component's name, or "#id" if it is not known
+     */
+    public String nameOf( int id ) {
+        final String name = namesById.get( id );
+        return name == null ? "#" + id : name;
+    }
+
+    /**
+     * @param name a Component name
+     * @return its id in this log, or -1 if it never appears
+     */
+    public int idOf( String name ) {
+        final Integer id = idsByName.get( name );
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Visit every record in the log.
+     * @param visitor gets the records
+     * @return how many records were visited
+     * @throws IOException if the log cannot be read or is not a log
+     */
+    public long replay( Visitor visitor ) throws IOException {
+        return replay( null, -1, visitor );
+    }
+
+    /**
+     * Visit the records in the log that match a filter.
+     * @param msg only records with this key, or null for all keys
+     * @param component only records for this Component id, or -1 for all
+     * @param visitor gets the records
+     * @return how many records were visited
+     * @throws IOException if the log cannot be read, is not a log or has
+     *                     a record with an unknown key
+     */
+    public long replay( Reporter.Msg msg, int component, Visitor visitor )
+            throws IOException {
+        final Reporter.Msg[] msgs = Reporter.Msg.values();
+        long visited = 0;
+        try ( FileChannel channel =
+                      FileChannel.open( file, StandardOpenOption.READ ) ) {
+            final ByteBuffer header = ByteBuffer.allocate(
+                    BinaryEventLog.HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            while ( header.hasRemaining()
+                    && channel.read( header, header.position() ) >= 0 ) {
+                // read until the header is full or the file ends
+            }
+            if ( header.hasRemaining()
+                 || header.getInt( 0 ) != BinaryEventLog.MAGIC
+                 || header.getInt( 4 ) != BinaryEventLog.VERSION ) {
+                throw new IOException( file + " is not an event log" );
+            }
+            final int recordSize = header.getInt( 8 );
+            if ( recordSize < BinaryEventLog.RECORD_SIZE ) {
+                throw new IOException( file + " is damaged: records of " +
+                                       recordSize + " bytes" );
+            }
+            // without a count, read until a record that was never written
+            long records = header.getLong( BinaryEventLog.COUNT_OFFSET );
+            if ( records == 0 ) {       // 0 if the log was not closed
+                records = Long.MAX_VALUE;
+            }
+            final long regionSize =
+                    (long) recordSize * BinaryEventLog.REGION_RECORDS;
+            final long end = channel.size();
+            long start = BinaryEventLog.HEADER_SIZE;
+            while ( records > 0 && end - start >= recordSize ) {
+                final MappedByteBuffer map = channel.map(
+                        FileChannel.MapMode.READ_ONLY, start,
+                        Math.min( regionSize, end - start ) );
+                map.order( ByteOrder.LITTLE_ENDIAN );
+                start += map.capacity();
+                while ( records > 0 && map.remaining() >= recordSize ) {
+                    final int at = map.position();
+                    final long sequence = map.getLong( at );
+                    if ( sequence == 0 ) {
+                        return visited; // never written; the log was not closed
+                    }
+                    records--;
+                    final int id = map.getInt( at + 8 );
+                    final int ordinal = map.getInt( at + 12 );
+                    map.position( at + recordSize );
+                    if ( ordinal < 0 || ordinal >= msgs.length ) {
+                        throw new IOException( file + " is damaged: record " +
+                                               sequence + " has key " + ordinal );
+                    }
+                    if ( ( component >= 0 && id != component )
+                         || ( msg != null && ordinal != msg.ordinal() ) ) {
+                        continue;
+                    }
+                    visitor.record( sequence, id, msgs[ ordinal ],
+                                    map.getInt( at + 16 ), map.getInt( at + 20 ) );
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,666 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A component graph kept in flat primitive columns instead of one object per
+ * component, for models far too big to build out of Components. Component i
+ * has its parent, kind, limit or rating and draw at index i of the columns;
+ * its switch, engaged and overloaded flags are bits of a byte; its loads are
+ * stored in compressed sparse row form, children[ childStart[ i ] ] up to
+ * children[ childStart[ i + 1 ] ].
+ * <br><br>
+ * The draws and flags are kept in pages of PAGE components. fork makes a
+ * copy that shares every page with this topology, and whichever of the two
+ * first changes a component copies its page then, so a fork costs one
+ * reference per page and a branch of what-ifs costs only the pages it
+ * touches. Any number of threads can fork one topology at once, as long as
+ * none of them is changing it; each fork belongs to the thread using it.
+ * <br><br>
+ * Every component comes after its source (parent[ i ] &lt; i), so walking the
+ * indexes backwards visits loads before their sources. The topology follows
+ * the same rules as the Component classes: engaging a subtree adds up its draw
+ * first and passes it up once, breakers trip when their draw goes over their
+ * limit and give back what they passed up. Nothing is reported; this is the
+ * bulk engine, use the Component classes for the narrated simulation.
+ * None of the traversals recurse, so any depth of topology is fine.
+ *
+ * @author Feng Jiang
+ */
+public class FlatTopology {
+
+    /**
+     * the kinds of component
+     */
+    public static final byte SOURCE = 0;
+    public static final byte BREAKER = 1;
+    public static final byte OUTLET = 2;
+    public static final byte APPLIANCE = 3;
+
+    /**
+     * structure, fixed once built
+     */
+    private final int size;
+    private final int[] parent;
+    private final byte[] kind;
+    private final int[] value;          // limit of a breaker, rating of an appliance
+    private final int[] childStart;
+    private final int[] children;
+    private final String[] names;
+
+    /**
+     * state, in pages; a page that is not owned may be shared with forks and is copied before it is written
+     */
+    static final int PAGE_BITS = 10;
+    static final int PAGE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE - 1;
+
+    private static final byte POWER = 1;
+    private static final byte ENGAGED = 2;
+    private static final byte OVERLOADED = 4;
+
+    private final long[][] draw;
+    private final byte[][] flags;
+    private final boolean[] ownDraw;
+    private final boolean[] ownFlags;
+    private long trips;
+
+    /**
+     * scratch space for the traversals, twice the size covers any topology
+     */
+    private int[] stack;
+
+    /**
+     * make a topology out of filled-in columns
+     * @param size  int     how many components there are
+     * @param parent    int[]   the parent of each component, -1 for a power source
+     * @param kind  byte[]  the kind of each component
+     * @param value     int[]   the limit or rating of each component
+     * @param names     String[]    the name of each component, entries may be null
+     */
+    private FlatTopology(int size, int[] parent, byte[] kind, int[] value, String[] names) {
+        this.size = size;
+        this.parent = parent;
+        this.kind = kind;
+        this.value = value;
+        this.names = names;
+        this.childStart = new int[size + 1];
+        this.children = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (parent[i] >= 0) {
+                childStart[parent[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        int[] fill = Arrays.copyOf(childStart, size);
+        for (int i = 0; i < size; i++) {
+            if (parent[i] >= 0) {
+                children[fill[parent[i]]++] = i;
+            }
+        }
+        int pages = (size + PAGE_MASK) >>> PAGE_BITS;
+        this.draw = new long[pages][];
+        this.flags = new byte[pages][];
+        for (int p = 0; p < pages; p++) {
+            int length = Math.min(PAGE, size - (p << PAGE_BITS));
+            draw[p] = new long[length];
+            flags[p] = new byte[length];
+        }
+        this.ownDraw = new boolean[pages];
+        this.ownFlags = new boolean[pages];
+        Arrays.fill(ownDraw, true);
+        Arrays.fill(ownFlags, true);
+    }
+
+    /**
+     * make a fork of a topology, sharing its structure and every page of its state
+     * @param from  FlatTopology    the topology being forked
+     */
+    private FlatTopology(FlatTopology from) {
+        this.size = from.size;
+        this.parent = from.parent;
+        this.kind = from.kind;
+        this.value = from.value;
+        this.names = from.names;
+        this.childStart = from.childStart;
+        this.children = from.children;
+        this.draw = from.draw.clone();
+        this.flags = from.flags.clone();
+        this.ownDraw = new boolean[draw.length];
+        this.ownFlags = new boolean[flags.length];
+        this.trips = from.trips;
+    }
+
+    /**
+     * Make a copy of this topology, structure and state, that can be changed without changing this one or the other
+     * way round. Nothing is copied until one of them changes a component, and then only its page. Safe to call from
+     * many threads at once while nothing is changing this topology.
+     * @return  FlatTopology    the fork
+     */
+    public FlatTopology fork() {
+        FlatTopology fork = new FlatTopology(this);
+        Arrays.fill(ownDraw, false);        // the pages are shared now, this side copies them before writing too
+        Arrays.fill(ownFlags, false);
+        return fork;
+    }
+
+    /**
+     * @return  int     how many pages of state this topology has copied, or made, for itself; draws and flags are
+     *                  paged separately
+     */
+    public int ownedPages() {
+        int owned = 0;
+        for (int p = 0; p < ownDraw.length; p++) {
+            if (ownDraw[p]) {
+                owned++;
+            }
+            if (ownFlags[p]) {
+                owned++;
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  long    its draw
+     */
+    private long drawOf(int i) {
+        return draw[i >>> PAGE_BITS][i & PAGE_MASK];
+    }
+
+    /**
+     * set the draw of a component, copying its page first if it is shared; nothing is copied if the draw is the same
+     * @param i     int     a component
+     * @param d     long    its draw
+     */
+    private void setDraw(int i, long d) {
+        int p = i >>> PAGE_BITS;
+        if (draw[p][i & PAGE_MASK] == d) {
+            return;
+        }
+        if (!ownDraw[p]) {
+            draw[p] = draw[p].clone();
+            ownDraw[p] = true;
+        }
+        draw[p][i & PAGE_MASK] = d;
+    }
+
+    /**
+     * @param i     int     a component
+     * @param delta     long    what to add to its draw
+     */
+    private void addDraw(int i, long delta) {
+        if (delta != 0) {
+            setDraw(i, drawOf(i) + delta);
+        }
+    }
+
+    /**
+     * @param i     int     a component
+     * @param flag  byte    POWER, ENGAGED or OVERLOADED
+     * @return  boolean     true if the component has the flag
+     */
+    private boolean hasFlag(int i, byte flag) {
+        return (flags[i >>> PAGE_BITS][i & PAGE_MASK] & flag) != 0;
+    }
+
+    /**
+     * give a component a flag or take it away, copying its page first if it is shared and the flag changes
+     * @param i     int     a component
+     * @param flag  byte    POWER, ENGAGED or OVERLOADED
+     * @param on    boolean     true to set the flag
+     */
+    private void setFlag(int i, byte flag, boolean on) {
+        if (hasFlag(i, flag) == on) {
+            return;
+        }
+        int p = i >>> PAGE_BITS;
+        if (!ownFlags[p]) {
+            flags[p] = flags[p].clone();
+            ownFlags[p] = true;
+        }
+        flags[p][i & PAGE_MASK] ^= flag;
+    }
+
+    /**
+     * Collects components one at a time; each one's source has to be added before it.
+     */
+    public static class Builder {
+        private int size;
+        private int[] parent = new int[16];
+        private byte[] kind = new byte[16];
+        private int[] value = new int[16];
+        private String[] names = new String[16];
+
+        /**
+         * add a component
+         * @param name  String  the name, may be null for anonymous bulk models
+         * @param source    int     index of the source, -1 for a power source
+         * @param type  byte    the kind of component
+         * @param amount    int     the limit or rating
+         * @return  int     the index of the new component
+         */
+        private int add(String name, int source, byte type, int amount) {
+            if (source < -1 || source >= size || (source == -1) != (type == SOURCE)
+                    || (source >= 0 && kind[source] == APPLIANCE)) {
+                throw new IllegalArgumentException("bad source " + source + " for " + name);
+            }
+            if (size == parent.length) {
+                int capacity = size * 2;
+                parent = Arrays.copyOf(parent, capacity);
+                kind = Arrays.copyOf(kind, capacity);
+                value = Arrays.copyOf(value, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            parent[size] = source;
+            kind[size] = type;
+            value[size] = amount;
+            names[size] = name;
+            return size++;
+        }
+
+        /**
+         * @param name  String  the name of the power source
+         * @return  int     its index
+         */
+        public int addSource(String name) {
+            return add(name, -1, SOURCE, 0);
+        }
+
+        /**
+         * @param name  String  the name of the circuit breaker
+         * @param source    int     index of its source
+         * @param limit     int     the most it can draw before it blows
+         * @return  int     its index
+         */
+        public int addBreaker(String name, int source, int limit) {
+            return add(name, source, BREAKER, limit);
+        }
+
+        /**
+         * @param name  String  the name of the outlet
+         * @param source    int     index of its source
+         * @return  int     its index
+         */
+        public int addOutlet(String name, int source) {
+            return add(name, source, OUTLET, 0);
+        }
+
+        /**
+         * @param name  String  the name of the appliance
+         * @param source    int     index of its source
+         * @param rating    int     what it draws when switched on
+         * @return  int     its index
+         */
+        public int addAppliance(String name, int source, int rating) {
+            return add(name, source, APPLIANCE, rating);
+        }
+
+        /**
+         * @return  FlatTopology    the topology, all switched off and disengaged
+         */
+        public FlatTopology build() {
+            return new FlatTopology(size, Arrays.copyOf(parent, size), Arrays.copyOf(kind, size),
+                    Arrays.copyOf(value, size), Arrays.copyOf(names, size));
+        }
+    }
+
+    /**
+     * copy a graph of Components, structure and state, into a flat topology. Components are numbered in depth first
+     * order starting from each power source.
+     * @param components    Collection  the components, every power source among them is copied with everything below it
+     * @return  FlatTopology    the copy
+     */
+    public static FlatTopology of(Collection<? extends Component> components) {
+        Builder builder = new Builder();
+        ArrayList<Component> order = new ArrayList<>();
+        Map<Component, Integer> index = new IdentityHashMap<>();
+        ArrayList<Component> pending = new ArrayList<>();
+        for (Component root : components) {
+            if (root.getSource() != null) {
+                continue;
+            }
+            pending.add(root);
+            while (!pending.isEmpty()) {
+                Component comp = pending.remove(pending.size() - 1);
+                Component source = comp.getSource();
+                int up = source == null ? -1 : index.get(source);
+                int i;
+                if (comp instanceof PowerSource || source == null) {
+                    i = builder.addSource(comp.getName());
+                } else if (comp instanceof CircuitBreaker) {
+                    i = builder.addBreaker(comp.getName(), up, ((CircuitBreaker) comp).getLimit());
+                } else if (comp instanceof Appliance) {
+                    i = builder.addAppliance(comp.getName(), up, ((Appliance) comp).getRating());
+                } else {
+                    i = builder.addOutlet(comp.getName(), up);
+                }
+                index.put(comp, i);
+                order.add(comp);
+                ArrayList<Component> loads = comp.getLoads();
+                for (int k = loads.size() - 1; k >= 0; k--) {
+                    pending.add(loads.get(k));
+                }
+            }
+        }
+        FlatTopology flat = builder.build();
+        for (int i = 0; i < order.size(); i++) {
+            Component comp = order.get(i);
+            flat.setDraw(i, comp.getDraw());
+            flat.setFlag(i, ENGAGED, comp.engaged());
+            flat.setFlag(i, OVERLOADED, comp.getOverloaded());
+            flat.setFlag(i, POWER, comp instanceof Switcher && ((Switcher) comp).isSwitchOn());
+        }
+        return flat;
+    }
+
+    /**
+     * @return  int     how many components there are
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  int     its source, -1 for a power source
+     */
+    public int parent(int i) {
+        return parent[i];
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  byte    SOURCE, BREAKER, OUTLET or APPLIANCE
+     */
+    public byte kind(int i) {
+        return kind[i];
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  String  its name, null if it was built without one
+     */
+    public String name(int i) {
+        return names[i];
+    }
+
+    /**
+     * @param i     int     a circuit breaker
+     * @return  int     its limit
+     */
+    public int limit(int i) {
+        return kind[i] == BREAKER ? value[i] : 0;
+    }
+
+    /**
+     * @param i     int     an appliance
+     * @return  int     its rating
+     */
+    public int rating(int i) {
+        return kind[i] == APPLIANCE ? value[i] : 0;
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  long    the current drawn through it
+     */
+    public long draw(int i) {
+        return drawOf(i);
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  boolean     true if it is a switch that is on
+     */
+    public boolean isSwitchOn(int i) {
+        return hasFlag(i, POWER);
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  boolean     true if its source is powering it
+     */
+    public boolean isEngaged(int i) {
+        return hasFlag(i, ENGAGED);
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  boolean     true if it is a breaker that has blown
+     */
+    public boolean isOverloaded(int i) {
+        return hasFlag(i, OVERLOADED);
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  int     where its loads start in the child list
+     */
+    public int childStart(int i) {
+        return childStart[i];
+    }
+
+    /**
+     * @param i     int     a component
+     * @return  int     where its loads end (exclusive) in the child list
+     */
+    public int childEnd(int i) {
+        return childStart[i + 1];
+    }
+
+    /**
+     * @param k     int     a position in the child list
+     * @return  int     the component at that position
+     */
+    public int child(int k) {
+        return children[k];
+    }
+
+    /**
+     * @return  long    how many times breakers have blown
+     */
+    public long trips() {
+        return trips;
+    }
+
+    /**
+     * checks if current passes through a component to its loads
+     * @param i     int     a component that is not an appliance
+     * @return  boolean     true if it is engaged and not a breaker that is off or blown
+     */
+    private boolean isLive(int i) {
+        return hasFlag(i, ENGAGED) && (kind[i] != BREAKER || (hasFlag(i, POWER) && !hasFlag(i, OVERLOADED)));
+    }
+
+    /**
+     * @return  int[]   the traversal stack
+     */
+    private int[] stack() {
+        if (stack == null) {
+            stack = new int[2 * size + 1];
+        }
+        return stack;
+    }
+
+    /**
+     * Engage a component and everything it powers. The draw of each component below is set from its own loads
+     * on the way back up; a breaker whose loads add up to more than its limit blows and contributes nothing.
+     * @param top   int     the component to engage
+     * @return  long    the current the component now draws from its source
+     */
+    private long energize(int top) {
+        int[] stack = stack();
+        int sp = 0;
+        long result = 0;
+        stack[sp++] = top;
+        while (sp > 0) {
+            int e = stack[--sp];
+            if (e >= 0) {
+                setFlag(e, ENGAGED, true);
+                if (kind[e] == APPLIANCE) {
+                    long d = hasFlag(e, POWER) ? value[e] : 0;
+                    if (e == top) {
+                        result = d;
+                    } else {
+                        addDraw(parent[e], d);
+                    }
+                } else if (kind[e] != BREAKER || (hasFlag(e, POWER) && !hasFlag(e, OVERLOADED))) {
+                    stack[sp++] = ~e;
+                    for (int k = childStart[e + 1] - 1; k >= childStart[e]; k--) {
+                        stack[sp++] = children[k];
+                    }
+                }
+            } else {
+                int i = ~e;
+                long d = drawOf(i);
+                if (kind[i] == BREAKER && d > value[i]) {
+                    blow(i, sp);
+                    d = 0;
+                }
+                if (i == top) {
+                    result = d;
+                } else {
+                    addDraw(parent[i], d);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Disengage everything below a component and zero its draws.
+     * @param top   int     the component whose loads lose power
+     * @param base  int     the first free slot of the traversal stack
+     * @return  long    the draw the component had
+     */
+    private long clearBelow(int top, int base) {
+        int[] stack = stack();
+        int sp = base;
+        long had = drawOf(top);
+        setDraw(top, 0);
+        for (int k = childStart[top]; k < childStart[top + 1]; k++) {
+            stack[sp++] = children[k];
+        }
+        while (sp > base) {
+            int i = stack[--sp];
+            boolean live = kind[i] != APPLIANCE && isLive(i);
+            setFlag(i, ENGAGED, false);
+            setDraw(i, 0);
+            if (live) {
+                for (int k = childStart[i]; k < childStart[i + 1]; k++) {
+                    stack[sp++] = children[k];
+                }
+            }
+        }
+        return had;
+    }
+
+    /**
+     * blow a breaker: it goes off and everything below it loses power
+     * @param i     int     the breaker
+     * @param base  int     the first free slot of the traversal stack
+     */
+    private void blow(int i, int base) {
+        setFlag(i, OVERLOADED, true);
+        setFlag(i, POWER, false);
+        clearBelow(i, base);
+        trips++;
+    }
+
+    /**
+     * Pass a change in draw up from a component to the power source. A breaker that goes over its limit blows, and
+     * the current it had been passing up is taken back from the components above it instead.
+     * @param from  int     the component whose source's draw changes
+     * @param delta     long    the amount being changed
+     */
+    private void changeDraw(int from, long delta) {
+        int i = from;
+        while (i >= 0 && delta != 0) {
+            long before = drawOf(i);
+            setDraw(i, before + delta);
+            if (kind[i] == BREAKER && before + delta > value[i] && !hasFlag(i, OVERLOADED)) {
+                blow(i, 0);
+                delta = -before;
+            }
+            i = parent[i];
+        }
+    }
+
+    /**
+     * power up a component, normally a power source, and everything it feeds
+     * @param i     int     the component
+     */
+    public void engage(int i) {
+        if (hasFlag(i, ENGAGED)) {
+            return;
+        }
+        long delta = energize(i);
+        if (parent[i] >= 0) {
+            changeDraw(parent[i], delta);
+        }
+    }
+
+    /**
+     * turn a switch on; does nothing if it is already on or is not a switch
+     * @param i     int     an appliance or circuit breaker
+     */
+    public void turnOn(int i) {
+        if (kind[i] == APPLIANCE) {
+            if (!hasFlag(i, POWER)) {
+                setFlag(i, POWER, true);
+                if (hasFlag(i, ENGAGED)) {
+                    changeDraw(parent[i], value[i]);
+                }
+            }
+        } else if (kind[i] == BREAKER) {
+            boolean wasLive = isLive(i);
+            setFlag(i, POWER, true);
+            setFlag(i, OVERLOADED, false);
+            if (hasFlag(i, ENGAGED) && !wasLive) {
+                changeDraw(parent[i], energize(i));
+            }
+        }
+    }
+
+    /**
+     * turn a switch off; does nothing if it is already off or is not a switch
+     * @param i     int     an appliance or circuit breaker
+     */
+    public void turnOff(int i) {
+        if (!hasFlag(i, POWER)) {
+            return;
+        }
+        if (kind[i] == APPLIANCE) {
+            setFlag(i, POWER, false);
+            if (hasFlag(i, ENGAGED)) {
+                changeDraw(parent[i], -value[i]);
+            }
+        } else if (kind[i] == BREAKER) {
+            boolean wasLive = isLive(i);
+            setFlag(i, POWER, false);
+            if (wasLive) {
+                changeDraw(parent[i], -clearBelow(i, 0));
+            }
+        }
+    }
+
+    /**
+     * flip a switch
+     * @param i     int     an appliance or circuit breaker
+     */
+    public void toggle(int i) {
+        if (hasFlag(i, POWER)) {
+            turnOff(i);
+        } else {
+            turnOn(i);
+        }
+    }
+}
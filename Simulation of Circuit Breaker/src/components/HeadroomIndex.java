@@ -0,0 +1,436 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Answers "where can I plug this in?": which outlets an appliance of a given rating can be switched on at without
+ * blowing any circuit breaker between the outlet and its power source, the outlets with the most headroom first. The
+ * headroom of an outlet is the least of limit minus draw over the breakers above it; an outlet with no breaker above it
+ * has unlimited headroom, and an outlet without power, below a breaker that is off or blown included, has none, since
+ * nothing plugged into it would draw anything.
+ * <br><br>
+ * Only the breakers and outlets are numbered, depth first, so every breaker covers a range of numbers, and a segment
+ * tree is kept over the numbers. A breaker's headroom is kept at the few tree nodes that exactly cover its range, and
+ * each node also keeps the most headroom of any outlet below it, counting the breakers kept at and below the node, so
+ * the outlet with the most headroom is found from the root down in logarithmic time and every further one in
+ * logarithmic time more. The headroom of one outlet is the least of what the nodes above its leaf keep.
+ * <br><br>
+ * The index listens to Reporter like a SubtreeIndex. Breakers whose draw or switch changes and outlets that gain or
+ * lose power are marked, and before the next question each marked breaker updates its nodes and the nodes above them.
+ * A breaker or outlet connected after the index was built, or anything moved or detached below it, makes it number
+ * everything again before the next question; appliances can be connected freely. Rebuild after a StateJournal
+ * rollback. The index is not meant to be used while components are being switched on several threads.
+ *
+ * @author Feng Jiang
+ */
+public class HeadroomIndex {
+
+    /**
+     * an outlet and its headroom
+     */
+    public static final class Place {
+        private final Outlet outlet;
+        private final long headroom;
+
+        Place(Outlet outlet, long headroom) {
+            this.outlet = outlet;
+            this.headroom = headroom;
+        }
+
+        /**
+         * @return  Outlet  the outlet
+         */
+        public Outlet outlet() {
+            return outlet;
+        }
+
+        /**
+         * @return  long    the most current that can be added at the outlet without blowing a breaker,
+         *                  Long.MAX_VALUE if there is no breaker above it
+         */
+        public long headroom() {
+            return headroom;
+        }
+    }
+
+    /**
+     * what a node keeps when no breaker is kept at it, and what a leaf keeps when it is not an outlet with power
+     */
+    private static final long UNLIMITED = Long.MAX_VALUE;
+    private static final long NO_OUTLET = Long.MIN_VALUE;
+
+    private final ArrayList<Component> roots = new ArrayList<>();
+    private final Subscription subscription;
+
+    /**
+     * the numbering: by number, the breaker or outlet; by id, the number; by breaker number, its range
+     */
+    private Component[] order;
+    private int[] placeOfId;
+    private int firstId;        // the id placeOfId and breakerOfId start at
+    private CircuitBreaker[] breakers;
+    private int[] breakerOfId;
+    private int[] from;
+    private int[] to;
+    private int leaves;             // the number of leaves of the segment tree, a power of two
+
+    /**
+     * by tree node: the least headroom of the breakers kept at it, the breakers themselves, all in one array with
+     * where each node's start, and the most headroom of an outlet below it
+     */
+    private long[] kept;
+    private int[] keptStart;
+    private int[] keptBreakers;
+    private long[] best;
+
+    /**
+     * breakers and outlets that have changed since the last question, and whether the numbering is out of date
+     */
+    private boolean[] marked;
+    private int[] changed;
+    private int changes;
+    private boolean rewired;
+    private int rebuilds;
+
+    /**
+     * Index the breakers and outlets below every component in the collection that has no source, and start
+     * listening.
+     * @param components    Collection  the components; those with a source are indexed with their roots
+     */
+    public HeadroomIndex(Collection<? extends Component> components) {
+        for (Component comp : components) {
+            if (comp.getSource() == null) {
+                roots.add(comp);
+            }
+        }
+        build();
+        subscription = Reporter.subscribe(new ReportListener() {
+            @Override
+            public void onDrawChange(Component comp, int delta) {
+                mark(comp);
+            }
+
+            @Override
+            public void onSwitch(Component comp, boolean isOn) {
+                mark(comp);
+            }
+
+            @Override
+            public void onTrip(CircuitBreaker breaker, int draw) {
+                mark(breaker);
+            }
+
+            @Override
+            public void onEngage(Component comp) {
+                mark(comp);
+            }
+
+            @Override
+            public void onDisengage(Component comp) {
+                mark(comp);
+            }
+
+            @Override
+            public void onAttach(Component source, Component load) {
+                if ((load instanceof CircuitBreaker || load instanceof Outlet || !load.getLoads().isEmpty())
+                        && indexed(source)) {
+                    rewired = true;
+                }
+            }
+
+            @Override
+            public void onDetach(Component source, Component load) {
+                if (indexed(source)) {
+                    rewired = true;
+                }
+            }
+        }, Reporter.Msg.DRAW_CHANGE, Reporter.Msg.SWITCHING_ON, Reporter.Msg.SWITCHING_OFF, Reporter.Msg.BLOWN,
+                Reporter.Msg.ENGAGING, Reporter.Msg.DISENGAGING, Reporter.Msg.ATTACHING, Reporter.Msg.DETACHING);
+    }
+
+    /**
+     * stop listening; the index must not be asked anything after this
+     */
+    public void close() {
+        subscription.cancel();
+    }
+
+    /**
+     * number every breaker and outlet again and fill the tree from scratch
+     */
+    public void rebuild() {
+        build();
+        rebuilds++;
+    }
+
+    /**
+     * @return  int     how many times the numbering has been built again
+     */
+    public int rebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * @param outlet    Outlet  an outlet
+     * @return  long    the most current that can be added at it without blowing a breaker, Long.MAX_VALUE if there
+     *                  is no breaker above it, Long.MIN_VALUE if it has no power
+     * @throws IllegalArgumentException     if it is not in the index
+     */
+    public long headroom(Outlet outlet) {
+        prepare();
+        int at = placeOf(outlet);
+        if (at < 0) {
+            throw new IllegalArgumentException(outlet.getName() + " is not indexed");
+        }
+        int k = leaves + at;
+        long least = best[k];
+        for (k >>= 1; k > 0; k >>= 1) {
+            least = Math.min(least, kept[k]);
+        }
+        return least;
+    }
+
+    /**
+     * @param rating    int     the rating of an appliance
+     * @param most  int     the most outlets wanted
+     * @return  List    up to that many outlets with power where the appliance can be switched on without blowing a
+     *                  breaker, the most headroom first
+     */
+    public List<Place> placesFor(int rating, int most) {
+        prepare();
+        ArrayList<Place> places = new ArrayList<>();
+        // each entry is {headroom of the best outlet below the node, node, least headroom kept above the node}
+        PriorityQueue<long[]> frontier = new PriorityQueue<>((x, y) -> Long.compare(y[0], x[0]));
+        frontier.add(new long[] {best[1], 1, UNLIMITED});
+        while (places.size() < most && !frontier.isEmpty()) {
+            long[] entry = frontier.poll();
+            if (entry[0] < rating) {
+                break;
+            }
+            int node = (int) entry[1];
+            if (node >= leaves) {
+                places.add(new Place((Outlet) order[node - leaves], entry[0]));
+                continue;
+            }
+            long above = Math.min(entry[2], kept[node]);
+            for (int child = 2 * node; child <= 2 * node + 1; child++) {
+                long room = Math.min(above, best[child]);
+                if (room >= rating) {
+                    frontier.add(new long[] {room, child, above});
+                }
+            }
+        }
+        return places;
+    }
+
+    /**
+     * bring the tree up to date with the marked breakers and outlets, numbering everything again first if a breaker
+     * or outlet has been connected or something has been moved
+     */
+    private void prepare() {
+        if (rewired) {
+            rebuild();
+            return;
+        }
+        for (int c = 0; c < changes; c++) {
+            int at = changed[c];
+            marked[at] = false;
+            Component comp = order[at];
+            if (comp instanceof CircuitBreaker) {
+                int b = breakerOfId[comp.getId() - firstId];
+                for (int l = from[b] + leaves, r = to[b] + leaves; l < r; l >>= 1, r >>= 1) {
+                    if ((l & 1) == 1) {
+                        refresh(l++);
+                    }
+                    if ((r & 1) == 1) {
+                        refresh(--r);
+                    }
+                }
+            } else {
+                refresh(leaves + at);
+            }
+        }
+        changes = 0;
+    }
+
+    /**
+     * work out again what a node keeps, then the best outlet of the nodes above it
+     * @param node  int     the node
+     */
+    private void refresh(int node) {
+        long least = UNLIMITED;
+        for (int k = keptStart[node]; k < keptStart[node + 1]; k++) {
+            least = Math.min(least, headroomOf(breakers[keptBreakers[k]]));
+        }
+        kept[node] = least;
+        if (node >= leaves) {
+            Component comp = order[node - leaves];
+            best[node] = comp instanceof Outlet && comp.engaged() ? least : NO_OUTLET;
+        } else {
+            best[node] = Math.min(least, Math.max(best[2 * node], best[2 * node + 1]));
+        }
+        for (node >>= 1; node > 0; node >>= 1) {
+            best[node] = Math.min(kept[node], Math.max(best[2 * node], best[2 * node + 1]));
+        }
+    }
+
+    /**
+     * @param breaker   CircuitBreaker  a breaker
+     * @return  long    how much more it can carry, Long.MIN_VALUE if it is off, blown or without power, so that
+     *                  nothing below it counts as having power even if it was engaged when connected
+     */
+    private static long headroomOf(CircuitBreaker breaker) {
+        if (!breaker.engaged() || !breaker.isSwitchOn() || breaker.getOverloaded()) {
+            return NO_OUTLET;
+        }
+        return (long) breaker.getLimit() - breaker.getDraw();
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  int     its number, -1 if it is not a numbered breaker or outlet
+     */
+    private int placeOf(Component comp) {
+        int at = comp.getId() - firstId;
+        return at >= 0 && at < placeOfId.length ? placeOfId[at] : -1;
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  boolean     true if it is below one of the roots
+     */
+    private boolean indexed(Component comp) {
+        while (comp.getSource() != null) {
+            comp = comp.getSource();
+        }
+        return roots.contains(comp);
+    }
+
+    /**
+     * note that a breaker or outlet has changed, if it is numbered
+     * @param comp  Component   the component
+     */
+    private void mark(Component comp) {
+        int at = placeOf(comp);
+        if (at >= 0 && !marked[at]) {
+            marked[at] = true;
+            changed[changes++] = at;
+        }
+    }
+
+    /**
+     * number the breakers and outlets depth first, find the nodes that cover each breaker's range and fill the tree
+     */
+    private void build() {
+        ArrayList<Component> numbered = new ArrayList<>();
+        ArrayList<CircuitBreaker> found = new ArrayList<>();
+        ArrayList<Integer> starts = new ArrayList<>();
+        ArrayList<Integer> ends = new ArrayList<>();
+        ArrayList<Component> work = new ArrayList<>();     // null marks the end of a breaker's loads
+        ArrayList<Integer> open = new ArrayList<>();       // breakers whose loads are being walked
+        int minId = Integer.MAX_VALUE;
+        int maxId = -1;
+        for (Component root : roots) {
+            work.add(root);
+            while (!work.isEmpty()) {
+                Component comp = work.remove(work.size() - 1);
+                if (comp == null) {
+                    ends.set(open.remove(open.size() - 1), numbered.size());
+                    continue;
+                }
+                minId = Math.min(minId, comp.getId());
+                maxId = Math.max(maxId, comp.getId());
+                if (comp instanceof CircuitBreaker) {
+                    open.add(found.size());
+                    found.add((CircuitBreaker) comp);
+                    starts.add(numbered.size());
+                    ends.add(0);
+                    work.add(null);
+                }
+                if (comp instanceof CircuitBreaker || comp instanceof Outlet) {
+                    numbered.add(comp);
+                }
+                ArrayList<Component> loads = comp.getLoads();
+                for (int k = loads.size() - 1; k >= 0; k--) {
+                    work.add(loads.get(k));
+                }
+            }
+        }
+        order = numbered.toArray(new Component[0]);
+        breakers = found.toArray(new CircuitBreaker[0]);
+        firstId = maxId < 0 ? 0 : minId;
+        placeOfId = new int[maxId - firstId + 1];
+        breakerOfId = new int[maxId - firstId + 1];
+        Arrays.fill(placeOfId, -1);
+        for (int i = 0; i < order.length; i++) {
+            placeOfId[order[i].getId() - firstId] = i;
+        }
+        from = new int[breakers.length];
+        to = new int[breakers.length];
+        for (int b = 0; b < breakers.length; b++) {
+            breakerOfId[breakers[b].getId() - firstId] = b;
+            from[b] = starts.get(b);
+            to[b] = ends.get(b);
+        }
+        leaves = Integer.highestOneBit(Math.max(1, order.length - 1)) << 1;
+        keptStart = new int[2 * leaves + 1];
+        for (int pass = 0; pass < 2; pass++) {              // count the breakers at each node, then place them
+            int[] next = pass == 0 ? keptStart : Arrays.copyOf(keptStart, keptStart.length);
+            for (int b = 0; b < breakers.length; b++) {
+                for (int l = from[b] + leaves, r = to[b] + leaves; l < r; l >>= 1, r >>= 1) {
+                    if ((l & 1) == 1) {
+                        place(pass, next, l++, b);
+                    }
+                    if ((r & 1) == 1) {
+                        place(pass, next, --r, b);
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int k = 1; k < keptStart.length; k++) {
+                    keptStart[k] += keptStart[k - 1];
+                }
+                keptBreakers = new int[keptStart[keptStart.length - 1]];
+            }
+        }
+        kept = new long[2 * leaves];
+        best = new long[2 * leaves];
+        for (int node = 2 * leaves - 1; node > 0; node--) {
+            long least = UNLIMITED;
+            for (int k = keptStart[node]; k < keptStart[node + 1]; k++) {
+                least = Math.min(least, headroomOf(breakers[keptBreakers[k]]));
+            }
+            kept[node] = least;
+            if (node >= leaves) {
+                int at = node - leaves;
+                best[node] = at < order.length && order[at] instanceof Outlet && order[at].engaged() ? least
+                                                                                                      : NO_OUTLET;
+            } else {
+                best[node] = Math.min(least, Math.max(best[2 * node], best[2 * node + 1]));
+            }
+        }
+        marked = new boolean[order.length];
+        changed = new int[order.length];
+        changes = 0;
+        rewired = false;
+    }
+
+    /**
+     * in the first pass count a breaker at a node, in the second put it in the node's place in keptBreakers
+     * @param pass  int     0 or 1
+     * @param next  int[]   in the second pass, where the next breaker of each node goes
+     * @param node  int     the node
+     * @param b     int     the breaker
+     */
+    private void place(int pass, int[] next, int node, int b) {
+        if (pass == 0) {
+            keptStart[node + 1]++;
+        } else {
+            keptBreakers[next[node]++] = b;
+        }
+    }
+}
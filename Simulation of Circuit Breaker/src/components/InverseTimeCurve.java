@@ -0,0 +1,64 @@
+package components;
+
+/**
+ * A thermal-magnetic trip curve. Over its limit a breaker heats up at a rate that grows with the square of the
+ * overload, so it trips after k / (r * r - 1) units of time at r times its limit: with k = 60 seconds, 110% holds for
+ * nearly five minutes and 200% for twenty seconds. At the magnetic multiple of its limit or more it trips at once.
+ * At or under its limit it cools exponentially with the given time constant.
+ *
+ * @author Feng Jiang
+ */
+public class InverseTimeCurve implements TripCurve {
+
+    private final double k;
+    private final double magnetic;
+    private final double cooling;
+
+    /**
+     * a curve for time counted in seconds: k of 60, trip at once at 5 times the limit, cool with a 10 minute constant
+     */
+    public InverseTimeCurve() {
+        this(60, 5, 600);
+    }
+
+    /**
+     * @param k     double  how long the breaker holds at the square root of 2 times its limit
+     * @param magnetic  double  the multiple of its limit at which it trips at once
+     * @param cooling   double  the time constant of cooling
+     */
+    public InverseTimeCurve(double k, double magnetic, double cooling) {
+        if (k <= 0 || magnetic <= 1 || cooling <= 0) {
+            throw new IllegalArgumentException("bad trip curve: k " + k + ", magnetic " + magnetic
+                                               + ", cooling " + cooling);
+        }
+        this.k = k;
+        this.magnetic = magnetic;
+        this.cooling = cooling;
+    }
+
+    /**
+     * @param draw  int     the draw the breaker has just reached
+     * @param limit     int     the limit of the breaker
+     * @return  boolean     true at the magnetic multiple of the limit or more
+     */
+    @Override
+    public boolean tripsAtOnce(int draw, int limit) {
+        return draw >= magnetic * limit;
+    }
+
+    /**
+     * @param heat  double  the heat of the breaker
+     * @param draw  int     the draw it has had over the time
+     * @param limit     int     the limit of the breaker
+     * @param dt    long    how much time has gone by
+     * @return  double  the heat after dt
+     */
+    @Override
+    public double heat(double heat, int draw, int limit, long dt) {
+        if (draw > limit) {
+            double r = (double) draw / limit;
+            return heat + dt * (r * r - 1) / k;
+        }
+        return heat * Math.exp(-dt / cooling);
+    }
+}
@@ -0,0 +1,119 @@
+package components;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, with buckets on a log scale in the manner of HdrHistogram: every power of
+ * two is cut into eight buckets, so a value is known to within an eighth of its size however large it is. Recording
+ * is a couple of atomic adds, with no locks, so many threads can record at once.
+ *
+ * @author Feng Jiang
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value     long    a value, 0 or more
+     * @return  int     its bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);                // at least SUB_BITS
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket    int     a bucket
+     * @return  long    the largest value that goes in it
+     */
+    private static long highestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long low = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << (exponent - SUB_BITS);
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @param nanos     long    a duration; negative ones count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.getAndIncrement(bucketOf(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return  long    how many durations have been recorded
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return  long    the longest duration recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return  double  the mean of the durations recorded
+     */
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percent   double  a percentile, 0 to 100
+     * @return  long    a duration that at least that percentage of the recorded ones are no longer than, to within
+     *                  an eighth
+     */
+    public long percentile(double percent) {
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            n += counts.get(b);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(n * percent / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= wanted) {
+                return Math.min(highestIn(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * forget everything recorded
+     */
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,537 @@
+package components;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the components do: switches toggled, changes in draw passed up the tree and how far they went,
+ * engagements, and the trips and highest draw of each breaker; and times the commands Overload runs, in a
+ * LatencyHistogram per command. The components call in from the places these things happen, so it is all static like
+ * Reporter.
+ * <br><br>
+ * Nothing is collected until metrics are enabled, and until then every call returns after reading one flag. Once they
+ * are, the counters are LongAdders and the gauges only compare-and-set when a draw goes over the highest seen, so
+ * toggles on many threads never wait on each other here. What is collected can be read with text, written as CSV
+ * rows, written to a CSV file every so often by dumpEvery, or watched over JMX once registerMXBean has been called.
+ * Breakers are held weakly, so metrics do not keep a model in memory, and one that has been detached from its power
+ * source is dropped the next time they are read, with its stats; it starts over if it is seen again.
+ *
+ * @author Feng Jiang
+ */
+public final class Metrics {
+
+    /**
+     * the name the JMX bean is registered under
+     */
+    public static final String OBJECT_NAME = "components:type=Metrics";
+
+    /**
+     * the first line of a CSV file
+     */
+    public static final String CSV_HEADER = "time,metric,name,value";
+
+    /**
+     * what one breaker has done while metrics were on
+     */
+    static final class BreakerStats {
+        final LongAdder trips = new LongAdder();
+        final AtomicInteger peakDraw = new AtomicInteger();
+    }
+
+    private static volatile boolean enabled;
+
+    private static final LongAdder toggles = new LongAdder();
+    private static final LongAdder propagations = new LongAdder();
+    private static final LongAdder propagationSteps = new LongAdder();
+    private static final LongAdder engages = new LongAdder();
+    private static final LongAdder disengages = new LongAdder();
+    private static final LongAdder trips = new LongAdder();
+
+    private static final ConcurrentLinkedQueue<WeakReference<CircuitBreaker>> breakers =
+            new ConcurrentLinkedQueue<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService dumper;
+    private static BufferedWriter dumpFile;
+
+    private Metrics() {
+    }
+
+    /**
+     * start collecting
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * stop collecting; what has been collected is kept
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return  boolean     true if metrics are being collected
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * a switch was turned on or off
+     */
+    static void toggled() {
+        if (enabled) {
+            toggles.increment();
+        }
+    }
+
+    /**
+     * a change in draw was passed up the tree
+     * @param steps     int     how many components it went through
+     */
+    static void propagated(int steps) {
+        if (enabled) {
+            propagations.increment();
+            propagationSteps.add(steps);
+        }
+    }
+
+    /**
+     * a component was engaged
+     */
+    static void engaged() {
+        if (enabled) {
+            engages.increment();
+        }
+    }
+
+    /**
+     * a component was disengaged
+     */
+    static void disengaged() {
+        if (enabled) {
+            disengages.increment();
+        }
+    }
+
+    /**
+     * a breaker tripped
+     * @param breaker   CircuitBreaker  the breaker
+     */
+    static void tripped(CircuitBreaker breaker) {
+        if (enabled) {
+            trips.increment();
+            statsOf(breaker).trips.increment();
+        }
+    }
+
+    /**
+     * the draw of a breaker changed
+     * @param breaker   CircuitBreaker  the breaker
+     * @param draw  int     its draw now
+     */
+    static void drawSeen(CircuitBreaker breaker, int draw) {
+        if (enabled) {
+            AtomicInteger peak = statsOf(breaker).peakDraw;
+            if (draw > peak.get()) {
+                peak.accumulateAndGet(draw, Math::max);
+            }
+        }
+    }
+
+    /**
+     * The stats of a breaker, made the first time it is seen. Only one thread changes a breaker at a time, even with
+     * ConcurrentToggles, so only one thread can be making them.
+     * @param breaker   CircuitBreaker  the breaker
+     * @return  BreakerStats    its stats
+     */
+    private static BreakerStats statsOf(CircuitBreaker breaker) {
+        BreakerStats stats = breaker.stats;
+        if (stats == null) {
+            stats = new BreakerStats();
+            breaker.stats = stats;
+            breakers.add(new WeakReference<>(breaker));
+        }
+        return stats;
+    }
+
+    /**
+     * record how long a command took
+     * @param command   String  the command, in lower case
+     * @param nanos     long    how long it took
+     */
+    public static void timeCommand(String command, long nanos) {
+        if (enabled) {
+            commandLatency(command).record(nanos);
+        }
+    }
+
+    /**
+     * @param command   String  a command, in lower case
+     * @return  LatencyHistogram    the times of that command, made empty if it has none yet
+     */
+    public static LatencyHistogram commandLatency(String command) {
+        return commands.computeIfAbsent(command, c -> new LatencyHistogram());
+    }
+
+    /**
+     * @return  long    how many times a switch was turned on or off by a user
+     */
+    public static long toggles() {
+        return toggles.sum();
+    }
+
+    /**
+     * @return  long    how many changes in draw were passed up the tree
+     */
+    public static long propagations() {
+        return propagations.sum();
+    }
+
+    /**
+     * @return  long    how many components those changes went through
+     */
+    public static long propagationSteps() {
+        return propagationSteps.sum();
+    }
+
+    /**
+     * @return  long    how many times a component was engaged
+     */
+    public static long engages() {
+        return engages.sum();
+    }
+
+    /**
+     * @return  long    how many times a component was disengaged
+     */
+    public static long disengages() {
+        return disengages.sum();
+    }
+
+    /**
+     * @return  long    how many times any breaker tripped
+     */
+    public static long trips() {
+        return trips.sum();
+    }
+
+    /**
+     * @param breaker   CircuitBreaker  a breaker
+     * @return  long    how many times it tripped
+     */
+    public static long trips(CircuitBreaker breaker) {
+        BreakerStats stats = breaker.stats;
+        return stats == null ? 0 : stats.trips.sum();
+    }
+
+    /**
+     * @param breaker   CircuitBreaker  a breaker
+     * @return  int     the highest draw seen at it
+     */
+    public static int peakDraw(CircuitBreaker breaker) {
+        BreakerStats stats = breaker.stats;
+        return stats == null ? 0 : stats.peakDraw.get();
+    }
+
+    /**
+     * set every counter, gauge and histogram back to nothing
+     */
+    public static void reset() {
+        toggles.reset();
+        propagations.reset();
+        propagationSteps.reset();
+        engages.reset();
+        disengages.reset();
+        trips.reset();
+        for (CircuitBreaker breaker : sortedBreakers().values()) {
+            breaker.stats.trips.reset();
+            breaker.stats.peakDraw.set(0);
+        }
+        for (LatencyHistogram times : commands.values()) {
+            times.reset();
+        }
+    }
+
+    /**
+     * @return  String  everything collected, one line per counter, breaker and command
+     */
+    public static String text() {
+        StringBuilder out = new StringBuilder();
+        out.append("toggles ").append(toggles()).append('\n');
+        out.append("propagations ").append(propagations()).append(" through ").append(propagationSteps())
+           .append(" components\n");
+        out.append("engages ").append(engages()).append(", disengages ").append(disengages()).append('\n');
+        out.append("trips ").append(trips()).append('\n');
+        for (CircuitBreaker breaker : sortedBreakers().values()) {
+            out.append("breaker ").append(breaker.getName()).append(": trips ").append(trips(breaker))
+               .append(", peak draw ").append(peakDraw(breaker)).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(commands).entrySet()) {
+            LatencyHistogram times = entry.getValue();
+            out.append("command ").append(entry.getKey()).append(": ").append(times.count())
+               .append(" runs, mean ").append(micros((long) times.mean()))
+               .append(" p50 ").append(micros(times.percentile(50)))
+               .append(" p99 ").append(micros(times.percentile(99)))
+               .append(" max ").append(micros(times.max())).append(" us\n");
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param nanos     long    a time in nanoseconds
+     * @return  String  it in microseconds, to one decimal
+     */
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    /**
+     * Append everything collected to some CSV, one row per value, each starting with the given time; see CSV_HEADER.
+     * Breaker and command names are written as they are, so they should not hold commas.
+     * @param out   Appendable  where the rows go
+     * @param time  long    the time to put on every row, in milliseconds since 1970
+     * @throws IOException  if the rows cannot be written
+     */
+    public static void writeCsv(Appendable out, long time) throws IOException {
+        row(out, time, "toggles", "", toggles());
+        row(out, time, "propagations", "", propagations());
+        row(out, time, "propagation_steps", "", propagationSteps());
+        row(out, time, "engages", "", engages());
+        row(out, time, "disengages", "", disengages());
+        row(out, time, "trips", "", trips());
+        for (CircuitBreaker breaker : sortedBreakers().values()) {
+            row(out, time, "breaker_trips", breaker.getName(), trips(breaker));
+            row(out, time, "breaker_peak_draw", breaker.getName(), peakDraw(breaker));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(commands).entrySet()) {
+            LatencyHistogram times = entry.getValue();
+            row(out, time, "command_count", entry.getKey(), times.count());
+            row(out, time, "command_p50_ns", entry.getKey(), times.percentile(50));
+            row(out, time, "command_p99_ns", entry.getKey(), times.percentile(99));
+            row(out, time, "command_max_ns", entry.getKey(), times.max());
+        }
+    }
+
+    /**
+     * @param out   Appendable  where the row goes
+     * @param time  long    the time
+     * @param metric    String  what is being counted
+     * @param name  String  the breaker or command, empty for the totals
+     * @param value     long    the value
+     * @throws IOException  if the row cannot be written
+     */
+    private static void row(Appendable out, long time, String metric, String name, long value) throws IOException {
+        out.append(Long.toString(time)).append(',').append(metric).append(',').append(name).append(',')
+           .append(Long.toString(value)).append('\n');
+    }
+
+    /**
+     * @return  TreeMap     the breakers that have been seen and are still under a power source, by name; the rest are
+     *                      dropped
+     */
+    private static TreeMap<String, CircuitBreaker> sortedBreakers() {
+        TreeMap<String, CircuitBreaker> sorted = new TreeMap<>();
+        for (Iterator<WeakReference<CircuitBreaker>> seen = breakers.iterator(); seen.hasNext(); ) {
+            CircuitBreaker breaker = seen.next().get();
+            if (breaker == null) {
+                seen.remove();
+            } else if (!powered(breaker)) {
+                seen.remove();
+                breaker.stats = null;
+            } else {
+                sorted.put(breaker.getName(), breaker);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * @param breaker   CircuitBreaker  a breaker
+     * @return  boolean     true if the top of its tree is a power source, false if it has been detached
+     */
+    private static boolean powered(CircuitBreaker breaker) {
+        Component top = breaker;
+        while (top.source != null) {
+            top = top.source;
+        }
+        return top instanceof PowerSource;
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, so that jconsole and the like can watch them. Registering
+     * a second time does nothing.
+     * @throws IllegalStateException    if the server will not take them
+     */
+    public static void registerMXBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException already) {
+            // registered before
+        } catch (JMException jme) {
+            throw new IllegalStateException("cannot register " + OBJECT_NAME, jme);
+        }
+    }
+
+    /**
+     * Append the CSV rows to a file every period, on a daemon thread, until stopDumping is called; the header is
+     * written first if the file is new or empty. Dumping to another file stops dumping to this one.
+     * @param file  Path    the CSV file
+     * @param period    long    how often to write, in milliseconds
+     * @throws IOException  if the file cannot be opened
+     */
+    public static synchronized void dumpEvery(Path file, long period) throws IOException {
+        stopDumping();
+        boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+        dumpFile = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                           StandardOpenOption.APPEND);
+        if (fresh) {
+            dumpFile.write(CSV_HEADER);
+            dumpFile.newLine();
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(Metrics::dump, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * write the rows once more and close the file dumpEvery is writing, if it is writing one
+     */
+    public static synchronized void stopDumping() {
+        if (dumper == null) {
+            return;
+        }
+        dumper.shutdownNow();
+        dump();
+        try {
+            dumpFile.close();
+        } catch (IOException ioe) {
+            System.err.println("Could not close metrics file: " + ioe.getMessage());
+        }
+        dumper = null;
+        dumpFile = null;
+    }
+
+    /**
+     * write the rows to the file dumpEvery opened; a file that cannot be written stops the dumping
+     */
+    private static synchronized void dump() {
+        if (dumpFile == null) {
+            return;
+        }
+        try {
+            writeCsv(dumpFile, System.currentTimeMillis());
+            dumpFile.flush();
+        } catch (IOException ioe) {
+            System.err.println("Could not write metrics: " + ioe.getMessage());
+            dumper.shutdown();
+        }
+    }
+
+    /**
+     * the JMX view of the metrics
+     */
+    private static final class Bean implements MetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public long getToggles() {
+            return toggles();
+        }
+
+        @Override
+        public long getPropagations() {
+            return propagations();
+        }
+
+        @Override
+        public long getPropagationSteps() {
+            return propagationSteps();
+        }
+
+        @Override
+        public long getEngages() {
+            return engages();
+        }
+
+        @Override
+        public long getDisengages() {
+            return disengages();
+        }
+
+        @Override
+        public long getTrips() {
+            return trips();
+        }
+
+        @Override
+        public Map<String, Long> getTripsByBreaker() {
+            Map<String, Long> byName = new TreeMap<>();
+            for (CircuitBreaker breaker : sortedBreakers().values()) {
+                byName.put(breaker.getName(), Metrics.trips(breaker));
+            }
+            return byName;
+        }
+
+        @Override
+        public Map<String, Integer> getPeakDrawByBreaker() {
+            Map<String, Integer> byName = new TreeMap<>();
+            for (CircuitBreaker breaker : sortedBreakers().values()) {
+                byName.put(breaker.getName(), peakDraw(breaker));
+            }
+            return byName;
+        }
+
+        @Override
+        public Map<String, Long> getCommandCounts() {
+            Map<String, Long> byCommand = new TreeMap<>();
+            commands.forEach((command, times) -> byCommand.put(command, times.count()));
+            return byCommand;
+        }
+
+        @Override
+        public Map<String, Long> getCommandP99Nanos() {
+            Map<String, Long> byCommand = new TreeMap<>();
+            commands.forEach((command, times) -> byCommand.put(command, times.percentile(99)));
+            return byCommand;
+        }
+
+        @Override
+        public String getText() {
+            return text();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package components;
+
+import java.util.Map;
+
+/**
+ * What Metrics shows through JMX, under the name components:type=Metrics.
+ *
+ * @author Feng Jiang
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return  boolean     true if metrics are being collected
+     */
+    boolean isEnabled();
+
+    /**
+     * @return  long    how many times a switch was turned on or off by a user
+     */
+    long getToggles();
+
+    /**
+     * @return  long    how many changes in draw were passed up the tree
+     */
+    long getPropagations();
+
+    /**
+     * @return  long    how many components those changes went through
+     */
+    long getPropagationSteps();
+
+    /**
+     * @return  long    how many times a component was engaged
+     */
+    long getEngages();
+
+    /**
+     * @return  long    how many times a component was disengaged
+     */
+    long getDisengages();
+
+    /**
+     * @return  long    how many times any breaker tripped
+     */
+    long getTrips();
+
+    /**
+     * @return  Map     the trips of each breaker that has tripped, by name
+     */
+    Map<String, Long> getTripsByBreaker();
+
+    /**
+     * @return  Map     the highest draw seen at each breaker, by name
+     */
+    Map<String, Integer> getPeakDrawByBreaker();
+
+    /**
+     * @return  Map     how many of each command were timed, by command
+     */
+    Map<String, Long> getCommandCounts();
+
+    /**
+     * @return  Map     the 99th percentile time of each command in nanoseconds, by command
+     */
+    Map<String, Long> getCommandP99Nanos();
+
+    /**
+     * @return  String  everything, in the form of Metrics.text
+     */
+    String getText();
+
+    /**
+     * set every counter, gauge and histogram back to nothing
+     */
+    void reset();
+}
@@ -0,0 +1,347 @@
+package components;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-tests the engine with occupants of a building, each one an agent that switches its own appliances on and off
+ * at random, thinking for a random while between switches, all at the same time. Every switch goes through a
+ * ConcurrentToggles, so occupants on different circuits do not wait for each other and occupants on the same circuit
+ * take turns. An occupant who finds any breaker above an appliance blown resets it first, the highest first.
+ * <br><br>
+ * On a JVM with virtual threads every occupant is one, sleeping through its think times; otherwise every occupant is
+ * a task that a small pool runs again after each think time, so either way a hundred thousand occupants cost no more
+ * than a hundred thousand small objects. The run measures how long each toggle takes, waiting for its circuit
+ * included, how many breakers blew, how many toggles had to wait, and which circuits the time went to.
+ *
+ * @author Feng Jiang
+ */
+public class OccupantSimulator {
+
+    /**
+     * what a run found
+     */
+    public static final class Result {
+        private final long toggles;
+        private final long resets;
+        private final long trips;
+        private final long contended;
+        private final LatencyHistogram latency;
+        private final double seconds;
+        private final boolean virtualThreads;
+        private final List<Component> hottest;
+
+        Result(long toggles, long resets, long trips, long contended, LatencyHistogram latency, double seconds,
+               boolean virtualThreads, List<Component> hottest) {
+            this.toggles = toggles;
+            this.resets = resets;
+            this.trips = trips;
+            this.contended = contended;
+            this.latency = latency;
+            this.seconds = seconds;
+            this.virtualThreads = virtualThreads;
+            this.hottest = hottest;
+        }
+
+        /**
+         * @return  long    how many appliances were toggled
+         */
+        public long toggles() {
+            return toggles;
+        }
+
+        /**
+         * @return  long    how many blown breakers occupants reset
+         */
+        public long resets() {
+            return resets;
+        }
+
+        /**
+         * @return  long    how many times a breaker blew
+         */
+        public long trips() {
+            return trips;
+        }
+
+        /**
+         * @return  long    how many toggles, resets included, had to wait for their circuit
+         */
+        public long contended() {
+            return contended;
+        }
+
+        /**
+         * @return  LatencyHistogram    how long the toggles took, in nanoseconds
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        /**
+         * @return  double  how long the run took, in seconds
+         */
+        public double seconds() {
+            return seconds;
+        }
+
+        /**
+         * @return  boolean     true if the occupants were virtual threads
+         */
+        public boolean virtualThreads() {
+            return virtualThreads;
+        }
+
+        /**
+         * @return  List    the circuits whose toggles took the most time altogether, the most first
+         */
+        public List<Component> hottest() {
+            return hottest;
+        }
+    }
+
+    /**
+     * how many circuits Result.hottest names
+     */
+    private static final int HOTTEST = 3;
+
+    private final ConcurrentToggles toggles;
+    private final ArrayList<Appliance[]> occupants = new ArrayList<>();
+
+    /**
+     * @param toggles   ConcurrentToggles   what the occupants switch through
+     */
+    public OccupantSimulator(ConcurrentToggles toggles) {
+        this.toggles = toggles;
+    }
+
+    /**
+     * add an occupant who uses some appliances
+     * @param appliances    Appliance...    the appliances
+     */
+    public void addOccupant(Appliance... appliances) {
+        if (appliances.length == 0) {
+            throw new IllegalArgumentException("an occupant needs an appliance");
+        }
+        occupants.add(appliances.clone());
+    }
+
+    /**
+     * @return  int     how many occupants there are
+     */
+    public int occupants() {
+        return occupants.size();
+    }
+
+    /**
+     * Let every occupant toggle a number of times, and wait for all of them to finish.
+     * @param actions   int     how many times each occupant toggles an appliance
+     * @param thinkNanos    long    the mean time an occupant thinks before each toggle
+     * @param seed  long    the seed of the random numbers
+     * @return  Result  what the run found
+     * @throws InterruptedException     if the waiting thread is interrupted
+     */
+    public Result run(int actions, long thinkNanos, long seed) throws InterruptedException {
+        Map<Component, LongAdder> circuitTime = new IdentityHashMap<>();
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder toggled = new LongAdder();
+        LongAdder resets = new LongAdder();
+        LongAdder trips = new LongAdder();
+        CountDownLatch done = new CountDownLatch(occupants.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        SplittableRandom seeds = new SplittableRandom(seed);
+        ArrayList<Occupant> agents = new ArrayList<>(occupants.size());
+        for (Appliance[] own : occupants) {
+            LongAdder[] time = new LongAdder[own.length];
+            CircuitBreaker[][] breaker = new CircuitBreaker[own.length][];
+            for (int a = 0; a < own.length; a++) {
+                time[a] = circuitTime.computeIfAbsent(ConcurrentToggles.circuitOf(own[a]), c -> new LongAdder());
+                ArrayList<CircuitBreaker> above = new ArrayList<>();
+                for (Component c = own[a].source; c != null; c = c.source) {
+                    if (c instanceof CircuitBreaker) {
+                        above.add((CircuitBreaker) c);
+                    }
+                }
+                breaker[a] = above.toArray(new CircuitBreaker[0]);
+            }
+            agents.add(new Occupant(own, breaker, time, actions, thinkNanos, seeds.split(), latency, toggled,
+                                    resets, done, failure));
+        }
+        Subscription tripCount = Reporter.subscribe(new ReportListener() {
+            @Override
+            public void onTrip(CircuitBreaker breaker, int draw) {
+                trips.increment();
+            }
+        }, Reporter.Msg.BLOWN);
+        long contendedBefore = toggles.contended();
+        ExecutorService virtual = virtualThreadExecutor();
+        long start = System.nanoTime();
+        try {
+            if (virtual != null) {
+                for (Occupant agent : agents) {
+                    virtual.execute(agent::live);
+                }
+                done.await();
+                virtual.shutdown();
+            } else {
+                ScheduledThreadPoolExecutor pool =
+                        new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
+                for (Occupant agent : agents) {
+                    agent.scheduleOn(pool);
+                }
+                done.await();
+                pool.shutdown();
+            }
+        } finally {
+            tripCount.cancel();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (failure.get() instanceof Error) {
+            throw (Error) failure.get();
+        } else if (failure.get() != null) {
+            throw (RuntimeException) failure.get();
+        }
+        ArrayList<Map.Entry<Component, LongAdder>> byTime = new ArrayList<>(circuitTime.entrySet());
+        byTime.sort((x, y) -> Long.compare(y.getValue().sum(), x.getValue().sum()));
+        ArrayList<Component> hottest = new ArrayList<>();
+        for (int i = 0; i < Math.min(HOTTEST, byTime.size()); i++) {
+            hottest.add(byTime.get(i).getKey());
+        }
+        return new Result(toggled.sum(), resets.sum(), trips.sum(), toggles.contended() - contendedBefore, latency,
+                          seconds, virtual != null, hottest);
+    }
+
+    /**
+     * @return  ExecutorService     an executor that starts a virtual thread per task, null if this JVM has none
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * One occupant: its appliances, the breakers above them, and what it has left to do.
+     */
+    private final class Occupant implements Runnable {
+        private final Appliance[] own;
+        private final CircuitBreaker[][] breaker;   // the breakers above each appliance, the nearest first
+        private final LongAdder[] circuitTime;      // the toggle time of each appliance's circuit
+        private final long thinkNanos;
+        private final SplittableRandom random;
+        private final LatencyHistogram latency;
+        private final LongAdder toggled;
+        private final LongAdder resets;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure;
+        private int left;
+        private ScheduledThreadPoolExecutor pool;
+
+        Occupant(Appliance[] own, CircuitBreaker[][] breaker, LongAdder[] circuitTime, int actions, long thinkNanos,
+                 SplittableRandom random, LatencyHistogram latency, LongAdder toggled, LongAdder resets,
+                 CountDownLatch done, AtomicReference<Throwable> failure) {
+            this.own = own;
+            this.breaker = breaker;
+            this.circuitTime = circuitTime;
+            this.left = actions;
+            this.thinkNanos = thinkNanos;
+            this.random = random;
+            this.latency = latency;
+            this.toggled = toggled;
+            this.resets = resets;
+            this.done = done;
+            this.failure = failure;
+        }
+
+        /**
+         * @return  long    a think time, exponentially distributed around the mean
+         */
+        private long think() {
+            return (long) (-Math.log(1 - random.nextDouble()) * thinkNanos);
+        }
+
+        /**
+         * toggle one appliance, resetting the breakers above it first, the highest first, if any have blown
+         */
+        private void act() {
+            int a = random.nextInt(own.length);
+            long start = System.nanoTime();
+            for (int b = breaker[a].length - 1; b >= 0; b--) {
+                if (breaker[a][b].getOverloaded()) {
+                    toggles.turnOn(breaker[a][b]);
+                    resets.increment();
+                }
+            }
+            toggles.toggle(own[a]);
+            long took = System.nanoTime() - start;
+            latency.record(took);
+            circuitTime[a].add(took);
+            toggled.increment();
+        }
+
+        /**
+         * the whole life of the occupant on its own virtual thread
+         */
+        void live() {
+            try {
+                for (; left > 0; left--) {
+                    LockSupport.parkNanos(think());
+                    act();
+                }
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * start the occupant on a pool, which runs it again after every think time
+         * @param pool  ScheduledThreadPoolExecutor     the pool
+         */
+        void scheduleOn(ScheduledThreadPoolExecutor pool) {
+            this.pool = pool;
+            if (left > 0) {
+                pool.schedule(this, think(), TimeUnit.NANOSECONDS);
+            } else {
+                done.countDown();
+            }
+        }
+
+        /**
+         * one turn on the pool: toggle, then come back after thinking, or finish
+         */
+        @Override
+        public void run() {
+            boolean again = false;
+            try {
+                act();
+                if (--left > 0) {
+                    pool.schedule(this, think(), TimeUnit.NANOSECONDS);
+                    again = true;
+                }
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (!again) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
@@ -16,4 +16,13 @@ public class Outlet extends Component {
         source.attach(this);
         this.draw = 0;
     }
+
+    /**
+     * constructor for an outlet at the top of a detached subtree, with no source and attached to nothing
+     * @param name  String  name of outlet
+     */
+    Outlet(String name) {
+        super(name, null);
+        this.draw = 0;
+    }
 }
@@ -0,0 +1,140 @@
+package components;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Estimates how likely each circuit breaker is to blow when every appliance is switched on at random, each with its
+ * own probability. Every scenario switches every breaker on and asks a WhatIfEvaluator which breakers blow; a breaker
+ * whose loads add up to more than its limit counts a trip and passes nothing up, as it would after blowing.
+ * <br><br>
+ * Scenarios are split between the cores with fork-join. The topology is only read; each task has its own scratch
+ * arrays and random numbers, so nothing is allocated per scenario and nothing is shared between tasks. The random
+ * numbers are split off in the same way whatever the number of cores, so a given seed always gives the same answer.
+ *
+ * @author Feng Jiang
+ */
+public class OverloadRisk {
+
+    /**
+     * scenarios below this many are run without splitting further
+     */
+    private static final long LEAF_SCENARIOS = 1 << 14;
+
+    private final int size;
+    private final WhatIfEvaluator evaluator;
+    private final long[] threshold;         // appliance a is on when 53 random bits are below threshold[a]
+
+    /**
+     * @param flat  FlatTopology    the topology, only its structure is used
+     * @param onProbability     double[]    how likely each appliance is to be on, indexed like the topology; the
+     *                                      entries of other components are ignored
+     */
+    public OverloadRisk(FlatTopology flat, double[] onProbability) {
+        if (onProbability.length != flat.size()) {
+            throw new IllegalArgumentException("need a probability for each of " + flat.size() + " components");
+        }
+        size = flat.size();
+        evaluator = new WhatIfEvaluator(flat);
+        threshold = new long[evaluator.appliances()];
+        for (int a = 0; a < threshold.length; a++) {
+            double p = Math.max(0, Math.min(1, onProbability[evaluator.applianceIndex(a)]));
+            threshold[a] = (long) (p * (1L << 53));
+        }
+    }
+
+    /**
+     * Run the scenarios on the common fork-join pool.
+     * @param scenarios     long    how many scenarios to run
+     * @param seed  long    the seed of the random numbers
+     * @return  long[]  how many scenarios each component tripped in, indexed like the topology; only breakers trip
+     */
+    public long[] trips(long scenarios, long seed) {
+        return ForkJoinPool.commonPool().invoke(new Scenarios(0, scenarios, new SplittableRandom(seed)));
+    }
+
+    /**
+     * @param scenarios     long    how many scenarios to run
+     * @param seed  long    the seed of the random numbers
+     * @return  double[]    the fraction of scenarios each component tripped in, indexed like the topology
+     */
+    public double[] tripProbabilities(long scenarios, long seed) {
+        long[] trips = trips(scenarios, seed);
+        double[] probability = new double[size];
+        for (int i = 0; i < size; i++) {
+            probability[i] = scenarios == 0 ? 0 : (double) trips[i] / scenarios;
+        }
+        return probability;
+    }
+
+    /**
+     * A range of scenarios, split in half until it is small enough to run.
+     */
+    private class Scenarios extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+        private final SplittableRandom random;
+
+        /**
+         * @param from  long    the first scenario
+         * @param to    long    one past the last scenario
+         * @param random    SplittableRandom    the random numbers for this range
+         */
+        Scenarios(long from, long to, SplittableRandom random) {
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        /**
+         * @return  long[]  the trips of each component over this range
+         */
+        @Override
+        protected long[] compute() {
+            if (to - from <= LEAF_SCENARIOS) {
+                return run();
+            }
+            long middle = from + (to - from) / 2;
+            Scenarios left = new Scenarios(from, middle, random.split());
+            Scenarios right = new Scenarios(middle, to, random);
+            left.fork();
+            long[] trips = right.compute();
+            long[] other = left.join();
+            for (int i = 0; i < size; i++) {
+                trips[i] += other[i];
+            }
+            return trips;
+        }
+
+        /**
+         * run every scenario in the range, reusing one set of scratch arrays
+         * @return  long[]  the trips of each component
+         */
+        private long[] run() {
+            long[] trips = new long[size];
+            long[] on = new long[evaluator.words()];
+            long[] draw = new long[size];
+            int[] blown = new int[evaluator.breakers()];
+            for (long s = from; s < to; s++) {
+                int a = 0;
+                for (int w = 0; w < on.length; w++) {
+                    long bits = 0;
+                    int end = Math.min(a + 64, threshold.length);
+                    for (int bit = 0; a < end; a++, bit++) {
+                        // the sign of the difference is the bit, without a branch to mispredict
+                        bits |= (((random.nextLong() >>> 11) - threshold[a]) >>> 63) << bit;
+                    }
+                    on[w] = bits;
+                }
+                int count = evaluator.evaluate(on, draw, blown);
+                for (int k = 0; k < count; k++) {
+                    trips[blown[k]]++;
+                }
+            }
+            return trips;
+        }
+    }
+}
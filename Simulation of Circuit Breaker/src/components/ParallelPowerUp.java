@@ -0,0 +1,212 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Powers up power sources the way engage does, with the independent parts of their trees engaged at the same time on
+ * a fork-join pool. Engaging a subtree only touches the components in it, and a component's part of engaging only
+ * needs the total its loads hand back, so the loads of a component can be engaged by separate tasks and their totals
+ * added up before the component finishes, in any order. Every component ends up with the same draw, and every
+ * breaker trips or not, exactly as with engage.
+ * <br><br>
+ * Sizes of subtrees are counted first, so that subtrees too small to be worth a task are engaged by the walk engage
+ * uses, and small loads of the same component are grouped into one task. Events are reported on the threads that
+ * cause them, so printed lines come out in a different order than with engage. While a StateJournal is open
+ * everything is engaged on the calling thread, since the journal is not meant for several threads.
+ *
+ * @author Feng Jiang
+ */
+public class ParallelPowerUp {
+
+    /**
+     * subtrees up to this many components are engaged by one task without splitting
+     */
+    static final int LEAF_COMPONENTS = 1 << 12;
+
+    private final ForkJoinPool pool;
+    private int[] sizes;        // by component id, the size of each subtree being powered up
+    private int firstId;        // the id sizes starts at
+
+    /**
+     * power up on the common fork-join pool
+     */
+    public ParallelPowerUp() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool  ForkJoinPool    the pool the subtrees are engaged on
+     */
+    public ParallelPowerUp(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Engage every component in the collection that has no source, normally the power sources, and everything below
+     * them; components that are already engaged are left alone, as engage leaves them.
+     * @param components    Collection  the components; those with a source are skipped
+     */
+    public void engage(Collection<? extends Component> components) {
+        ArrayList<Component> roots = new ArrayList<>();
+        for (Component comp : components) {
+            if (comp.getSource() == null && !comp.engaged()) {
+                roots.add(comp);
+            }
+        }
+        if (StateJournal.open != null) {
+            for (Component root : roots) {
+                root.engage();
+            }
+            return;
+        }
+        countSizes(roots);
+        ArrayList<Energize> tasks = new ArrayList<>();
+        for (Component root : roots) {
+            Metrics.engaged();
+            ArrayList<Component> one = new ArrayList<>(1);
+            one.add(root);
+            tasks.add(new Energize(one));
+        }
+        pool.invoke(new RecursiveTask<Integer>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected Integer compute() {
+                invokeAll(tasks);
+                return 0;
+            }
+        });
+        sizes = null;
+    }
+
+    /**
+     * fill sizes: by component id, how many components are in the subtree below each component in the trees, counting
+     * itself
+     * @param roots     ArrayList   the tops of the trees
+     */
+    private void countSizes(ArrayList<Component> roots) {
+        ArrayList<Component> order = new ArrayList<>();
+        int minId = Integer.MAX_VALUE;
+        int maxId = -1;
+        for (Component root : roots) {
+            int start = order.size();
+            order.add(root);
+            for (int i = start; i < order.size(); i++) {
+                Component comp = order.get(i);
+                minId = Math.min(minId, comp.getId());
+                maxId = Math.max(maxId, comp.getId());
+                order.addAll(comp.connectionLoads);
+            }
+        }
+        firstId = order.isEmpty() ? 0 : minId;
+        sizes = new int[maxId - firstId + 1];
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Component comp = order.get(i);
+            sizes[comp.getId() - firstId]++;
+            if (comp.source != null) {
+                sizes[comp.source.getId() - firstId] += sizes[comp.getId() - firstId];
+            }
+        }
+    }
+
+    /**
+     * @param comp  Component   a component in the trees being powered up
+     * @return  int     how many components are in its subtree, counting itself
+     */
+    private int sizeOf(Component comp) {
+        return sizes[comp.getId() - firstId];
+    }
+
+    /**
+     * Engage some loads of one component, or one subtree, and add up the change in current they hand back.
+     */
+    private class Energize extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<Component> tops;
+
+        /**
+         * @param tops  ArrayList   the components to engage, with everything below them
+         */
+        Energize(ArrayList<Component> tops) {
+            this.tops = tops;
+        }
+
+        /**
+         * @return  Integer     the total change in current the components now draw from their source
+         */
+        @Override
+        protected Integer compute() {
+            if (tops.size() > 1) {
+                int sum = 0;
+                for (Component top : tops) {
+                    sum += top.energize();
+                }
+                return sum;
+            }
+            ArrayList<Component> chain = new ArrayList<>();    // components with one load, waiting to finish
+            Component comp = tops.get(0);
+            int delta;
+            while (true) {
+                if (sizeOf(comp) <= LEAF_COMPONENTS) {
+                    delta = comp.energize();
+                    break;
+                }
+                if (!comp.startEngage() || comp.connectionLoads.isEmpty()) {
+                    delta = comp.finishEngage(0);
+                    break;
+                }
+                if (comp.connectionLoads.size() == 1) {
+                    chain.add(comp);
+                    comp = comp.connectionLoads.get(0);
+                    continue;
+                }
+                ArrayList<Energize> parts = split(comp.connectionLoads);
+                invokeAll(parts);
+                int sum = 0;
+                for (Energize part : parts) {
+                    sum += part.join();
+                }
+                delta = comp.finishEngage(sum);
+                break;
+            }
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                delta = chain.get(i).finishEngage(delta);
+            }
+            return delta;
+        }
+
+        /**
+         * @param loads     ArrayList   the loads of a component
+         * @return  ArrayList   a task for each big load and for each run of small ones adding up to about a leaf
+         */
+        private ArrayList<Energize> split(ArrayList<Component> loads) {
+            ArrayList<Energize> parts = new ArrayList<>();
+            ArrayList<Component> group = new ArrayList<>();
+            int grouped = 0;
+            for (Component load : loads) {
+                int size = sizeOf(load);
+                if (size > LEAF_COMPONENTS) {
+                    ArrayList<Component> one = new ArrayList<>(1);
+                    one.add(load);
+                    parts.add(new Energize(one));
+                    continue;
+                }
+                group.add(load);
+                grouped += size;
+                if (grouped >= LEAF_COMPONENTS) {
+                    parts.add(new Energize(group));
+                    group = new ArrayList<>();
+                    grouped = 0;
+                }
+            }
+            if (!group.isEmpty()) {
+                parts.add(new Energize(group));
+            }
+            return parts;
+        }
+    }
+}
@@ -15,14 +15,16 @@ public class PowerSource extends Component {
     }
 
     /**
-     * the change draw method of power source, since its the main source of power, it should not call change draw to its
-     * source that shouldn't exist
+     * the change draw step of power source, since its the main source of power, it should not pass the change on to
+     * a source that shouldn't exist
      * @param delta     int     the amount being changed
+     * @return  Component   null, the change stops here
      */
     @Override
-    protected void changeDraw(int delta) {
-        draw = draw + delta;
+    protected Component passDraw(int delta) {
+        addDraw(delta);
         Reporter.report(this, Reporter.Msg.DRAW_CHANGE, delta);
+        return null;
     }
 
     /**
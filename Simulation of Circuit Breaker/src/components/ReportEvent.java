@@ -0,0 +1,136 @@
+package components;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * One Reporter event, captured at the moment it happened so that it can be
+ * formatted later on another thread. Only the values that Reporter.identify
+ * would print are copied out of the Components, since the Components keep
+ * changing after the event is queued.
+ *
+ * @author Feng Jiang
+ */
+final class ReportEvent {
+
+    /**
+     * the event key and its numerical quantity, if it has one
+     */
+    final Reporter.Msg msg;
+    final boolean hasParam;
+    final int param;
+
+    /**
+     * what identify() shows for the first Component
+     */
+    final Class< ? > type1;
+    final String name1;
+    final boolean on1;
+    final int draw1;
+    final int value1;
+
+    /**
+     * what identify() shows for the second Component, type2 is null when
+     * only one Component is involved
+     */
+    final Class< ? > type2;
+    final String name2;
+    final boolean on2;
+    final int draw2;
+    final int value2;
+
+    /**
+     * set only on the markers that flush and close put in the queue
+     */
+    private final CountDownLatch flushed;
+    private final boolean stop;
+
+    /**
+     * Capture an event.
+     * @param comp1 the first Component involved
+     * @param comp2 the second Component involved, or null
+     * @param msg the event key
+     * @param hasParam true if param should be printed
+     * @param param the numerical quantity of interest
+     */
+    ReportEvent( Component comp1, Component comp2, Reporter.Msg msg,
+                 boolean hasParam, int param ) {
+        this.msg = msg;
+        this.hasParam = hasParam;
+        this.param = param;
+        this.type1 = comp1.getClass();
+        this.name1 = comp1.getName();
+        this.on1 = Reporter.switchedOn( comp1 );
+        this.draw1 = comp1.getDraw();
+        this.value1 = Reporter.detail( comp1 );
+        if ( comp2 != null ) {
+            this.type2 = comp2.getClass();
+            this.name2 = comp2.getName();
+            this.on2 = Reporter.switchedOn( comp2 );
+            this.draw2 = comp2.getDraw();
+            this.value2 = Reporter.detail( comp2 );
+        }
+        else {
+            this.type2 = null;
+            this.name2 = null;
+            this.on2 = false;
+            this.draw2 = 0;
+            this.value2 = 0;
+        }
+        this.flushed = null;
+        this.stop = false;
+    }
+
+    /**
+     * Make a marker that carries no event.
+     * @param flushed counted down once the marker has been written
+     * @param stop true if the writer stops at this marker
+     */
+    private ReportEvent( CountDownLatch flushed, boolean stop ) {
+        this.msg = null;
+        this.hasParam = false;
+        this.param = 0;
+        this.type1 = null;
+        this.name1 = null;
+        this.on1 = false;
+        this.draw1 = 0;
+        this.value1 = 0;
+        this.type2 = null;
+        this.name2 = null;
+        this.on2 = false;
+        this.draw2 = 0;
+        this.value2 = 0;
+        this.flushed = flushed;
+        this.stop = stop;
+    }
+
+    /**
+     * @param flushed counted down once everything before the marker is
+     *                written
+     * @param stop true if the writer should stop at this marker
+     * @return a marker to put in the writer's queue
+     */
+    static ReportEvent marker( CountDownLatch flushed, boolean stop ) {
+        return new ReportEvent( flushed, stop );
+    }
+
+    /**
+     * @return true if this is a marker and not a real event
+     */
+    boolean isMarker() {
+        return flushed != null;
+    }
+
+    /**
+     * @return true if this is the marker the writer stops at
+     */
+    boolean isStopMarker() {
+        return stop;
+    }
+
+    /**
+     * Tell whoever is waiting on this marker that it has been written.
+     */
+    void release() {
+        flushed.countDown();
+    }
+}
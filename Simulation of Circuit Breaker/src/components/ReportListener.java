@@ -0,0 +1,87 @@
+package components;
+
+/**
+ * Told about the events Components report, as they are reported, with
+ * the numbers as numbers instead of formatted into a line. Register one
+ * with Reporter.subscribe. Every method does nothing unless overridden,
+ * so a listener only implements what it wants to hear about.
+ * <br><br>
+ * Listeners are called on the thread that changed the Component, in
+ * the middle of the change, so they should be quick and must not change
+ * Components themselves. They hear about every event they subscribed
+ * to, whether or not Reporter is printing that kind of event.
+ *
+ * @author Feng Jiang
+ */
+public interface ReportListener {
+
+    /**
+     * A Component is being made. Its own constructor has not finished,
+     * so only its name and id can be relied on.
+     * @param comp the Component
+     */
+    default void onCreate( Component comp ) {
+    }
+
+    /**
+     * A load is being attached to a source.
+     * @param source the source
+     * @param load the load
+     */
+    default void onAttach( Component source, Component load ) {
+    }
+
+    /**
+     * A load is being unplugged from its source, to be left without one
+     * or moved to another.
+     * @param source the source
+     * @param load the load
+     */
+    default void onDetach( Component source, Component load ) {
+    }
+
+    /**
+     * A Component's source is now powering it.
+     * @param comp the Component
+     */
+    default void onEngage( Component comp ) {
+    }
+
+    /**
+     * A Component's source has stopped powering it.
+     * @param comp the Component
+     */
+    default void onDisengage( Component comp ) {
+    }
+
+    /**
+     * A switch was turned on or off.
+     * @param comp the Appliance or CircuitBreaker
+     * @param on true if it was turned on
+     */
+    default void onSwitch( Component comp, boolean on ) {
+    }
+
+    /**
+     * The current drawn through a Component changed.
+     * @param comp the Component
+     * @param delta how much it changed by
+     */
+    default void onDrawChange( Component comp, int delta ) {
+    }
+
+    /**
+     * A circuit breaker blew.
+     * @param breaker the breaker
+     * @param draw the current it would have had to carry
+     */
+    default void onTrip( CircuitBreaker breaker, int draw ) {
+    }
+
+    /**
+     * A power source is being powered up.
+     * @param comp the power source
+     */
+    default void onPowerUp( Component comp ) {
+    }
+}
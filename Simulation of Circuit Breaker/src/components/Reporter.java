@@ -1,5 +1,13 @@
 package components;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,6 +26,12 @@ public class Reporter {
      */
     private static final Map< Integer, String > usageErrors = new HashMap<>();
 
+    /**
+     * how report lines are encoded, whichever way they are written; the
+     * same as System.out, so they match everything else printed there
+     */
+    static final Charset OUTPUT_CHARSET = Charset.defaultCharset();
+
     /**
      * Add a new error condition and its code.
      * @param code the "key" for the message and
@@ -44,6 +58,9 @@ public class Reporter {
      * @see #addError
      */
     public static void usageError( int errNum, String... line ) {
+        flush();
+        closeEventLog();
+        Metrics.stopDumping();
         System.err.println( usageErrors.get( errNum ) );
         if ( line.length > 0 ) {
             System.err.print( "\tArguments read were (" );
@@ -53,6 +70,31 @@ public class Reporter {
         System.exit( errNum );
     }
 
+    /**
+     * When a problem is found with one command out of many, this method
+     * is called instead of usageError. The same information is printed,
+     * headed by where the command was, but the program carries on.
+     *
+     * @param errNum the integer assigned to this type of error
+     * @param lineNumber the line the command was on, counting from 1
+     * @param line (optional) other values of interest, as for usageError
+     *
+     * @see #usageError
+     */
+    public static void commandError( int errNum, long lineNumber,
+                                     String... line ) {
+        flush();
+        System.err.println( "line " + lineNumber + ": " +
+                            usageErrors.get( errNum ) );
+        if ( line.length > 0 ) {
+            System.err.print( "\tArguments read were (" );
+            for ( String arg: line ) {
+                System.err.print( ' ' + arg );
+            }
+            System.err.println( " )" );
+        }
+    }
+
     /**
      * All normal status messages for the simulation
      */
@@ -65,7 +107,8 @@ public class Reporter {
         BLOWN( "has blown; current would be" ),
         DRAW_CHANGE( "draw change"),
         ATTACHING( "attaching-->"),
-        POWERING_UP( "powering up" );
+        POWERING_UP( "powering up" ),
+        DETACHING( "detaching-/->" );
 
         private final String message;
 
@@ -74,6 +117,434 @@ public class Reporter {
         }
     }
 
+    /**
+     * One bit per Msg, set if events with that key are reported.
+     * Everything is reported until told otherwise.
+     */
+    private static volatile int enabledMsgs = ( 1 << Msg.values().length ) - 1;
+
+    /**
+     * Report events with these keys from now on.
+     * @param msgs the event keys to turn on
+     */
+    public static synchronized void enable( Msg... msgs ) {
+        int mask = enabledMsgs;
+        for ( Msg msg: msgs ) {
+            mask |= 1 << msg.ordinal();
+        }
+        enabledMsgs = mask;
+    }
+
+    /**
+     * Stop reporting events with these keys. Reporting a disabled
+     * event costs one bit test and nothing else.
+     * @param msgs the event keys to turn off
+     */
+    public static synchronized void disable( Msg... msgs ) {
+        int mask = enabledMsgs;
+        for ( Msg msg: msgs ) {
+            mask &= ~( 1 << msg.ordinal() );
+        }
+        enabledMsgs = mask;
+    }
+
+    /**
+     * Turn every event key on or off at once.
+     * @param on true to report everything, false to report nothing
+     */
+    public static synchronized void setAllEnabled( boolean on ) {
+        enabledMsgs = on ? ( 1 << Msg.values().length ) - 1 : 0;
+    }
+
+    /**
+     * @return the event keys being reported right now, to hand
+     *         back to enable after a quiet stretch
+     */
+    public static Msg[] enabledMsgs() {
+        final int mask = enabledMsgs;
+        final Msg[] all = Msg.values();
+        int count = 0;
+        for ( Msg msg: all ) {
+            if ( ( mask & ( 1 << msg.ordinal() ) ) != 0 ) {
+                count++;
+            }
+        }
+        final Msg[] on = new Msg[ count ];
+        count = 0;
+        for ( Msg msg: all ) {
+            if ( ( mask & ( 1 << msg.ordinal() ) ) != 0 ) {
+                on[ count++ ] = msg;
+            }
+        }
+        return on;
+    }
+
+    /**
+     * @param msg an event key
+     * @return true if events with this key are being reported
+     */
+    public static boolean isEnabled( Msg msg ) {
+        return ( enabledMsgs & ( 1 << msg.ordinal() ) ) != 0;
+    }
+
+    /**
+     * The subscriptions that want each event key, indexed by the key's
+     * ordinal. The arrays are replaced, never changed, so reporting
+     * reads them without taking a lock.
+     */
+    private static volatile Subscription[][] subscribers =
+            new Subscription[ Msg.values().length ][ 0 ];
+
+    /**
+     * One bit per Msg, set if some subscription wants events with that
+     * key. An event nobody listens to costs one bit test.
+     */
+    private static volatile int listenedMsgs = 0;
+
+    /**
+     * Tell a listener about events with these keys, whichever
+     * Component they are about.
+     * @param listener who is told
+     * @param msgs the event keys wanted; none means every key
+     * @return the subscription, to cancel later
+     */
+    public static Subscription subscribe( ReportListener listener,
+                                          Msg... msgs ) {
+        return add( new Subscription( listener, null, false, mask( msgs ) ) );
+    }
+
+    /**
+     * Tell a listener about events with these keys that are about one
+     * Component.
+     * @param listener who is told
+     * @param comp the Component
+     * @param msgs the event keys wanted; none means every key
+     * @return the subscription, to cancel later
+     */
+    public static Subscription subscribe( ReportListener listener,
+                                          Component comp, Msg... msgs ) {
+        return add( new Subscription( listener, comp, false, mask( msgs ) ) );
+    }
+
+    /**
+     * Tell a listener about events with these keys that are about a
+     * Component or anything below it. Whether an event is wanted is
+     * found by walking up from its Component, so it costs as much as
+     * how deep the Component is.
+     * @param listener who is told
+     * @param top the top of the subtree
+     * @param msgs the event keys wanted; none means every key
+     * @return the subscription, to cancel later
+     */
+    public static Subscription subscribeSubtree( ReportListener listener,
+                                                 Component top,
+                                                 Msg... msgs ) {
+        return add( new Subscription( listener, top, true, mask( msgs ) ) );
+    }
+
+    /**
+     * @param msgs some event keys
+     * @return one bit per key, every bit if there are none
+     */
+    private static int mask( Msg... msgs ) {
+        if ( msgs.length == 0 ) {
+            return ( 1 << Msg.values().length ) - 1;
+        }
+        int mask = 0;
+        for ( Msg msg: msgs ) {
+            mask |= 1 << msg.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * Register a subscription under every key it wants.
+     * @param subscription the subscription
+     * @return the subscription
+     */
+    private static synchronized Subscription add( Subscription subscription ) {
+        final Subscription[][] lists = subscribers.clone();
+        for ( int k = 0; k < lists.length; k++ ) {
+            if ( ( subscription.msgs & ( 1 << k ) ) != 0 ) {
+                final Subscription[] list =
+                        Arrays.copyOf( lists[ k ], lists[ k ].length + 1 );
+                list[ list.length - 1 ] = subscription;
+                lists[ k ] = list;
+            }
+        }
+        publishLists( lists );
+        return subscription;
+    }
+
+    /**
+     * Stop telling a subscription about anything; does nothing if it
+     * was cancelled already.
+     * @param subscription the subscription
+     */
+    static synchronized void unsubscribe( Subscription subscription ) {
+        final Subscription[][] lists = subscribers.clone();
+        for ( int k = 0; k < lists.length; k++ ) {
+            int n = 0;
+            final Subscription[] list = new Subscription[ lists[ k ].length ];
+            for ( Subscription other: lists[ k ] ) {
+                if ( other != subscription ) {
+                    list[ n++ ] = other;
+                }
+            }
+            lists[ k ] = Arrays.copyOf( list, n );
+        }
+        publishLists( lists );
+    }
+
+    /**
+     * Make new subscription lists the ones reporting uses.
+     * @param lists the lists, by event key
+     */
+    private static void publishLists( Subscription[][] lists ) {
+        int listened = 0;
+        for ( int k = 0; k < lists.length; k++ ) {
+            if ( lists[ k ].length > 0 ) {
+                listened |= 1 << k;
+            }
+        }
+        subscribers = lists;
+        listenedMsgs = listened;
+    }
+
+    /**
+     * Tell every subscription that wants it about an event.
+     * @param comp1 the first Component involved
+     * @param comp2 the second Component involved, or null
+     * @param msg the event key
+     * @param param the numerical quantity, 0 if there is none
+     */
+    private static void publish( Component comp1, Component comp2, Msg msg,
+                                 int param ) {
+        for ( Subscription subscription: subscribers[ msg.ordinal() ] ) {
+            if ( subscription.accepts( comp1 ) ) {
+                subscription.deliver( comp1, comp2, msg, param );
+            }
+        }
+    }
+
+    /**
+     * What to do with an event when asynchronous output is on and
+     * the queue of unwritten events is full.
+     */
+    public enum Overflow {
+        /** wait until the writer has made room */
+        BLOCK,
+        /** throw the event away and count it */
+        DROP
+    }
+
+    /**
+     * The background writer, or null when events are printed
+     * as they happen.
+     */
+    private static volatile AsyncReportWriter asyncWriter = null;
+
+    /**
+     * Events dropped by writers that have been stopped.
+     */
+    private static long droppedBefore = 0;
+
+    /**
+     * Whether the hook that flushes the writer and closes the event
+     * log when the program ends has been added. It is added once and
+     * deals with whatever writer and log are in use at the end.
+     */
+    private static boolean shutdownHookAdded = false;
+
+    /**
+     * Add the shutdown hook, unless it is there already.
+     */
+    private static synchronized void addShutdownHook() {
+        if ( shutdownHookAdded ) {
+            return;
+        }
+        shutdownHookAdded = true;
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+            flush();
+            closeEventLog();
+        }, "reporter-shutdown" ) );
+    }
+
+    /**
+     * Stop printing events as they happen. From now on events are
+     * queued and a background thread writes them to standard output
+     * in batches.
+     *
+     * @param capacity the most events that may wait to be written
+     * @param policy what to do with an event when the queue is full
+     */
+    public static void useAsyncOutput( int capacity, Overflow policy ) {
+        useAsyncOutput( System.out, capacity, policy );
+    }
+
+    /**
+     * Stop printing events as they happen. From now on events are
+     * queued and a background thread writes them to the given stream
+     * in batches.
+     *
+     * @param out where the event lines are written
+     * @param capacity the most events that may wait to be written
+     * @param policy what to do with an event when the queue is full
+     */
+    public static synchronized void useAsyncOutput(
+            OutputStream out, int capacity, Overflow policy ) {
+        stopAsyncOutput();
+        addShutdownHook();
+        asyncWriter = new AsyncReportWriter( out, capacity, policy );
+    }
+
+    /**
+     * Write out every queued event and go back to printing events
+     * as they happen. Does nothing if output is not asynchronous.
+     */
+    public static synchronized void stopAsyncOutput() {
+        final AsyncReportWriter writer = asyncWriter;
+        if ( writer != null ) {
+            asyncWriter = null;
+            writer.close();
+            droppedBefore += writer.dropped();
+        }
+    }
+
+    /**
+     * Wait until every event reported so far has been written.
+     * Call this before printing anything else to the same stream
+     * so the output comes out in the right order.
+     */
+    public static void flush() {
+        final AsyncReportWriter writer = asyncWriter;
+        if ( writer != null ) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * @return how many events were thrown away because the queue was
+     *         full under the DROP policy, counting writers that have
+     *         been stopped since
+     */
+    public static synchronized long droppedEvents() {
+        final AsyncReportWriter writer = asyncWriter;
+        return droppedBefore + ( writer == null ? 0 : writer.dropped() );
+    }
+
+    /**
+     * How identify treats a Component, worked out once per class.
+     */
+    private static final class TypeInfo {
+        static final int OTHER = 0;
+        static final int APPLIANCE = 1;
+        static final int BREAKER = 2;
+
+        final String simpleName;
+        final int kind;
+
+        TypeInfo( Class< ? > type ) {
+            simpleName = type.getSimpleName();
+            if ( Appliance.class.isAssignableFrom( type ) ) {
+                kind = APPLIANCE;
+            }
+            else if ( CircuitBreaker.class.isAssignableFrom( type ) ) {
+                kind = BREAKER;
+            }
+            else {
+                kind = OTHER;
+            }
+        }
+    }
+
+    /**
+     * Cached TypeInfo for every Component class seen so far.
+     */
+    private static final ClassValue< TypeInfo > typeInfo =
+            new ClassValue<>() {
+                @Override
+                protected TypeInfo computeValue( Class< ? > type ) {
+                    return new TypeInfo( type );
+                }
+            };
+
+    /**
+     * A line being built for standard output, and the bytes it is
+     * encoded into. There is one per thread and it is reused for
+     * every event, so printing an event allocates nothing.
+     */
+    private static final class LineBuffer {
+        private static final int SIZE = 512;
+
+        final StringBuilder text = new StringBuilder( SIZE );
+        private final CharsetEncoder encoder = OUTPUT_CHARSET.newEncoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        private ByteBuffer bytes = ByteBuffer.allocate( SIZE * 2 );
+
+        /**
+         * @return the empty text buffer
+         */
+        StringBuilder start() {
+            text.setLength( 0 );
+            return text;
+        }
+
+        /**
+         * Print the text followed by a line separator.
+         */
+        void println() {
+            text.append( System.lineSeparator() );
+            final int needed = (int)Math.ceil(
+                    text.length() * encoder.maxBytesPerChar() );
+            if ( needed > bytes.capacity() ) {
+                bytes = ByteBuffer.allocate( needed );
+            }
+            bytes.clear();
+            encoder.reset();
+            final CharBuffer chars = CharBuffer.wrap( text );
+            encoder.encode( chars, bytes, true );
+            encoder.flush( bytes );
+            System.out.write( bytes.array(), 0, bytes.position() );
+        }
+    }
+
+    private static final ThreadLocal< LineBuffer > lineBuffer =
+            ThreadLocal.withInitial( LineBuffer::new );
+
+    /**
+     * The binary log that every event also goes to, or null.
+     */
+    private static volatile BinaryEventLog eventLog = null;
+
+    /**
+     * Also write every event, enabled or not, to a binary log.
+     * Any log already in use is closed first.
+     * @param log the log to write to
+     */
+    public static synchronized void logTo( BinaryEventLog log ) {
+        closeEventLog();
+        eventLog = log;
+        addShutdownHook();
+    }
+
+    /**
+     * Close the binary log, if there is one, and stop writing to it.
+     */
+    public static synchronized void closeEventLog() {
+        final BinaryEventLog log = eventLog;
+        if ( log != null ) {
+            eventLog = null;
+            try {
+                log.close();
+            }
+            catch ( IOException ioe ) {
+                System.err.println( "Could not finish event log: " + ioe );
+            }
+        }
+    }
+
     /**
      * Build a string that identifies a Component in a
      * way that is appropriate for its type.
@@ -97,60 +568,186 @@ public class Reporter {
      *         )
      */
     public static String identify( Component comp ) {
-        String identity =
-                comp.getClass().getSimpleName() + " " + comp.getName();
-        if ( comp instanceof Appliance ) {
-            final Appliance appl = (Appliance)comp;
-            identity += "(" + (appl.isSwitchOn()?"on":"off");
-            identity += "; rating " + appl.getRating() + ")";
-        }
-        else if ( comp instanceof CircuitBreaker ) {
-            final CircuitBreaker cb = (CircuitBreaker)comp;
-            identity += "(" + (cb.isSwitchOn()?"on":"off");
-            identity += "; draw " + comp.getDraw() +
-                        "; limit " + cb.getLimit() + ")";
+        final StringBuilder identity = new StringBuilder();
+        identify( comp, identity );
+        return identity.toString();
+    }
+
+    /**
+     * Same as identify( comp ), but the identity is appended to
+     * a buffer the caller owns instead of making a new String.
+     *
+     * @param comp the Component to identify
+     * @param out where the identity goes
+     * @return out
+     */
+    public static StringBuilder identify( Component comp, StringBuilder out ) {
+        appendIdentity( out, comp.getClass(), comp.getName(),
+                        switchedOn( comp ), comp.getDraw(),
+                        detail( comp ) );
+        return out;
+    }
+
+    /**
+     * @param comp a Component
+     * @return true if the Component is a switch that is on
+     */
+    static boolean switchedOn( Component comp ) {
+        return comp instanceof Switcher && ( (Switcher)comp ).isSwitchOn();
+    }
+
+    /**
+     * @param comp a Component
+     * @return the rating of an Appliance, the limit of a CircuitBreaker,
+     *         0 for anything else
+     */
+    static int detail( Component comp ) {
+        switch ( typeInfo.get( comp.getClass() ).kind ) {
+            case TypeInfo.APPLIANCE:
+                return ( (Appliance)comp ).getRating();
+            case TypeInfo.BREAKER:
+                return ( (CircuitBreaker)comp ).getLimit();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Append the identity of a Component, given the values that
+     * identify would look up on it.
+     * @param out where the identity goes
+     * @param type the Component's class
+     * @param name the Component's name
+     * @param on whether the Component is switched on
+     * @param draw the Component's draw
+     * @param value the Component's rating or limit, see detail
+     */
+    private static void appendIdentity( StringBuilder out, Class< ? > type,
+                                        String name, boolean on,
+                                        int draw, int value ) {
+        final TypeInfo info = typeInfo.get( type );
+        out.append( info.simpleName ).append( ' ' ).append( name );
+        switch ( info.kind ) {
+            case TypeInfo.APPLIANCE:
+                out.append( '(' ).append( on ? "on" : "off" );
+                out.append( "; rating " ).append( value ).append( ')' );
+                break;
+            case TypeInfo.BREAKER:
+                out.append( '(' ).append( on ? "on" : "off" );
+                out.append( "; draw " ).append( draw );
+                out.append( "; limit " ).append( value ).append( ')' );
+                break;
+            default:
+                out.append( "(draw " ).append( draw ).append( ')' );
+        }
+    }
+
+    /**
+     * Format a captured event the same way the synchronous
+     * report methods print it, minus the line separator.
+     * @param out where the text goes
+     * @param event the event to format
+     */
+    static void format( StringBuilder out, ReportEvent event ) {
+        appendIdentity( out, event.type1, event.name1, event.on1,
+                        event.draw1, event.value1 );
+        if ( event.type2 != null ) {
+            out.append( ' ' ).append( event.msg.message ).append( ' ' );
+            appendIdentity( out, event.type2, event.name2, event.on2,
+                            event.draw2, event.value2 );
         }
         else {
-            identity += "(draw " + comp.getDraw() + ")";
+            out.append( ": " ).append( event.msg.message );
+            if ( event.hasParam ) {
+                out.append( ' ' ).append( event.param );
+            }
         }
-        return identity;
     }
 
     /**
      * Print a message about an event involving one Component.
+     * Nothing happens if the event key is disabled.
      * @param comp the Component involved
      * @param msg the event key
      */
     public static void report( Component comp, Msg msg ) {
-        String eventMsg = identify( comp );
-        eventMsg += ": " + msg.message;
-        System.out.println( eventMsg );
+        final BinaryEventLog log = eventLog;
+        if ( log != null ) {
+            log.append( comp, msg, 0 );
+        }
+        if ( ( listenedMsgs & ( 1 << msg.ordinal() ) ) != 0 ) {
+            publish( comp, null, msg, 0 );
+        }
+        if ( !isEnabled( msg ) ) {
+            return;
+        }
+        final AsyncReportWriter writer = asyncWriter;
+        if ( writer != null ) {
+            writer.submit( new ReportEvent( comp, null, msg, false, 0 ) );
+            return;
+        }
+        final LineBuffer line = lineBuffer.get();
+        identify( comp, line.start() ).append( ": " ).append( msg.message );
+        line.println();
     }
 
     /**
      * Print a message about an event involving one Component
      * and a numerical value.
+     * Nothing happens if the event key is disabled.
      * @param comp the Component involved
      * @param msg the event key
      * @param param the numerical quantity of interest
      */
     public static void report( Component comp, Msg msg, int param ) {
-        String eventMsg = identify( comp );
-        eventMsg += ": " + msg.message;
-        eventMsg += " " + param;
-        System.out.println( eventMsg );
+        final BinaryEventLog log = eventLog;
+        if ( log != null ) {
+            log.append( comp, msg, param );
+        }
+        if ( ( listenedMsgs & ( 1 << msg.ordinal() ) ) != 0 ) {
+            publish( comp, null, msg, param );
+        }
+        if ( !isEnabled( msg ) ) {
+            return;
+        }
+        final AsyncReportWriter writer = asyncWriter;
+        if ( writer != null ) {
+            writer.submit( new ReportEvent( comp, null, msg, true, param ) );
+            return;
+        }
+        final LineBuffer line = lineBuffer.get();
+        identify( comp, line.start() ).append( ": " ).append( msg.message )
+                .append( ' ' ).append( param );
+        line.println();
     }
 
     /**
      * Print a message about an event that involves two Components.
+     * Nothing happens if the event key is disabled.
      * @param comp1 the first Component involved
      * @param comp2 the second Component involved
      * @param msg the event key
      */
     public static void report( Component comp1, Component comp2, Msg msg ) {
-        String eventMsg = identify( comp1 );
-        eventMsg += ' ' + msg.message + ' ';
-        eventMsg += identify( comp2 );
-        System.out.println( eventMsg );
+        final BinaryEventLog log = eventLog;
+        if ( log != null ) {
+            log.append( comp1, comp2, msg );
+        }
+        if ( ( listenedMsgs & ( 1 << msg.ordinal() ) ) != 0 ) {
+            publish( comp1, comp2, msg, 0 );
+        }
+        if ( !isEnabled( msg ) ) {
+            return;
+        }
+        final AsyncReportWriter writer = asyncWriter;
+        if ( writer != null ) {
+            writer.submit( new ReportEvent( comp1, comp2, msg, false, 0 ) );
+            return;
+        }
+        final LineBuffer line = lineBuffer.get();
+        identify( comp1, line.start() )
+                .append( ' ' ).append( msg.message ).append( ' ' );
+        identify( comp2, line.text );
+        line.println();
     }
 }
@@ -0,0 +1,270 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A discrete-event clock for the simulation. Switching is scheduled for a time, in whatever unit the caller chooses
+ * (seconds, say), and run in time order; switching scheduled for the same time runs in the order it was scheduled.
+ * Everything that happens at one time goes through one Transaction, so a crowd of appliances switching in the same
+ * second passes its draw up the tree once.
+ * <br><br>
+ * The events are kept in a binary heap of primitive columns, the time, the order it was scheduled in, the component id
+ * and what to do, so scheduling millions of them makes no garbage. Periodic ticks, for models that need to see time go
+ * by even when nothing is switched, are events in the same heap.
+ *
+ * @author Feng Jiang
+ */
+public class Scheduler {
+
+    /**
+     * what can be done to a switchable component
+     */
+    public enum Action {
+        TURN_ON, TURN_OFF, TOGGLE
+    }
+
+    /**
+     * something called at a regular interval of simulated time
+     */
+    public interface Tick {
+        /**
+         * @param now   long    the simulated time
+         */
+        void tick(long now);
+    }
+
+    private static final byte TICK = -1;
+    private static final Action[] ACTIONS = Action.values();
+
+    /**
+     * the heap, entry i is at index i of each column
+     */
+    private long[] times = new long[64];
+    private long[] orders = new long[64];
+    private int[] targets = new int[64];           // component id, or tick number for a tick
+    private byte[] ops = new byte[64];             // Action ordinal, or TICK
+    private int size;
+
+    private Component[] byId = new Component[64];
+    private final ArrayList<Tick> ticks = new ArrayList<>();
+    private final ArrayList<Long> intervals = new ArrayList<>();
+    private final Transaction transaction = new Transaction();
+
+    private long now;
+    private long nextOrder;
+    private long processed;
+    private long busyNanos;
+
+    /**
+     * a scheduler whose clock starts at 0
+     */
+    public Scheduler() {
+        this(0);
+    }
+
+    /**
+     * @param start     long    the time the clock starts at
+     */
+    public Scheduler(long start) {
+        this.now = start;
+    }
+
+    /**
+     * @return  long    the simulated time, that of the last event run
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * @return  int     how many events are waiting
+     */
+    public int pending() {
+        return size;
+    }
+
+    /**
+     * @return  long    how many events have been run, ticks included
+     */
+    public long processed() {
+        return processed;
+    }
+
+    /**
+     * @return  double  events run per second of real time spent running them
+     */
+    public double eventsPerSecond() {
+        return busyNanos == 0 ? 0 : processed * 1e9 / busyNanos;
+    }
+
+    /**
+     * schedule switching of a component
+     * @param time  long    when, not before the current time
+     * @param comp  Component   a switchable component
+     * @param action    Action  what to do to it
+     * @throws IllegalArgumentException     if the time has passed or the component cannot be switched
+     */
+    public void schedule(long time, Component comp, Action action) {
+        if (!(comp instanceof Switcher)) {
+            throw new IllegalArgumentException(comp.getName() + " cannot be switched");
+        }
+        int id = comp.getId();
+        if (id >= byId.length) {
+            byId = Arrays.copyOf(byId, Math.max(byId.length * 2, id + 1));
+        }
+        byId[id] = comp;
+        push(time, id, (byte) action.ordinal());
+    }
+
+    /**
+     * call something at regular intervals, starting one interval from now
+     * @param interval  long    the time between calls, more than 0
+     * @param tick  Tick    what to call
+     */
+    public void every(long interval, Tick tick) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        ticks.add(tick);
+        intervals.add(interval);
+        push(now + interval, ticks.size() - 1, TICK);
+    }
+
+    /**
+     * Run every event up to and including the given time, in order. The clock is left at that time.
+     * @param end   long    the time to run to
+     * @return  long    how many events were run
+     */
+    public long runUntil(long end) {
+        long started = System.nanoTime();
+        long count = 0;
+        while (size > 0 && times[0] <= end) {
+            long time = times[0];
+            int target = targets[0];
+            byte op = ops[0];
+            pop();
+            if (time != now) {
+                transaction.commit();       // everything at the last time is done
+                now = time;
+            }
+            if (op == TICK) {
+                transaction.commit();
+                ticks.get(target).tick(now);
+                push(now + intervals.get(target), target, TICK);
+            } else {
+                apply(byId[target], ACTIONS[op]);
+            }
+            count++;
+        }
+        transaction.commit();
+        now = Math.max(now, end);
+        processed += count;
+        busyNanos += System.nanoTime() - started;
+        return count;
+    }
+
+    /**
+     * Run until no switching is left. Ticks go on forever, so with ticks this stops after the last switching.
+     * @return  long    how many events were run
+     */
+    public long runAll() {
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] != TICK) {
+                last = Math.max(last, times[i]);
+            }
+        }
+        return last == Long.MIN_VALUE ? 0 : runUntil(last);
+    }
+
+    /**
+     * @param comp  Component   the component
+     * @param action    Action  what to do to it
+     */
+    private void apply(Component comp, Action action) {
+        boolean on = ((Switcher) comp).isSwitchOn();
+        if (action == Action.TOGGLE || (action == Action.TURN_ON) != on) {
+            transaction.toggle(comp);
+        }
+    }
+
+    /**
+     * add an entry to the heap
+     */
+    private void push(long time, int target, byte op) {
+        if (time < now) {
+            throw new IllegalArgumentException("time " + time + " has already passed, it is " + now);
+        }
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            orders = Arrays.copyOf(orders, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            ops = Arrays.copyOf(ops, capacity);
+        }
+        int i = size++;
+        long order = nextOrder++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(time, order, parent)) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, time, order, target, op);
+    }
+
+    /**
+     * take the first entry off the heap
+     */
+    private void pop() {
+        size--;
+        if (size == 0) {
+            return;
+        }
+        long time = times[size];
+        long order = orders[size];
+        int target = targets[size];
+        byte op = ops[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && before(times[child + 1], orders[child + 1], child)) {
+                child++;
+            }
+            if (before(time, order, child)) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, time, order, target, op);
+    }
+
+    /**
+     * @return  boolean     true if an entry with this time and order runs before entry j
+     */
+    private boolean before(long time, long order, int j) {
+        return time < times[j] || (time == times[j] && order < orders[j]);
+    }
+
+    /**
+     * copy entry from into slot to
+     */
+    private void move(int from, int to) {
+        set(to, times[from], orders[from], targets[from], ops[from]);
+    }
+
+    /**
+     * fill in slot i of every column
+     */
+    private void set(int i, long time, long order, int target, byte op) {
+        times[i] = time;
+        orders[i] = order;
+        targets[i] = target;
+        ops[i] = op;
+    }
+}
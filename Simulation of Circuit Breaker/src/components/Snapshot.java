@@ -0,0 +1,319 @@
+package components;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a whole component graph, structure and state, to a binary file and
+ * builds it back again without replaying the configuration. The file is
+ * laid out in columns so that loading is a handful of bulk copies out of a
+ * memory-mapped file:
+ * <pre>
+ *   int    magic "OVSN", version, component count, name bytes
+ *   byte   kind of each component (FlatTopology.SOURCE, BREAKER, ...)
+ *   int    index of each component's source, -1 if it has none
+ *   int    limit or rating of each component
+ *   int    draw of each component
+ *   int    draw of each breaker before its last change, 0 for the rest
+ *   byte   flags of each component: switched on, engaged, overloaded
+ *   int    where each name starts in the name bytes, plus one for the end
+ *   byte   the names, UTF-8
+ * </pre>
+ * Every component comes after its source. Little-endian throughout.
+ * A component with no source is a power source, or the top of a subtree
+ * that was detached; it is saved as what it is and comes back detached.
+ * A breaker's trip curve and heat are not saved; it comes back
+ * tripping instantly, as a breaker built from a configuration does.
+ *
+ * @author Feng Jiang
+ */
+public class Snapshot {
+
+    static final int MAGIC = 0x4F56534E; // "OVSN"
+    static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * bytes per component, besides its name and where the name starts
+     */
+    private static final int ROW_SIZE = 18;
+
+    private static final byte POWER = 1;
+    private static final byte ENGAGED = 2;
+    private static final byte OVERLOADED = 4;
+
+    /**
+     * Write every power source in the collection, and everything below
+     * it, to a snapshot file.
+     * @param components the components; the power sources among them
+     *                   are saved with their whole trees
+     * @param file where to write the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    public static void write( Collection< ? extends Component > components,
+                              Path file ) throws IOException {
+        final ArrayList< Component > order = new ArrayList<>();
+        final ArrayList< Component > pending = new ArrayList<>();
+        for ( Component root: components ) {
+            if ( root.getSource() != null ) {
+                continue;
+            }
+            pending.add( root );
+            while ( !pending.isEmpty() ) {
+                final Component comp = pending.remove( pending.size() - 1 );
+                order.add( comp );
+                final ArrayList< Component > loads = comp.getLoads();
+                for ( int k = loads.size() - 1; k >= 0; k-- ) {
+                    pending.add( loads.get( k ) );
+                }
+            }
+        }
+        final int n = order.size();
+        final Map< Component, Integer > index = new IdentityHashMap<>( n );
+        final byte[][] names = new byte[ n ][];
+        long nameBytes = 0;
+        for ( int i = 0; i < n; i++ ) {
+            index.put( order.get( i ), i );
+            names[ i ] = order.get( i ).getName()
+                                       .getBytes( StandardCharsets.UTF_8 );
+            nameBytes += names[ i ].length;
+        }
+        final long size =
+                HEADER_SIZE + (long)ROW_SIZE * n + 4L * ( n + 1 ) + nameBytes;
+        if ( size > Integer.MAX_VALUE ) {
+            throw new IOException( "snapshot would be too large to map" );
+        }
+        try ( FileChannel channel = FileChannel.open( file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            final MappedByteBuffer map = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, size );
+            map.order( ByteOrder.LITTLE_ENDIAN );
+            map.putInt( MAGIC ).putInt( VERSION ).putInt( n )
+               .putInt( (int)nameBytes );
+            for ( Component comp: order ) {
+                map.put( kindOf( comp ) );
+            }
+            for ( Component comp: order ) {
+                final Component source = comp.getSource();
+                map.putInt( source == null ? -1 : index.get( source ) );
+            }
+            for ( Component comp: order ) {
+                map.putInt( Reporter.detail( comp ) );
+            }
+            for ( Component comp: order ) {
+                map.putInt( comp.getDraw() );
+            }
+            for ( Component comp: order ) {
+                map.putInt( comp instanceof CircuitBreaker ?
+                            ( (CircuitBreaker)comp ).getOverDraw() : 0 );
+            }
+            for ( Component comp: order ) {
+                byte flags = 0;
+                if ( Reporter.switchedOn( comp ) ) {
+                    flags |= POWER;
+                }
+                if ( comp.engaged() ) {
+                    flags |= ENGAGED;
+                }
+                if ( comp.getOverloaded() ) {
+                    flags |= OVERLOADED;
+                }
+                map.put( flags );
+            }
+            int offset = 0;
+            for ( int i = 0; i < n; i++ ) {
+                map.putInt( offset );
+                offset += names[ i ].length;
+            }
+            map.putInt( offset );
+            for ( byte[] name: names ) {
+                map.put( name );
+            }
+            map.force();
+        }
+    }
+
+    /**
+     * @param comp a component
+     * @return its kind, as FlatTopology numbers them, whether or not it
+     *         has a source
+     */
+    private static byte kindOf( Component comp ) {
+        if ( comp instanceof PowerSource ) {
+            return FlatTopology.SOURCE;
+        }
+        else if ( comp instanceof CircuitBreaker ) {
+            return FlatTopology.BREAKER;
+        }
+        else if ( comp instanceof Appliance ) {
+            return FlatTopology.APPLIANCE;
+        }
+        return FlatTopology.OUTLET;
+    }
+
+    /**
+     * @param file any file
+     * @return true if the file starts like a snapshot
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshot( Path file ) throws IOException {
+        try ( FileChannel channel =
+                      FileChannel.open( file, StandardOpenOption.READ ) ) {
+            final ByteBuffer head =
+                    ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN );
+            while ( head.hasRemaining() && channel.read( head ) >= 0 ) {
+                // keep reading until the magic number is in
+            }
+            return !head.hasRemaining() && head.getInt( 0 ) == MAGIC;
+        }
+    }
+
+    /**
+     * Build the components saved in a snapshot, with their saved state.
+     * Nothing is reported while they are built.
+     * @param file the snapshot
+     * @return the components, every source before its loads
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static List< Component > read( Path file ) throws IOException {
+        final MappedByteBuffer map;
+        try ( FileChannel channel =
+                      FileChannel.open( file, StandardOpenOption.READ ) ) {
+            if ( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( file + " is not a snapshot" );
+            }
+            map = channel.map( FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size() );
+        }
+        map.order( ByteOrder.LITTLE_ENDIAN );
+        if ( map.limit() < HEADER_SIZE || map.getInt() != MAGIC ) {
+            throw new IOException( file + " is not a snapshot" );
+        }
+        if ( map.getInt() != VERSION ) {
+            throw new IOException( file + " is not a snapshot" );
+        }
+        final int n = map.getInt();
+        final int nameBytes = map.getInt();
+        if ( n < 0 || nameBytes < 0 || map.limit() != HEADER_SIZE +
+                (long)ROW_SIZE * n + 4L * ( n + 1 ) + nameBytes ) {
+            throw new IOException( file + " is damaged" );
+        }
+        final byte[] kinds = new byte[ n ];
+        final int[] sources = new int[ n ];
+        final int[] values = new int[ n ];
+        final int[] draws = new int[ n ];
+        final int[] overDraws = new int[ n ];
+        final byte[] flags = new byte[ n ];
+        final int[] offsets = new int[ n + 1 ];
+        final byte[] names = new byte[ nameBytes ];
+        map.get( kinds );
+        ints( map, sources );
+        ints( map, values );
+        ints( map, draws );
+        ints( map, overDraws );
+        map.get( flags );
+        ints( map, offsets );
+        map.get( names );
+
+        final Component[] built = new Component[ n ];
+        final Reporter.Msg[] wasEnabled = Reporter.enabledMsgs();
+        Reporter.setAllEnabled( false );
+        try {
+            for ( int i = 0; i < n; i++ ) {
+                final String name = new String( names, offsets[ i ],
+                        offsets[ i + 1 ] - offsets[ i ],
+                        StandardCharsets.UTF_8 );
+                final int s = sources[ i ];
+                if ( s >= i || ( s >= 0 && ( kinds[ i ] == FlatTopology.SOURCE
+                        || kinds[ s ] == FlatTopology.APPLIANCE ) ) ) {
+                    throw new IOException( file + " is damaged" );
+                }
+                if ( kinds[ i ] == FlatTopology.SOURCE ) {
+                    built[ i ] = new PowerSource( name );
+                }
+                else if ( s < 0 ) {
+                    built[ i ] = detached( kinds[ i ], name, values[ i ] );
+                }
+                else {
+                    built[ i ] = attached( kinds[ i ], name, built[ s ],
+                                           values[ i ] );
+                }
+            }
+        }
+        finally {
+            Reporter.enable( wasEnabled );
+        }
+        // Only now, so that attaching during the build engages nothing
+        for ( int i = 0; i < n; i++ ) {
+            built[ i ].restoreState( draws[ i ],
+                                     ( flags[ i ] & ENGAGED ) != 0,
+                                     ( flags[ i ] & OVERLOADED ) != 0,
+                                     ( flags[ i ] & POWER ) != 0 );
+            if ( built[ i ] instanceof CircuitBreaker ) {
+                ( (CircuitBreaker)built[ i ] ).restoreOverDraw( overDraws[ i ] );
+            }
+        }
+        return List.of( built );
+    }
+
+    /**
+     * Build a component under its source.
+     * @param kind what it is, as FlatTopology numbers them
+     * @param name its name
+     * @param source the component it is attached to
+     * @param value its limit or rating
+     * @return the component
+     */
+    private static Component attached( byte kind, String name,
+                                       Component source, int value ) {
+        switch ( kind ) {
+            case FlatTopology.BREAKER:
+                return new CircuitBreaker( name, source, value );
+            case FlatTopology.APPLIANCE:
+                return new Appliance( name, source, value );
+            default:
+                return new Outlet( name, source );
+        }
+    }
+
+    /**
+     * Build the top of a detached subtree, with no source.
+     * @param kind what it is, as FlatTopology numbers them
+     * @param name its name
+     * @param value its limit or rating
+     * @return the component
+     */
+    private static Component detached( byte kind, String name, int value ) {
+        switch ( kind ) {
+            case FlatTopology.BREAKER:
+                return new CircuitBreaker( name, value );
+            case FlatTopology.APPLIANCE:
+                return new Appliance( name, value );
+            default:
+                return new Outlet( name );
+        }
+    }
+
+    /**
+     * Copy the next dest.length ints out of the map in one go.
+     * @param map the mapped file, positioned at the column
+     * @param dest where the column goes
+     */
+    private static void ints( MappedByteBuffer map, int[] dest ) {
+        map.slice().order( ByteOrder.LITTLE_ENDIAN ).asIntBuffer().get( dest );
+        map.position( map.position() + 4 * dest.length );
+    }
+}
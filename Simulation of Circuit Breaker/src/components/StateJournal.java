@@ -0,0 +1,204 @@
+package components;
+
+import java.util.Arrays;
+
+/**
+ * An append-only journal of the state of Components: while a journal is open, every component writes down its draw
+ * and its switch, engaged and overloaded flags just before it changes any of them. A checkpoint is only a position
+ * in the journal, so taking one costs nothing, and rolling back to it puts the entries back from the last one to
+ * the checkpoint, so it costs as much as what changed since then and not as much as the model. What a rollback
+ * undoes can be put back with redo, until something else changes.
+ * <br><br>
+ * Nothing is reported or passed on by a rollback; the state is put back as it was. The heat of breakers on a
+ * ThermalModel is not journaled. There is one open journal at a time and it is not meant to be used while components
+ * are being switched on several threads; for what-ifs on many threads, fork a FlatTopology instead. Nothing can be
+ * connected or moved while a journal is open, since a rollback could not take it back.
+ *
+ * @author Feng Jiang
+ */
+public class StateJournal {
+
+    private static final byte POWER = 1;
+    private static final byte ENGAGED = 2;
+    private static final byte OVERLOADED = 4;
+
+    /**
+     * the open journal, null if there is none
+     */
+    static volatile StateJournal open;
+
+    /**
+     * the entries, each a component and its state before a change
+     */
+    private Component[] comps = new Component[64];
+    private int[] draws = new int[64];
+    private byte[] flags = new byte[64];
+    private int size;
+
+    /**
+     * what rollbacks have undone, each a component and its state before the rollback, the last undone first
+     */
+    private Component[] redoComps = new Component[0];
+    private int[] redoDraws = new int[0];
+    private byte[] redoFlags = new byte[0];
+    private int redoSize;
+
+    /**
+     * start journaling every change to a component
+     * @throws IllegalStateException    if another journal is open
+     */
+    public void start() {
+        if (open != null && open != this) {
+            throw new IllegalStateException("another journal is open");
+        }
+        open = this;
+    }
+
+    /**
+     * stop journaling; the entries are kept, so it can still be rolled back
+     */
+    public void stop() {
+        if (open == this) {
+            open = null;
+        }
+    }
+
+    /**
+     * @return  int     a checkpoint for rollback, the current position in the journal
+     */
+    public int checkpoint() {
+        return size;
+    }
+
+    /**
+     * @return  int     how many entries there are
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  boolean     true if a rollback can be redone
+     */
+    public boolean canRedo() {
+        return redoSize > 0;
+    }
+
+    /**
+     * forget every entry, making the current state the start of the journal
+     */
+    public void clear() {
+        Arrays.fill(comps, 0, size, null);
+        size = 0;
+        clearRedo();
+    }
+
+    /**
+     * write down the state of a component that is about to change; something new to redo is lost
+     * @param comp  Component   the component
+     */
+    void record(Component comp) {
+        if (redoSize > 0) {
+            clearRedo();
+        }
+        append(comp, comp.draw, flagsOf(comp));
+    }
+
+    /**
+     * Put every component back the way it was at a checkpoint, last change first, and drop the entries after it.
+     * @param checkpoint    int     a position returned by checkpoint
+     * @return  int     how many entries were undone
+     * @throws IllegalArgumentException     if the checkpoint is not in the journal
+     */
+    public int rollback(int checkpoint) {
+        if (checkpoint < 0 || checkpoint > size) {
+            throw new IllegalArgumentException("no checkpoint " + checkpoint + " in a journal of " + size);
+        }
+        int undone = size - checkpoint;
+        if (redoSize + undone > redoComps.length) {
+            int capacity = Math.max(redoComps.length * 2, redoSize + undone);
+            redoComps = Arrays.copyOf(redoComps, capacity);
+            redoDraws = Arrays.copyOf(redoDraws, capacity);
+            redoFlags = Arrays.copyOf(redoFlags, capacity);
+        }
+        while (size > checkpoint) {
+            size--;
+            Component comp = comps[size];
+            redoComps[redoSize] = comp;
+            redoDraws[redoSize] = comp.draw;
+            redoFlags[redoSize] = flagsOf(comp);
+            redoSize++;
+            restore(comp, draws[size], flags[size]);
+            comps[size] = null;
+        }
+        return undone;
+    }
+
+    /**
+     * Put back everything the rollbacks since the last change undid, first undone last, journaling it again.
+     * @return  int     how many entries were redone
+     */
+    public int redo() {
+        int redone = redoSize;
+        while (redoSize > 0) {
+            redoSize--;
+            Component comp = redoComps[redoSize];
+            append(comp, comp.draw, flagsOf(comp));
+            restore(comp, redoDraws[redoSize], redoFlags[redoSize]);
+            redoComps[redoSize] = null;
+        }
+        return redone;
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @param draw  int     its draw
+     * @param state     byte    its flags
+     */
+    private void append(Component comp, int draw, byte state) {
+        if (size == comps.length) {
+            comps = Arrays.copyOf(comps, size * 2);
+            draws = Arrays.copyOf(draws, size * 2);
+            flags = Arrays.copyOf(flags, size * 2);
+        }
+        comps[size] = comp;
+        draws[size] = draw;
+        flags[size] = state;
+        size++;
+    }
+
+    /**
+     * forget what can be redone
+     */
+    private void clearRedo() {
+        Arrays.fill(redoComps, 0, redoSize, null);
+        redoSize = 0;
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  byte    its switch, engaged and overloaded flags
+     */
+    private static byte flagsOf(Component comp) {
+        int state = 0;
+        if (comp instanceof Switcher && ((Switcher) comp).isSwitchOn()) {
+            state |= POWER;
+        }
+        if (comp.engaged) {
+            state |= ENGAGED;
+        }
+        if (comp.overloaded) {
+            state |= OVERLOADED;
+        }
+        return (byte) state;
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @param draw  int     the draw to give it
+     * @param state     byte    the flags to give it
+     */
+    private static void restore(Component comp, int draw, byte state) {
+        comp.restoreState(draw, (state & ENGAGED) != 0, (state & OVERLOADED) != 0, (state & POWER) != 0);
+    }
+}
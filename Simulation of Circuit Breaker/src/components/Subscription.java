@@ -0,0 +1,117 @@
+package components;
+
+/**
+ * A ReportListener registered with Reporter, and which events it wants:
+ * which event keys, and either every Component, one Component, or one
+ * Component and everything below it. Cancel it to stop the events.
+ *
+ * @author Feng Jiang
+ */
+public final class Subscription {
+
+    /**
+     * who is told, and about what
+     */
+    private final ReportListener listener;
+    private final Component scope;
+    private final boolean subtree;
+    final int msgs;
+
+    /**
+     * Make a subscription; Reporter.subscribe registers it.
+     * @param listener who is told
+     * @param scope the only Component, or the top of the only subtree,
+     *              whose events are wanted; null for every Component
+     * @param subtree true if the events of everything below scope are
+     *                wanted too
+     * @param msgs one bit per event key wanted
+     */
+    Subscription( ReportListener listener, Component scope, boolean subtree,
+                  int msgs ) {
+        this.listener = listener;
+        this.scope = scope;
+        this.subtree = subtree;
+        this.msgs = msgs;
+    }
+
+    /**
+     * @return the listener
+     */
+    public ReportListener listener() {
+        return listener;
+    }
+
+    /**
+     * Stop telling the listener about anything.
+     */
+    public void cancel() {
+        Reporter.unsubscribe( this );
+    }
+
+    /**
+     * @param comp the Component an event is about
+     * @return true if this subscription wants events about it; for a
+     *         subtree the sources above it are walked until the top of
+     *         the subtree is found or they run out
+     */
+    boolean accepts( Component comp ) {
+        if ( scope == null || comp == scope ) {
+            return true;
+        }
+        if ( !subtree ) {
+            return false;
+        }
+        for ( Component up = comp.getSource(); up != null;
+              up = up.getSource() ) {
+            if ( up == scope ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Call the listener method that goes with an event key.
+     * @param comp1 the first Component involved
+     * @param comp2 the second Component involved, or null
+     * @param msg the event key
+     * @param param the numerical quantity, 0 if there is none
+     */
+    void deliver( Component comp1, Component comp2, Reporter.Msg msg,
+                  int param ) {
+        switch ( msg ) {
+            case CREATING:
+                listener.onCreate( comp1 );
+                break;
+            case ATTACHING:
+                listener.onAttach( comp1, comp2 );
+                break;
+            case DETACHING:
+                listener.onDetach( comp1, comp2 );
+                break;
+            case ENGAGING:
+                listener.onEngage( comp1 );
+                break;
+            case DISENGAGING:
+                listener.onDisengage( comp1 );
+                break;
+            case SWITCHING_ON:
+                listener.onSwitch( comp1, true );
+                break;
+            case SWITCHING_OFF:
+                listener.onSwitch( comp1, false );
+                break;
+            case DRAW_CHANGE:
+                listener.onDrawChange( comp1, param );
+                break;
+            case BLOWN:
+                listener.onTrip( (CircuitBreaker)comp1, param );
+                break;
+            case POWERING_UP:
+                listener.onPowerUp( comp1 );
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+/**
+ * Answers questions about everything below a component, such as the total rating of its appliances, how many of them
+ * are switched on and what they draw, or the highest draw of any component in it, in logarithmic time instead of a
+ * walk of the subtree. The components are numbered in depth first order, an Euler tour, so every subtree is a range
+ * of numbers; sums over ranges come from Fenwick trees and the highest draw from a segment tree.
+ * <br><br>
+ * The index listens to Reporter. A component that reports a change in draw or a switch is marked, and the marked
+ * components are brought up to date before the next question, each at logarithmic cost. Components connected after
+ * the index was built are kept on a list of pending components, each with the numbered component it hangs from,
+ * and are added up one by one; once there are more of them than the square root of the number of components, the
+ * numbering is built again. So connecting a component costs constant time, but with n components a question costs
+ * O(log n) plus O(sqrt n) for the pending ones, and the rebuilds, O(n) every sqrt n connections, add another
+ * O(sqrt n) to each connection on average. A component moved or detached below the index, or a subtree connected to it, makes it
+ * number everything again before the next question. A rollback of a StateJournal changes components without
+ * reporting, so rebuild the index after one. The index is not meant to be used while components are being switched
+ * on several threads.
+ *
+ * @author Feng Jiang
+ */
+public class SubtreeIndex {
+
+    /**
+     * A Fenwick tree of longs over positions 0 up.
+     */
+    private static final class Fenwick {
+        private final long[] tree;
+
+        Fenwick(int size) {
+            tree = new long[size + 1];
+        }
+
+        /**
+         * @param i     int     a position
+         * @param delta     long    what to add at it
+         */
+        void add(int i, long delta) {
+            for (int k = i + 1; k < tree.length; k += k & -k) {
+                tree[k] += delta;
+            }
+        }
+
+        /**
+         * @param end   int     one past the last position
+         * @return  long    the sum of the positions before end
+         */
+        long prefix(int end) {
+            long sum = 0;
+            for (int k = end; k > 0; k -= k & -k) {
+                sum += tree[k];
+            }
+            return sum;
+        }
+
+        /**
+         * @param from  int     the first position
+         * @param to    int     one past the last position
+         * @return  long    the sum of the positions from from up to to
+         */
+        long sum(int from, int to) {
+            return prefix(to) - prefix(from);
+        }
+    }
+
+    private final ArrayList<Component> roots = new ArrayList<>();
+    private final Subscription subscription;
+
+    /**
+     * the numbering: by position, the component and one past the end of its subtree; by id, the position
+     */
+    private Component[] order;
+    private int[] end;
+    private int[] placeOfId;
+    private int firstId;        // the id placeOfId starts at
+    private int size;
+
+    /**
+     * what the trees hold for each position, to work out the change when a component is brought up to date
+     */
+    private boolean[] on;
+    private int[] draw;
+    private Fenwick rated;
+    private Fenwick switchedOn;
+    private Fenwick ratedOn;
+    private int[] maxDraw;          // segment tree, leaves at size + position
+
+    /**
+     * positions that have changed since the last question
+     */
+    private boolean[] marked;
+    private int[] changed;
+    private int changes;
+
+    /**
+     * components connected since the numbering was made, and the position of the numbered component above each
+     */
+    private final ArrayList<Component> pending = new ArrayList<>();
+    private int[] pendingAnchor = new int[16];
+    private final IdentityHashMap<Component, Integer> anchorOf = new IdentityHashMap<>();
+    private boolean rewired;
+    private int rebuilds;
+
+    /**
+     * Index every component in the collection that has no source, and everything below it, and start listening.
+     * @param components    Collection  the components; those with a source are indexed with their roots
+     */
+    public SubtreeIndex(Collection<? extends Component> components) {
+        for (Component comp : components) {
+            if (comp.getSource() == null) {
+                roots.add(comp);
+            }
+        }
+        build();
+        subscription = Reporter.subscribe(new ReportListener() {
+            @Override
+            public void onDrawChange(Component comp, int delta) {
+                mark(comp);
+            }
+
+            @Override
+            public void onSwitch(Component comp, boolean isOn) {
+                mark(comp);
+            }
+
+            @Override
+            public void onAttach(Component source, Component load) {
+                attached(source, load);
+            }
+
+            @Override
+            public void onDetach(Component source, Component load) {
+                if (positionOf(source) >= 0 || anchorOf.containsKey(source)) {
+                    rewired = true;
+                }
+            }
+        }, Reporter.Msg.DRAW_CHANGE, Reporter.Msg.SWITCHING_ON, Reporter.Msg.SWITCHING_OFF, Reporter.Msg.ATTACHING,
+                Reporter.Msg.DETACHING);
+    }
+
+    /**
+     * stop listening; the index must not be asked anything after this
+     */
+    public void close() {
+        subscription.cancel();
+    }
+
+    /**
+     * number every component again, taking in the pending ones, and fill the trees from scratch
+     */
+    public void rebuild() {
+        build();
+        rebuilds++;
+    }
+
+    /**
+     * @return  int     how many times the numbering has been built again
+     */
+    public int rebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * @return  int     how many components are waiting for the next rebuild
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * @return  int     how many components are numbered
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param top   Component   a component
+     * @return  long    the sum of the ratings of the appliances in its subtree, switched on or not
+     */
+    public long ratedLoad(Component top) {
+        int at = prepare(top);
+        long sum = rated.sum(at, end[at]);
+        for (int p = 0; p < pending.size(); p++) {
+            if (under(p, at) && pending.get(p) instanceof Appliance) {
+                sum += ((Appliance) pending.get(p)).getRating();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param top   Component   a component
+     * @return  int     how many appliances in its subtree are switched on
+     */
+    public int appliancesOn(Component top) {
+        int at = prepare(top);
+        long count = switchedOn.sum(at, end[at]);
+        for (int p = 0; p < pending.size(); p++) {
+            if (under(p, at) && isOn(pending.get(p))) {
+                count++;
+            }
+        }
+        return (int) count;
+    }
+
+    /**
+     * @param top   Component   a component
+     * @return  long    the sum of the ratings of the appliances in its subtree that are switched on, whether or not
+     *                  they have power
+     */
+    public long loadOn(Component top) {
+        int at = prepare(top);
+        long sum = ratedOn.sum(at, end[at]);
+        for (int p = 0; p < pending.size(); p++) {
+            if (under(p, at) && isOn(pending.get(p))) {
+                sum += ((Appliance) pending.get(p)).getRating();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param top   Component   a component
+     * @return  int     the highest draw of any component in its subtree, itself included
+     */
+    public int maxDraw(Component top) {
+        int at = prepare(top);
+        int best = Integer.MIN_VALUE;
+        for (int l = at + size, r = end[at] + size; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                best = Math.max(best, maxDraw[l++]);
+            }
+            if ((r & 1) == 1) {
+                best = Math.max(best, maxDraw[--r]);
+            }
+        }
+        for (int p = 0; p < pending.size(); p++) {
+            if (under(p, at)) {
+                best = Math.max(best, pending.get(p).getDraw());
+            }
+        }
+        return best;
+    }
+
+    /**
+     * bring the marked components up to date and find a component, rebuilding first if it is pending, too many are,
+     * or something has been moved
+     * @param top   Component   a component
+     * @return  int     its position
+     * @throws IllegalArgumentException     if it is not in the index
+     */
+    private int prepare(Component top) {
+        int at = positionOf(top);
+        if (rewired || (at < 0 && anchorOf.containsKey(top)) || (long) pending.size() * pending.size() > size) {
+            rebuild();          // not while attaching, the load is not among its source's loads yet
+            at = positionOf(top);
+        }
+        if (at < 0) {
+            throw new IllegalArgumentException(top.getName() + " is not indexed");
+        }
+        for (int c = 0; c < changes; c++) {
+            update(changed[c]);
+            marked[changed[c]] = false;
+        }
+        changes = 0;
+        return at;
+    }
+
+    /**
+     * @param p     int     a pending component
+     * @param at    int     a position
+     * @return  boolean     true if the pending component is in the subtree at that position
+     */
+    private boolean under(int p, int at) {
+        return pendingAnchor[p] >= at && pendingAnchor[p] < end[at];
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  int     its position, -1 if it is not numbered
+     */
+    private int positionOf(Component comp) {
+        int at = comp.getId() - firstId;
+        return at >= 0 && at < placeOfId.length ? placeOfId[at] : -1;
+    }
+
+    /**
+     * @param comp  Component   a component
+     * @return  boolean     true if it is an appliance that is switched on
+     */
+    private static boolean isOn(Component comp) {
+        return comp instanceof Appliance && ((Appliance) comp).isSwitchOn();
+    }
+
+    /**
+     * note that a component has changed, if it is numbered
+     * @param comp  Component   the component
+     */
+    private void mark(Component comp) {
+        int at = positionOf(comp);
+        if (at >= 0 && !marked[at]) {
+            marked[at] = true;
+            changed[changes++] = at;
+        }
+    }
+
+    /**
+     * a load was attached; if its source is in the index, so is the load, pending until the next rebuild, or, if it
+     * brings loads of its own, numbered with them at the next question
+     * @param source    Component   the source
+     * @param load  Component   the load
+     */
+    private void attached(Component source, Component load) {
+        int anchor = positionOf(source);
+        if (anchor < 0) {
+            Integer above = anchorOf.get(source);
+            if (above == null) {
+                return;
+            }
+            anchor = above;
+        }
+        if (!load.getLoads().isEmpty()) {
+            rewired = true;
+            return;
+        }
+        if (pending.size() == pendingAnchor.length) {
+            pendingAnchor = Arrays.copyOf(pendingAnchor, pending.size() * 2);
+        }
+        pendingAnchor[pending.size()] = anchor;
+        pending.add(load);
+        anchorOf.put(load, anchor);
+    }
+
+    /**
+     * bring the trees up to date with a numbered component
+     * @param at    int     its position
+     */
+    private void update(int at) {
+        Component comp = order[at];
+        boolean nowOn = isOn(comp);
+        if (nowOn != on[at]) {
+            on[at] = nowOn;
+            long rating = ((Appliance) comp).getRating();
+            switchedOn.add(at, nowOn ? 1 : -1);
+            ratedOn.add(at, nowOn ? rating : -rating);
+        }
+        int d = comp.getDraw();
+        if (d != draw[at]) {
+            draw[at] = d;
+            int k = at + size;
+            maxDraw[k] = d;
+            for (k >>= 1; k > 0; k >>= 1) {
+                maxDraw[k] = Math.max(maxDraw[2 * k], maxDraw[2 * k + 1]);
+            }
+        }
+    }
+
+    /**
+     * number the components depth first and fill the trees
+     */
+    private void build() {
+        ArrayList<Component> tour = new ArrayList<>();
+        ArrayList<Component> work = new ArrayList<>();
+        int minId = Integer.MAX_VALUE;
+        int maxId = -1;
+        for (Component root : roots) {
+            work.add(root);
+            while (!work.isEmpty()) {
+                Component comp = work.remove(work.size() - 1);
+                tour.add(comp);
+                minId = Math.min(minId, comp.getId());
+                maxId = Math.max(maxId, comp.getId());
+                ArrayList<Component> loads = comp.getLoads();
+                for (int k = loads.size() - 1; k >= 0; k--) {
+                    work.add(loads.get(k));
+                }
+            }
+        }
+        size = tour.size();
+        order = tour.toArray(new Component[0]);
+        firstId = size == 0 ? 0 : minId;
+        placeOfId = new int[maxId - firstId + 1];
+        Arrays.fill(placeOfId, -1);
+        for (int i = 0; i < size; i++) {
+            placeOfId[order[i].getId() - firstId] = i;
+        }
+        end = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            int last = i + 1;
+            ArrayList<Component> loads = order[i].getLoads();
+            if (!loads.isEmpty()) {
+                last = end[positionOf(loads.get(loads.size() - 1))];
+            }
+            end[i] = last;
+        }
+        on = new boolean[size];
+        draw = new int[size];
+        rated = new Fenwick(size);
+        switchedOn = new Fenwick(size);
+        ratedOn = new Fenwick(size);
+        maxDraw = new int[2 * Math.max(1, size)];
+        Arrays.fill(maxDraw, Integer.MIN_VALUE);
+        for (int i = 0; i < size; i++) {
+            Component comp = order[i];
+            if (comp instanceof Appliance) {
+                rated.add(i, ((Appliance) comp).getRating());
+            }
+            on[i] = isOn(comp);
+            if (on[i]) {
+                switchedOn.add(i, 1);
+                ratedOn.add(i, ((Appliance) comp).getRating());
+            }
+            draw[i] = comp.getDraw();
+            maxDraw[size + i] = draw[i];
+        }
+        for (int k = size - 1; k > 0; k--) {
+            maxDraw[k] = Math.max(maxDraw[2 * k], maxDraw[2 * k + 1]);
+        }
+        marked = new boolean[size];
+        changed = new int[size];
+        changes = 0;
+        pending.clear();
+        anchorOf.clear();
+        rewired = false;
+    }
+}
@@ -0,0 +1,123 @@
+package components;
+
+import java.util.ArrayList;
+
+/**
+ * Moves time on for breakers with inverse-time trip curves. Only the breakers that are heating or still cooling down
+ * are kept in the model's list; a breaker joins it when its draw changes and leaves it once it is at or under its
+ * limit and has cooled, so a step costs as much as the number of breakers doing anything, not the number watched.
+ * <br><br>
+ * The model is a Scheduler.Tick, so scheduler.every(1, model) steps it every second of simulated time.
+ *
+ * @author Feng Jiang
+ */
+public class ThermalModel implements Scheduler.Tick {
+
+    /**
+     * heat below this counts as cold
+     */
+    private static final double COLD = 1e-3;
+
+    private final ArrayList<CircuitBreaker> active = new ArrayList<>();
+    private long last;
+    private long trips;
+
+    /**
+     * a model whose clock starts at 0
+     */
+    public ThermalModel() {
+        this(0);
+    }
+
+    /**
+     * @param start     long    the time the model's clock starts at
+     */
+    public ThermalModel(long start) {
+        this.last = start;
+    }
+
+    /**
+     * have a breaker follow a trip curve, heated and cooled by this model
+     * @param breaker   CircuitBreaker  the breaker
+     * @param curve     TripCurve   how it trips
+     */
+    public void watch(CircuitBreaker breaker, TripCurve curve) {
+        breaker.useCurve(curve, this);
+        touch(breaker);
+    }
+
+    /**
+     * a breaker's draw has changed, so it needs looking at on the next step; breakers in different subtrees can be
+     * touched from different threads while ParallelPowerUp runs, so joining the list is synchronized
+     * @param breaker   CircuitBreaker  the breaker
+     */
+    void touch(CircuitBreaker breaker) {
+        if (!breaker.heating) {
+            breaker.heating = true;
+            synchronized (active) {
+                active.add(breaker);
+            }
+        }
+    }
+
+    /**
+     * step the model to the given time
+     * @param now   long    the simulated time
+     */
+    @Override
+    public void tick(long now) {
+        long dt = now - last;
+        last = now;
+        if (dt > 0) {
+            advance(dt);
+        }
+    }
+
+    /**
+     * Heat or cool every active breaker over a stretch of time and trip those that get too hot. A trip changes the
+     * draw of the breakers above, which join the list and are stepped too.
+     * @param dt    long    how much time has gone by
+     * @return  int     how many breakers tripped
+     */
+    public int advance(long dt) {
+        int tripped = 0;
+        int i = 0;
+        while (i < active.size()) {
+            CircuitBreaker breaker = active.get(i);
+            breaker.heat = breaker.getTripCurve().heat(breaker.heat, breaker.getDraw(), breaker.getLimit(), dt);
+            if (breaker.heat >= 1) {
+                breaker.heat = 1;
+                if (breaker.isSwitchOn() && breaker.getDraw() > breaker.getLimit()) {
+                    breaker.thermalTrip();
+                    tripped++;
+                }
+            }
+            if (breaker.heat < COLD && breaker.getDraw() <= breaker.getLimit()) {
+                breaker.heat = 0;
+                breaker.heating = false;
+                CircuitBreaker moved = active.remove(active.size() - 1);
+                if (i < active.size()) {
+                    active.set(i, moved);
+                }
+                continue;
+            }
+            i++;
+        }
+        trips += tripped;
+        return tripped;
+    }
+
+    /**
+     * @return  int     how many breakers are heating or cooling
+     */
+    public int active() {
+        return active.size();
+    }
+
+    /**
+     * @return  long    how many breakers this model has tripped
+     */
+    public long trips() {
+        return trips;
+    }
+}
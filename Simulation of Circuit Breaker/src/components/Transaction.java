@@ -0,0 +1,149 @@
+package components;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Switches components in bulk. An appliance toggled through a transaction is switched straight away, but the current
+ * it starts or stops drawing is only added to what is pending at its source. Commit then works up from the bottom of
+ * everything that has something pending, so each component above the appliances has its draw changed once, by the
+ * net change of everything below it, however many appliances were toggled.
+ * <br><br>
+ * Breakers are checked against that net change only, so an appliance switched on and off again within one transaction
+ * never trips anything. Circuit breakers themselves are toggled straight away, after committing what is pending, since
+ * what they do depends on the draw below them being up to date. Anything else that looks at draws or changes the
+ * shape of the tree should commit first too.
+ * <br><br>
+ * A transaction is meant for one thread.
+ *
+ * @author Feng Jiang
+ */
+public class Transaction {
+
+    /**
+     * the change waiting at one component
+     */
+    private static class Pending {
+        private final Component comp;
+        private int delta;
+        private int waiting;        // how many components below this one still have to pass their change up
+
+        Pending(Component comp) {
+            this.comp = comp;
+        }
+    }
+
+    private final IdentityHashMap<Component, Pending> pending = new IdentityHashMap<>();
+    private final ArrayList<Pending> order = new ArrayList<>();
+    private long toggles;
+
+    /**
+     * switch a component to the other position
+     * @param comp  Component   a switchable component
+     * @return  boolean     true if the component is now switched on
+     * @throws IllegalArgumentException     if it cannot be switched
+     */
+    public boolean toggle(Component comp) {
+        toggles++;
+        if (comp instanceof Appliance) {
+            Appliance appliance = (Appliance) comp;
+            boolean on = !appliance.isSwitchOn();
+            int delta = appliance.switchTo(on);
+            if (delta != 0) {
+                Pending at = pending.get(appliance.source);
+                if (at == null) {
+                    at = new Pending(appliance.source);
+                    pending.put(appliance.source, at);
+                    order.add(at);
+                }
+                at.delta += delta;
+            }
+            return on;
+        }
+        if (!(comp instanceof Switcher)) {
+            throw new IllegalArgumentException(comp.getName() + " cannot be switched");
+        }
+        commit();
+        Switcher switcher = (Switcher) comp;
+        if (switcher.isSwitchOn()) {
+            switcher.turnOff();
+            return false;
+        }
+        switcher.turnOn();
+        return true;
+    }
+
+    /**
+     * @return  boolean     true if there are changes in draw that have not been passed up yet
+     */
+    public boolean isPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * @return  long    how many toggles have gone through this transaction
+     */
+    public long toggles() {
+        return toggles;
+    }
+
+    /**
+     * Pass everything pending up the tree. Every component above the pending changes is collected first and counts
+     * the components below it that have something to pass on; a component passes its net change on once all of those
+     * have, so each one is told exactly once. A breaker that trips stops the change there, as changeDraw would.
+     * @return  int     how many components had their draw changed
+     */
+    public int commit() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        int sources = order.size();
+        for (int i = 0; i < sources; i++) {
+            Component child = order.get(i).comp;
+            Component up = child.source;
+            while (up != null) {
+                Pending at = pending.get(up);
+                boolean seen = at != null;
+                if (!seen) {
+                    at = new Pending(up);
+                    pending.put(up, at);
+                    order.add(at);
+                }
+                at.waiting++;
+                if (seen) {
+                    break;          // everything above it is counted already
+                }
+                up = up.source;
+            }
+        }
+        ArrayList<Pending> ready = new ArrayList<>();
+        for (Pending at : order) {
+            if (at.waiting == 0) {
+                ready.add(at);
+            }
+        }
+        int changed = 0;
+        while (!ready.isEmpty()) {
+            Pending at = ready.remove(ready.size() - 1);
+            Component next = null;
+            if (at.delta != 0) {
+                next = at.comp.passDraw(at.delta);
+                changed++;
+            }
+            Component up = at.comp.source;
+            if (up != null) {
+                Pending above = pending.get(up);
+                if (next != null) {
+                    above.delta += at.delta;
+                }
+                if (--above.waiting == 0) {
+                    ready.add(above);
+                }
+            }
+        }
+        pending.clear();
+        order.clear();
+        Metrics.propagated(changed);
+        return changed;
+    }
+}
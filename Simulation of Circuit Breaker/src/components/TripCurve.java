@@ -0,0 +1,42 @@
+package components;
+
+/**
+ * How a circuit breaker decides to trip. A breaker trips at once when its curve says so for the draw it has just
+ * reached; otherwise it heats up while it is over its limit and cools down while it is not, and trips when its heat
+ * reaches 1. Heat is only followed for breakers watched by a ThermalModel, which moves time on.
+ *
+ * @author Feng Jiang
+ */
+public interface TripCurve {
+
+    /**
+     * the curve every breaker starts with: trip the moment the draw goes over the limit
+     */
+    TripCurve INSTANT = new TripCurve() {
+        @Override
+        public boolean tripsAtOnce(int draw, int limit) {
+            return draw > limit;
+        }
+
+        @Override
+        public double heat(double heat, int draw, int limit, long dt) {
+            return 0;
+        }
+    };
+
+    /**
+     * @param draw  int     the draw the breaker has just reached
+     * @param limit     int     the limit of the breaker
+     * @return  boolean     true if the breaker trips straight away
+     */
+    boolean tripsAtOnce(int draw, int limit);
+
+    /**
+     * @param heat  double  the heat of the breaker, 0 when cold, 1 or more trips it
+     * @param draw  int     the draw it has had over the time
+     * @param limit     int     the limit of the breaker
+     * @param dt    long    how much time has gone by
+     * @return  double  the heat of the breaker now, never below 0
+     */
+    double heat(double heat, int draw, int limit, long dt);
+}
@@ -0,0 +1,174 @@
+package components;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Answers "which breakers would blow if these appliances were on?" for a topology, without touching its state or
+ * reporting anything. Every breaker is taken to be switched on. The appliances are numbered 0 up in topology order and
+ * a question is a bit mask over those numbers; the answer is worked out in one pass: the appliances that are on add
+ * their ratings to their sources, then the other components, from the last to the first so that loads come before
+ * their sources, pass their sums up. A breaker whose loads add up to more than its limit blows and passes nothing up.
+ * <br><br>
+ * The evaluator only reads its own arrays, so one evaluator can answer questions on any number of threads, as long as
+ * each brings its own scratch arrays.
+ *
+ * @author Feng Jiang
+ */
+public class WhatIfEvaluator {
+
+    private final int size;
+    private final int breakers;
+
+    /**
+     * the appliances, by appliance number
+     */
+    private final int[] applianceIndex;     // its index in the topology
+    private final int[] applianceSource;
+    private final long[] rating;
+
+    /**
+     * every other component, last in the topology first
+     */
+    private final int[] innerIndex;
+    private final int[] innerSource;        // -1 for a power source
+    private final long[] innerLimit;        // Long.MAX_VALUE for anything that is not a breaker
+
+    /**
+     * @param flat  FlatTopology    the topology, only its structure is used
+     */
+    public WhatIfEvaluator(FlatTopology flat) {
+        size = flat.size();
+        int appliances = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (flat.kind(i) == FlatTopology.APPLIANCE) {
+                appliances++;
+            } else if (flat.kind(i) == FlatTopology.BREAKER) {
+                count++;
+            }
+        }
+        breakers = count;
+        applianceIndex = new int[appliances];
+        applianceSource = new int[appliances];
+        rating = new long[appliances];
+        innerIndex = new int[size - appliances];
+        innerSource = new int[size - appliances];
+        innerLimit = new long[size - appliances];
+        int a = 0;
+        int n = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            if (flat.kind(i) != FlatTopology.APPLIANCE) {
+                innerIndex[n] = i;
+                innerSource[n] = flat.parent(i);
+                innerLimit[n] = flat.kind(i) == FlatTopology.BREAKER ? flat.limit(i) : Long.MAX_VALUE;
+                n++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (flat.kind(i) == FlatTopology.APPLIANCE) {
+                applianceIndex[a] = i;
+                applianceSource[a] = flat.parent(i);
+                rating[a] = flat.rating(i);
+                a++;
+            }
+        }
+    }
+
+    /**
+     * @return  int     how many components the topology has, the length of a draw array
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  int     how many appliances there are, numbered 0 up
+     */
+    public int appliances() {
+        return applianceIndex.length;
+    }
+
+    /**
+     * @return  int     how many breakers there are, the most that can blow at once
+     */
+    public int breakers() {
+        return breakers;
+    }
+
+    /**
+     * @return  int     how many longs a mask of appliances takes
+     */
+    public int words() {
+        return (applianceIndex.length + 63) >>> 6;
+    }
+
+    /**
+     * @param a     int     an appliance number
+     * @return  int     its index in the topology
+     */
+    public int applianceIndex(int a) {
+        return applianceIndex[a];
+    }
+
+    /**
+     * @param a     int     an appliance number
+     * @return  long    its rating
+     */
+    public long rating(int a) {
+        return rating[a];
+    }
+
+    /**
+     * Work out which breakers blow with the given appliances on. Nothing is allocated; the arrays belong to the
+     * caller.
+     * @param on    long[]  bit a of word a / 64 is set for each appliance a that is on, words() long
+     * @param draw  long[]  filled in with the draw of every component that is not an appliance, size() long
+     * @param blown     int[]   filled in with the topology indexes of the breakers that blow, breakers() long
+     * @return  int     how many breakers blow
+     */
+    public int evaluate(long[] on, long[] draw, int[] blown) {
+        for (int n = 0; n < innerIndex.length; n++) {
+            draw[innerIndex[n]] = 0;
+        }
+        for (int w = 0; w < on.length; w++) {
+            long bits = on[w];
+            while (bits != 0) {
+                int a = (w << 6) + Long.numberOfTrailingZeros(bits);
+                draw[applianceSource[a]] += rating[a];
+                bits &= bits - 1;
+            }
+        }
+        int count = 0;
+        for (int n = 0; n < innerIndex.length; n++) {
+            int i = innerIndex[n];
+            long d = draw[i];
+            if (d > innerLimit[n]) {
+                blown[count++] = i;
+                d = 0;
+            }
+            int up = innerSource[n];
+            if (up >= 0) {
+                draw[up] += d;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Work out which breakers blow with the given appliances on, allocating what is needed.
+     * @param on    BitSet  the topology indexes of the appliances that are on; other indexes are ignored
+     * @return  int[]   the topology indexes of the breakers that blow, last in the topology first
+     */
+    public int[] blownBreakers(BitSet on) {
+        long[] mask = new long[words()];
+        for (int a = 0; a < applianceIndex.length; a++) {
+            if (on.get(applianceIndex[a])) {
+                mask[a >>> 6] |= 1L << a;
+            }
+        }
+        int[] blown = new int[breakers];
+        int count = evaluate(mask, new long[size], blown);
+        return Arrays.copyOf(blown, count);
+    }
+}